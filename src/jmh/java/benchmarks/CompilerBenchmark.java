@@ -0,0 +1,176 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import java_cup.runtime.Symbol;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import analyzer.Analysis;
+import codegen.CodeGen;
+import common.astnodes.Program;
+import lexer.Parser;
+import lexer.PyLangLexer;
+import lexer.PyLangTokens;
+import lexer.TokenStream;
+
+/**
+ * Throughput of each phase of the compiler, measured separately.
+ *
+ * Each benchmark runs on every INPUT: the programs in src/test/benchmarks
+ * (by name, e.g. "sieve"), and synthetic programs of a given number of
+ * lines (e.g. "lines:100000").  Select a subset with JMH's -p option, as
+ * in "-p input=sieve,lines:10000".  The directory holding the benchmark
+ * programs may be set with the system property pylang.benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompilerBenchmark {
+
+    /** Prefix of INPUT values denoting synthetic programs. */
+    private static final String LINES_PREFIX = "lines:";
+
+    /** The program to compile, and its results from earlier phases. */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({ "sieve", "prime", "tree", "exp", "stdlib",
+                 "lines:10000", "lines:100000", "lines:1000000" })
+        public String input;
+
+        /** Source text of INPUT. */
+        public String source;
+        /** SOURCE after semantic analysis, as input to code generation. */
+        public Program typed;
+
+        @Setup(Level.Trial)
+        public void load() throws IOException {
+            if (input.startsWith(LINES_PREFIX)) {
+                source = synthesize(Integer.parseInt(
+                    input.substring(LINES_PREFIX.length())));
+            } else {
+                String dir = System.getProperty("pylang.benchmarks",
+                                                "src/test/benchmarks");
+                source = new String(
+                    Files.readAllBytes(Paths.get(dir, input + ".py")),
+                    StandardCharsets.UTF_8);
+            }
+            typed = Analysis.process(Parser.process(source, false), false);
+        }
+    }
+
+    /** A freshly parsed copy of the input.  Analysis decorates the AST it
+     *  is given, so each analysis must start from a new one. */
+    @State(Scope.Thread)
+    public static class Parsed {
+        /** The untyped AST of the input. */
+        public Program program;
+
+        @Setup(Level.Invocation)
+        public void parse(Input input) {
+            program = Parser.process(input.source, false);
+        }
+    }
+
+    /** Number of tokens lexed, reported by JMH as tokens per second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    /** Lex the input, returning the number of tokens. */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long lex(Input input, Tokens counter) throws IOException {
+        PyLangLexer lexer = new PyLangLexer(new StringReader(input.source));
+        long count = 0;
+        Symbol token;
+        do {
+            token = lexer.next_token();
+            count += 1;
+        } while (token.sym != PyLangTokens.EOF);
+        counter.tokens += count;
+        return count;
+    }
+
+    /** Lex the input through a TokenStream, which builds no symbols,
+     *  returning the number of tokens. */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long tokenStream(Input input, Tokens counter) throws IOException {
+        TokenStream tokens = new TokenStream(input.source);
+        while (tokens.next()) {
+        }
+        counter.tokens += tokens.count();
+        return tokens.count();
+    }
+
+    /** Lex and parse the input. */
+    @Benchmark
+    public Program parse(Input input) {
+        return Parser.process(input.source, false);
+    }
+
+    /** Analyze a freshly parsed copy of the input. */
+    @Benchmark
+    public Program analyze(Parsed parsed) {
+        return Analysis.process(parsed.program, false);
+    }
+
+    /** Generate assembly from the analyzed input. */
+    @Benchmark
+    public String codegen(Input input) {
+        return CodeGen.process(input.typed, false);
+    }
+
+    /** Return a well-typed program of at least LINES lines, made of many
+     *  copies of a small function followed by a call to each. */
+    public static String synthesize(int lines) {
+        /* Each function takes 11 lines, and its call one more. */
+        int functions = (lines + 11) / 12;
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < functions; i += 1) {
+            result.append("def f").append(i).append("(n: int) -> int:\n")
+                .append("    i: int = 0\n")
+                .append("    total: int = 0\n")
+                .append("    while i < n:\n")
+                .append("        if i % 3 == 0:\n")
+                .append("            total = total + i * 2\n")
+                .append("        else:\n")
+                .append("            total = total - i // 2\n")
+                .append("        i = i + 1\n")
+                .append("    return total\n")
+                .append("\n");
+        }
+        for (int i = 0; i < functions; i += 1) {
+            result.append("print(f").append(i).append("(10))\n");
+        }
+        return result.toString();
+    }
+}
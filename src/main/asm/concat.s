@@ -0,0 +1,45 @@
+# Runtime support function concat.
+        # Lists to concatenate are in a0 and a1.
+        # The new list is returned in a0.
+  beqz a0, error.None                      # Operation on None
+  beqz a1, error.None                      # Operation on None
+  addi sp, sp, -12                         # Reserve stack
+  sw ra, 8(sp)                             # Save return address
+  sw a0, 4(sp)                             # Save first list
+  sw a1, 0(sp)                             # Save second list
+  lw t0, @.__len__(a0)                     # Get length of first list
+  lw t1, @.__len__(a1)                     # Get length of second list
+  add t0, t0, t1                           # Length of result
+  addi a1, t0, 4                           # Add words for header and length
+  la a0, $.list$prototype                  # Load address of list prototype
+  jal ra, alloc2                           # Allocate list
+  lw t0, 4(sp)                             # Restore first list
+  lw t1, 0(sp)                             # Restore second list
+  lw t2, @.__len__(t0)                     # Get length of first list
+  lw t3, @.__len__(t1)                     # Get length of second list
+  add t4, t2, t3                           # Length of result
+  sw t4, @.__len__(a0)                     # Store length of result
+  addi t4, a0, @.__elts__                  # Initialize dest ptr
+  addi t0, t0, @.__elts__                  # Initialize src ptr
+concat_1:                                  # Copy first list
+  beqz t2, concat_2                        # Stop when no elements left
+  lw t5, 0(t0)                             # Load next element from src
+  sw t5, 0(t4)                             # Store next element to dest
+  addi t0, t0, 4                           # Increment src
+  addi t4, t4, 4                           # Increment dest
+  addi t2, t2, -1                          # Decrement counter
+  j concat_1                               # Loop
+concat_2:                                  # Copy second list
+  addi t1, t1, @.__elts__                  # Initialize src ptr
+concat_3:                                  # Copy-loop header
+  beqz t3, concat_4                        # Stop when no elements left
+  lw t5, 0(t1)                             # Load next element from src
+  sw t5, 0(t4)                             # Store next element to dest
+  addi t1, t1, 4                           # Increment src
+  addi t4, t4, 4                           # Increment dest
+  addi t3, t3, -1                          # Decrement counter
+  j concat_3                               # Loop
+concat_4:                                  # Done copying
+  lw ra, 8(sp)                             # Restore return address
+  addi sp, sp, 12                          # Release stack
+  jr ra                                    # Return to caller
@@ -0,0 +1,417 @@
+# Runtime support function gc: slow path of alloc2.
+        # Number of words to allocate is in a1.
+        # Finds the space in the free lists or, failing that, collects
+        # garbage and tries again, growing the heap if the collection
+        # frees less than a quarter of it or the space is still not
+        # found.  Returns the address of the
+        # space in t3 and the number of words actually taken, which may
+        # exceed the request by up to two, in a1.  Preserves a0.  Like
+        # alloc2, clobbers only a0-a2 and t0-t3.
+  addi sp, sp, -8                          # Reserve stack
+  sw ra, 4(sp)                             # Save return address
+  sw a0, 0(sp)                             # Save prototype
+  jal gc_take                              # Try the free list
+  bnez t3, gc_done                         # Done if a chunk fits
+  jal gc_collect                           # Collect garbage
+  sub t0, s11, s10                         # Size of heap in bytes
+  srli t0, t0, 2                           # A quarter of it
+  bgeu t2, t0, gc_retry                    # Keep size if enough was freed
+  jal gc_grow                              # Grow heap
+gc_retry:                                  # Try the emptier heap
+  jal gc_bump                              # Allocate at GP
+  bnez t3, gc_done                         # Done if the space fits
+  jal gc_take                              # Find a chunk that fits
+  bnez t3, gc_done                         # Done if one does
+  jal gc_grow                              # Grow heap to hold A1 words
+  jal gc_bump                              # Allocate at GP
+  bnez t3, gc_done                         # Done if the space fits
+  li a0, @error_oom                        # Exit code for: Out of memory
+  la a1, STRING["Out of memory"]           # Load error message as str
+  addi a1, a1, @.__str__                   # Load address of attribute __str__
+  j abort                                  # Abort
+gc_done:                                   # Return the space in T3
+  lw a0, 0(sp)                             # Restore prototype
+  lw ra, 4(sp)                             # Restore return address
+  addi sp, sp, 8                           # Release stack
+  jr ra                                    # Return to caller
+
+gc_bump:                                   # Allocate a1 words at gp
+                                           # Returns space in t3 or 0.
+  li a2, 4                                 # Word size in bytes
+  mul a2, a1, a2                           # Calculate number of bytes to allocate
+  add a2, gp, a2                           # Estimate where GP will move
+  li t3, 0                                 # Fail if too large
+  bgeu a2, s11, gc_bump_1
+  mv t3, gp                                # Allocate at GP
+  mv gp, a2                                # Set next free slot in the heap
+gc_bump_1:                                 # Done
+  jr ra                                    # Return space
+
+gc_scratch:                                # Size of collector's memory
+                                           # Returns bytes of bitmap for
+                                           # heap in t1, and of bitmap and
+                                           # mark stack in t2.
+  sub t1, s11, s10                         # Size of heap in bytes
+  srli t1, t1, 5                           # One bit per word
+  addi t1, t1, 8                           # Round up
+  li t2, @gc_marks                         # Size of mark stack
+  add t2, t1, t2                           # Total size
+  jr ra                                    # Return sizes
+
+gc_grow:                                   # Grow heap for a1 words, by
+                                           # @gc_heap_grow bytes or half
+                                           # its size, whichever is more
+                                           # The bitmap and mark stack
+                                           # follow the heap in memory:
+                                           # they become part of the grown
+                                           # heap and move past its end.
+  li t0, @gc_heap_grow                     # Bytes to grow by
+  beqz t0, gc_grow_1                       # Fail if heap is fixed
+  slli t1, a1, 2                           # Bytes requested
+  bgeu t0, t1, gc_grow_2                   # Grow by at least that much
+  mv t0, t1
+gc_grow_2:                                 # Grow by half the heap or more
+  sub t1, s11, s10                         # Size of heap in bytes
+  srli t1, t1, 1                           # Half of it
+  bgeu t0, t1, gc_grow_6                   # Keep the larger
+  mv t0, t1
+gc_grow_6:                                 # Round up to 4KB
+  li t1, 4095
+  add t0, t0, t1
+  srli t0, t0, 12
+  slli t0, t0, 12
+  addi sp, sp, -8                          # Reserve stack
+  sw ra, 4(sp)                             # Save return address
+  sw a1, 0(sp)                             # Save request
+  mv a2, s11                               # End of memory in use
+  lw t1, gc.bitmap
+  beqz t1, gc_grow_3                       # Skip bitmap if not allocated
+  jal gc_scratch                           # Size of bitmap and mark stack
+  add a2, a2, t2                           # End of mark stack
+gc_grow_3:                                 # Request memory
+  add s11, s11, t0                         # New end of heap
+  jal gc_scratch                           # Size of bitmap and mark stack
+  add a1, s11, t2                          # New end of memory in use
+  sub a1, a1, a2                           # Bytes to request
+  li a0, @sbrk                             # Code for ecall: sbrk
+  ecall                                    # Request A1 bytes
+  beq a0, a2, gc_grow_4                    # Check memory is contiguous
+  sub s11, s11, t0                         # Keep old end of heap
+  j gc_grow_5                              # Fail
+gc_grow_4:                                 # Move bitmap and mark stack
+  jal gc_scratch                           # Size of bitmap
+  sw s11, gc.bitmap, t0                    # Bitmap follows heap
+  add t1, s11, t1                          # Mark stack follows bitmap
+  sw t1, gc.marks, t0
+gc_grow_5:                                 # Done
+  lw a1, 0(sp)                             # Restore request
+  lw ra, 4(sp)                             # Restore return address
+  addi sp, sp, 8                           # Release stack
+gc_grow_1:                                 # Return
+  jr ra                                    # Return to caller
+
+gc_take:                                   # Find a chunk of a1 words
+                                           # Returns chunk in t3 or 0.
+  li t0, @gc_size_classes                  # Number of exact size classes
+  bgeu a1, t0, gc_take_5                   # Large sizes share one list
+  la t0, gc.classes                        # Table of exact size classes
+  slli t1, a1, 2                           # Offset of class of A1 words
+  add t0, t0, t1                           # Address of link to first chunk
+  lw t3, 0(t0)                             # Load first chunk
+  beqz t3, gc_take_5                       # Try large chunks if none
+  lw t1, 8(t3)                             # Unlink chunk
+  sw t1, 0(t0)
+  jr ra                                    # Return chunk
+gc_take_5:                                 # First fit in gc.free
+  la t0, gc.free                           # Address of link to first chunk
+gc_take_1:                                 # Loop over chunks
+  lw t3, 0(t0)                             # Load next chunk
+  beqz t3, gc_take_3                       # Fail at end of list
+  lw t1, @.__obj_size__(t3)                # Size of chunk in words
+  sub t2, t1, a1                           # Words left over
+  bltz t2, gc_take_2                       # Skip chunk if too small
+  li a2, 3                                 # Least size of a chunk
+  bge t2, a2, gc_take_4                    # Split chunk if enough is left
+  lw a2, 8(t3)                             # Take whole chunk: unlink it
+  sw a2, 0(t0)                             # Link predecessor to successor
+  mv a1, t1                                # Report size taken
+  jr ra                                    # Return chunk
+gc_take_4:                                 # Split chunk
+  sw t2, @.__obj_size__(t3)                # Keep the front as a free chunk
+  slli t2, t2, 2                           # Size of front in bytes
+  add t3, t3, t2                           # Return the back
+  jr ra                                    # Return chunk
+gc_take_2:                                 # Advance to next chunk
+  addi t0, t3, 8                           # Address of link to next chunk
+  j gc_take_1                              # Loop
+gc_take_3:                                 # No chunk fits
+  jr ra                                    # Return 0
+
+gc_collect:                                # Mark-sweep collection
+                                           # Returns bytes free in t2.
+  addi sp, sp, -76                         # Reserve stack
+  sw ra, 72(sp)                            # Save return address
+  sw a1, 68(sp)                            # Save registers of caller,
+  sw a3, 64(sp)                            # which are also scanned as
+  sw a4, 60(sp)                            # roots
+  sw a5, 56(sp)
+  sw a6, 52(sp)
+  sw a7, 48(sp)
+  sw t4, 44(sp)
+  sw t5, 40(sp)
+  sw t6, 36(sp)
+  sw s1, 32(sp)
+  sw s2, 28(sp)
+  sw s3, 24(sp)
+  sw s4, 20(sp)
+  sw s5, 16(sp)
+  sw s6, 12(sp)
+  sw s7, 8(sp)
+  sw s8, 4(sp)
+  sw s9, 0(sp)
+  lw s1, gc.bitmap                         # Object-start bitmap
+  bnez s1, gc_collect_1                    # Allocate it on first use
+  jal gc_scratch                           # Size of bitmap and mark stack
+  li a0, @sbrk                             # Code for ecall: sbrk
+  mv a1, t2                                # Size of bitmap and mark stack
+  ecall                                    # Request A1 bytes
+  mv s1, a0                                # Address of bitmap
+  sw s1, gc.bitmap, t0                     # Remember bitmap
+  jal gc_scratch                           # Size of bitmap
+  add t1, s1, t1                           # Mark stack follows bitmap
+  sw t1, gc.marks, t0                      # Remember mark stack
+gc_collect_1:                              # Clear the bitmap
+  sub t0, gp, s10                          # Bytes in use in heap
+  srli t0, t0, 5                           # Bytes of bitmap in use
+  add t0, s1, t0                           # End of bitmap in use
+  mv t1, s1                                # Initialize dest ptr
+gc_clear:                                  # Clear-loop header
+  sw zero, 0(t1)                           # Clear next word
+  addi t1, t1, 4                           # Increment dest
+  bgeu t0, t1, gc_clear                    # Loop up to and including end
+  mv t0, s10                               # Walk heap, recording starts
+gc_starts:                                 # Start-loop header
+  bgeu t0, gp, gc_roots                    # Stop at end of heap
+  lw t1, 0(t0)                             # Type tag of chunk
+  lw t2, @.__obj_size__(t0)                # Size of chunk in words
+  li t3, @gc_free_tag                      # Tag of free chunks
+  beq t1, t3, gc_starts_1                  # Skip free chunks
+  sub t3, t0, s10                          # Offset in heap
+  srli t4, t3, 5                           # Byte of bitmap
+  add t4, s1, t4                           # Address of byte
+  lbu t5, 0(t4)                            # Load byte
+  srli t3, t3, 2                           # Word of heap
+  andi t3, t3, 7                           # Bit in byte
+  li t6, 1
+  sll t6, t6, t3                           # Mask of bit
+  or t5, t5, t6                            # Set bit
+  sb t5, 0(t4)                             # Store byte
+gc_starts_1:                               # Advance to next chunk
+  slli t2, t2, 2                           # Size in bytes
+  add t0, t0, t2                           # Next chunk
+  j gc_starts                              # Loop
+gc_roots:                                  # Mark from the roots
+  lw s2, gc.marks                          # Bottom of mark stack
+  mv s3, s2                                # Top of mark stack
+  li s4, @gc_marks                         # Size of mark stack
+  add s4, s2, s4                           # Limit of mark stack
+  li s5, 0                                 # No overflow yet
+  li s6, 1
+  slli s6, s6, 31                          # Mark bit
+  la s7, gc.globals                        # Table of global roots
+gc_globals:                                # Global-loop header
+  lw t4, 0(s7)                             # Address of next global
+  beqz t4, gc_stack                        # Stop at end of table
+  lw t0, 0(t4)                             # Value of global
+  jal gc_mark                              # Mark it
+  addi s7, s7, 4                           # Next entry
+  j gc_globals                             # Loop
+gc_stack:                                  # Scan stack conservatively
+  mv s7, sp                                # Start at top of stack
+  lw s8, gc.stack                          # Stop at its base
+gc_stack_1:                                # Stack-loop header
+  bgeu s7, s8, gc_drain                    # Stop at base
+  lw t0, 0(s7)                             # Load next word
+  jal gc_mark                              # Mark it if an object
+  addi s7, s7, 4                           # Next word
+  j gc_stack_1                             # Loop
+gc_drain:                                  # Scan objects on the mark stack
+  beq s3, s2, gc_drained                   # Stop when empty
+  addi s3, s3, -4                          # Pop object
+  lw s7, 0(s3)
+  jal a7, gc_scan                          # Mark its fields
+  j gc_drain                               # Loop
+gc_drained:                                # Recover from overflow
+  beqz s5, gc_sweep                        # Done if the mark stack held all
+  li s5, 0                                 # Clear overflow
+  mv a4, s10                               # Rescan marked objects
+gc_rescan:                                 # Rescan-loop header
+  bgeu a4, gp, gc_drain                    # Drain again at end of heap
+  lw t0, 0(a4)                             # Type tag of chunk
+  lw t1, @.__obj_size__(a4)                # Size of chunk and mark bit
+  li t2, @gc_free_tag                      # Tag of free chunks
+  beq t0, t2, gc_rescan_2                  # Skip free chunks
+  bgez t1, gc_rescan_2                     # Skip unmarked objects
+  mv s7, a4                                # Mark fields of this object
+  jal a7, gc_scan
+gc_rescan_1:                               # Drain the mark stack
+  beq s3, s2, gc_rescan_2                  # Stop when empty
+  addi s3, s3, -4                          # Pop object
+  lw s7, 0(s3)
+  jal a7, gc_scan                          # Mark its fields
+  j gc_rescan_1                            # Loop
+gc_rescan_2:                               # Advance to next chunk
+  lw t1, @.__obj_size__(a4)                # Size of chunk and mark bit
+  slli t1, t1, 1                           # Clear mark bit
+  srli t1, t1, 1
+  slli t1, t1, 2                           # Size in bytes
+  add a4, a4, t1                           # Next chunk
+  j gc_rescan                              # Loop
+gc_sweep:                                  # Free unmarked objects
+  sw zero, gc.free, t0                     # Start new free lists
+  la t0, gc.classes
+  li t1, @gc_size_classes
+gc_sweep_6:                                # Clear-loop header
+  sw zero, 0(t0)                           # Clear next size class
+  addi t0, t0, 4
+  addi t1, t1, -1
+  bnez t1, gc_sweep_6                      # Loop over size classes
+  mv a4, s10                               # Walk heap
+  li s7, 0                                 # Start of free run, if any
+  li s9, 0                                 # Bytes freed
+gc_sweep_1:                                # Sweep-loop header
+  bgeu a4, gp, gc_sweep_4                  # Stop at end of heap
+  lw t0, 0(a4)                             # Type tag of chunk
+  lw t1, @.__obj_size__(a4)                # Size of chunk and mark bit
+  li t2, @gc_free_tag                      # Tag of free chunks
+  beq t0, t2, gc_sweep_2                   # Free chunks join the run
+  bltz t1, gc_sweep_3                      # Keep marked objects
+gc_sweep_2:                                # Add chunk to free run
+  bnez s7, gc_sweep_5                      # Extend current run
+  mv s7, a4                                # Start new run
+gc_sweep_5:                                # Advance past chunk
+  slli t1, t1, 2                           # Size in bytes
+  add a4, a4, t1                           # Next chunk
+  j gc_sweep_1                             # Loop
+gc_sweep_3:                                # Live object
+  slli t1, t1, 1                           # Clear mark bit
+  srli t1, t1, 1
+  sw t1, @.__obj_size__(a4)
+  beqz s7, gc_sweep_5                      # Advance if no run to end
+  sub t2, a4, s7                           # Bytes in run
+  add s9, s9, t2                           # Count them as free
+  srli t2, t2, 2                           # Words in run
+  li t3, @gc_free_tag                      # Make run a free chunk
+  sw t3, 0(s7)
+  sw t2, @.__obj_size__(s7)                # Set its size
+  la t3, gc.free                           # List of large chunks
+  li t0, @gc_size_classes                  # Number of exact size classes
+  bgeu t2, t0, gc_sweep_7                  # Push large chunks on gc.free
+  la t3, gc.classes                        # Table of exact size classes
+  slli t2, t2, 2                           # Offset of size class
+  add t3, t3, t2                           # Address of its list
+gc_sweep_7:                                # Push run on list at T3
+  lw t0, 0(t3)                             # Link to first chunk
+  sw t0, 8(s7)
+  sw s7, 0(t3)                             # Make run the first chunk
+  li s7, 0                                 # No run
+  j gc_sweep_5                             # Advance
+gc_sweep_4:                                # End of heap
+  beqz s7, gc_finish                       # Done if no run at the end
+  mv gp, s7                                # Return final run to bump area
+gc_finish:                                 # Restore registers
+  sub t2, s11, gp                          # Bytes free above GP
+  add t2, s9, t2                           # Return bytes free
+  lw s9, 0(sp)
+  lw s8, 4(sp)
+  lw s7, 8(sp)
+  lw s6, 12(sp)
+  lw s5, 16(sp)
+  lw s4, 20(sp)
+  lw s3, 24(sp)
+  lw s2, 28(sp)
+  lw s1, 32(sp)
+  lw t6, 36(sp)
+  lw t5, 40(sp)
+  lw t4, 44(sp)
+  lw a7, 48(sp)
+  lw a6, 52(sp)
+  lw a5, 56(sp)
+  lw a4, 60(sp)
+  lw a3, 64(sp)
+  lw a1, 68(sp)
+  lw ra, 72(sp)                            # Restore return address
+  addi sp, sp, 76                          # Release stack
+  jr ra                                    # Return to caller
+
+gc_mark:                                   # Mark the object at t0, if any
+                                           # Clobbers t1-t2.
+  bltu t0, s10, gc_mark_1                  # Ignore values below heap
+  bgeu t0, gp, gc_mark_1                   # Ignore values above heap
+  andi t1, t0, 3                           # Ignore unaligned values
+  bnez t1, gc_mark_1
+  sub t1, t0, s10                          # Offset in heap
+  srli t2, t1, 5                           # Byte of bitmap
+  add t2, s1, t2                           # Address of byte
+  lbu t2, 0(t2)                            # Load byte
+  srli t1, t1, 2                           # Word of heap
+  andi t1, t1, 7                           # Bit in byte
+  srl t2, t2, t1                           # Test bit
+  andi t2, t2, 1
+  beqz t2, gc_mark_1                       # Ignore values not at objects
+  lw t1, @.__obj_size__(t0)                # Size and mark bit
+  bltz t1, gc_mark_1                       # Ignore marked objects
+  or t1, t1, s6                            # Set mark bit
+  sw t1, @.__obj_size__(t0)
+  bgeu s3, s4, gc_mark_2                   # Check for room on mark stack
+  sw t0, 0(s3)                             # Push object
+  addi s3, s3, 4
+  jr ra                                    # Return
+gc_mark_2:                                 # Mark stack overflow
+  li s5, 1                                 # Rescan heap later
+gc_mark_1:                                 # Nothing to mark
+  jr ra                                    # Return
+
+gc_scan:                                   # Mark the fields of object s7
+                                           # Returns via a7.
+  lw t4, 0(s7)                             # Type tag
+  li t5, -1                                # Type tag of lists
+  beq t4, t5, gc_scan_4                    # Mark elements of lists
+  li t5, 4                                 # First tag of user classes
+  blt t4, t5, gc_scan_3                    # Predefined: no fields to mark
+  la t5, gc.maps                           # Table of pointer maps
+  slli t4, t4, 2                           # Offset of entry
+  add t5, t5, t4                           # Address of entry
+  lw s8, 0(t5)                             # Pointer map of class
+  lw s9, 0(s8)                             # Number of attributes
+  addi a5, s7, 12                          # Address of first attribute
+gc_scan_1:                                 # Load next 32 bits of map
+  beqz s9, gc_scan_3                       # Stop after last attribute
+  addi s8, s8, 4                           # Next word of map
+  lw a3, 0(s8)
+  li a6, 32                                # Bits in word
+gc_scan_2:                                 # Attribute-loop header
+  beqz s9, gc_scan_3                       # Stop after last attribute
+  beqz a6, gc_scan_1                       # Load more bits if needed
+  andi t5, a3, 1                           # Is attribute a pointer?
+  beqz t5, gc_scan_5
+  lw t0, 0(a5)                             # Mark attribute
+  jal gc_mark
+gc_scan_5:                                 # Next attribute
+  srli a3, a3, 1
+  addi a5, a5, 4
+  addi s9, s9, -1
+  addi a6, a6, -1
+  j gc_scan_2                              # Loop
+gc_scan_4:                                 # Mark elements of list
+  lw s9, @.__len__(s7)                     # Number of elements
+  addi a5, s7, @.__elts__                  # Address of first element
+gc_scan_6:                                 # Element-loop header
+  beqz s9, gc_scan_3                       # Stop after last element
+  lw t0, 0(a5)                             # Mark element
+  jal gc_mark
+  addi a5, a5, 4                           # Next element
+  addi s9, s9, -1
+  j gc_scan_6                              # Loop
+gc_scan_3:                                 # Done
+  jr a7                                    # Return
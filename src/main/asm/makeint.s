@@ -0,0 +1,23 @@
+# Runtime support function makeint.
+        # Integer value to box is in a0.
+        # The int object is returned in a0: the preallocated one in
+        # int.cache if there is one, and otherwise a new one.
+  li t0, @int_cache_min                    # Least preallocated int
+  sub t0, a0, t0                           # Index of value in int.cache
+  li t1, @int_cache_size                   # Number of preallocated ints
+  bgeu t0, t1, makeint_new                 # Allocate if not preallocated
+  slli t0, t0, 4                           # Offset of int object
+  la a0, int.cache                         # Address of preallocated ints
+  add a0, a0, t0                           # Address of int object
+  jr ra                                    # Return to caller
+makeint_new:                               # Allocate int object
+  addi sp, sp, -8                          # Reserve stack
+  sw ra, 4(sp)                             # Save return address
+  sw a0, 0(sp)                             # Save value to box
+  la a0, $int$prototype                    # Load address of int prototype
+  jal ra, alloc                            # Allocate int object
+  lw t0, 0(sp)                             # Restore value to box
+  sw t0, @.__int__(a0)                     # Store value in new object
+  lw ra, 4(sp)                             # Restore return address
+  addi sp, sp, 8                           # Release stack
+  jr ra                                    # Return to caller
@@ -0,0 +1,46 @@
+# Runtime support function strcat.
+        # Strings to concatenate are in a0 and a1.
+        # The new string is returned in a0.
+  addi sp, sp, -12                         # Reserve stack
+  sw ra, 8(sp)                             # Save return address
+  sw a0, 4(sp)                             # Save first string
+  sw a1, 0(sp)                             # Save second string
+  lw t0, @.__len__(a0)                     # Get length of first string
+  lw t1, @.__len__(a1)                     # Get length of second string
+  add t0, t0, t1                           # Length of result
+  addi a1, t0, 20                          # Bytes for header, length and
+                                           # null, rounded up to a word
+  srli a1, a1, 2                           # Convert to words
+  la a0, $str$prototype                    # Load address of str prototype
+  jal ra, alloc2                           # Allocate string
+  lw t0, 4(sp)                             # Restore first string
+  lw t1, 0(sp)                             # Restore second string
+  lw t2, @.__len__(t0)                     # Get length of first string
+  lw t3, @.__len__(t1)                     # Get length of second string
+  add t4, t2, t3                           # Length of result
+  sw t4, @.__len__(a0)                     # Store length of result
+  addi t4, a0, @.__str__                   # Initialize dest ptr
+  addi t0, t0, @.__str__                   # Initialize src ptr
+strcat_1:                                  # Copy first string
+  beqz t2, strcat_2                        # Stop when no chars left
+  lbu t5, 0(t0)                            # Load next char from src
+  sb t5, 0(t4)                             # Store next char to dest
+  addi t0, t0, 1                           # Increment src
+  addi t4, t4, 1                           # Increment dest
+  addi t2, t2, -1                          # Decrement counter
+  j strcat_1                               # Loop
+strcat_2:                                  # Copy second string
+  addi t1, t1, @.__str__                   # Initialize src ptr
+strcat_3:                                  # Copy-loop header
+  beqz t3, strcat_4                        # Stop when no chars left
+  lbu t5, 0(t1)                            # Load next char from src
+  sb t5, 0(t4)                             # Store next char to dest
+  addi t1, t1, 1                           # Increment src
+  addi t4, t4, 1                           # Increment dest
+  addi t3, t3, -1                          # Decrement counter
+  j strcat_3                               # Loop
+strcat_4:                                  # Done copying
+  sb zero, 0(t4)                           # Store null byte at end
+  lw ra, 8(sp)                             # Restore return address
+  addi sp, sp, 12                          # Release stack
+  jr ra                                    # Return to caller
@@ -0,0 +1,23 @@
+# Runtime support function streql.
+        # Strings to compare are in a0 and a1.
+        # Returns 1 in a0 if they are equal, and otherwise 0.
+  lw t0, @.__len__(a0)                     # Get length of first string
+  lw t1, @.__len__(a1)                     # Get length of second string
+  bne t0, t1, streql_2                     # Unequal if lengths differ
+  addi t1, a0, @.__str__                   # Initialize first ptr
+  addi t2, a1, @.__str__                   # Initialize second ptr
+streql_1:                                  # Compare-loop header
+  beqz t0, streql_3                        # Equal when no chars left
+  lbu t3, 0(t1)                            # Load next char of first
+  lbu t4, 0(t2)                            # Load next char of second
+  bne t3, t4, streql_2                     # Unequal if chars differ
+  addi t1, t1, 1                           # Increment first ptr
+  addi t2, t2, 1                           # Increment second ptr
+  addi t0, t0, -1                          # Decrement counter
+  j streql_1                               # Loop
+streql_2:                                  # Strings differ
+  li a0, 0                                 # Load false
+  jr ra                                    # Return to caller
+streql_3:                                  # Strings are equal
+  li a0, 1                                 # Load true
+  jr ra                                    # Return to caller
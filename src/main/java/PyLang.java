@@ -1,31 +1,130 @@
+import lexer.ByteBufferReader;
+import lexer.IncrementalParser;
 import lexer.Parser;
+import lexer.PyLangTokens;
+import lexer.TokenStream;
 import analyzer.Analysis;
 import codegen.CodeGen;
+import common.CompilationCache;
+import common.CompilerStats;
+import common.VenusRunner;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import simulator.Assembler;
+import simulator.Executable;
+import simulator.Interpreter;
+import simulator.Profile;
 import common.astnodes.Program;
+import common.codegen.CodeGenOptions;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-/** Main entry point for the PyLang compiler. */
+/** Main entry point for the PyLang compiler.  An instance carries out
+ *  one command (see run). */
 public class PyLang {
 
+    /** Outputs of earlier compilations, shared by the commands that use
+     *  the same cache directory, or null if there have been none. */
+    private static CompilationCache sharedCache;
+
+    /** The disk directory of SHAREDCACHE, or null if it has none. */
+    private static Path sharedCacheDir;
+
+    /** Outputs of earlier compilations, or null if caching is disabled. */
+    private CompilationCache cache;
+
+    /** Costs of the compiler phases run so far. */
+    private final CompilerStats stats = new CompilerStats();
+
+    /** Settings for code generation. */
+    private final CodeGenOptions codeGenOptions = new CodeGenOptions();
+
+    /** True to execute programs on the venus164 simulator rather than
+     *  the built-in interpreter. */
+    private boolean useVenus = false;
+
+    /** Default for maxInstructions: minutes of work for the interpreter,
+     *  more than any test or benchmark needs. */
+    private static final long DEFAULT_MAX_INSTRUCTIONS = 10_000_000_000L;
+
+    /** Number of instructions after which the built-in interpreter gives
+     *  up on a program, which then counts as having failed. */
+    private long maxInstructions = DEFAULT_MAX_INSTRUCTIONS;
+
+    /** Directory against which relative file names are resolved. */
+    private final Path workingDir;
+
+    /** A command run with relative file names resolved against DIR. */
+    private PyLang(Path dir) {
+        workingDir = dir;
+    }
+
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.err.println("Usage: java PyLang [options] <input.py>");
-            System.err.println("Options:");
-            System.err.println("  --pass=s     Run lexer/parser only");
-            System.err.println("  --pass=.s    Run through semantic analysis");
-            System.err.println("  --pass=..s   Run full compilation to assembly");
-            System.err.println("  --run        Execute the compiled program");
-            System.err.println("  --out FILE   Output to specified file");
-            System.err.println("  --debug      Enable debug output");
-            System.err.println("  --dir DIR    Process all .py files in directory");
-            System.err.println("  --test       Test mode (use with --dir)");
+        if (args.length > 0 && args[0].startsWith("--daemon")) {
+            PyLangDaemon.main(args);
             return;
         }
+        int status = run(args, System.in, System.out, System.err, Paths.get(""));
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /** Carry out the command ARGS, as given to main, with relative file
+     *  names resolved against DIR.  Compiled programs that are run read
+     *  from IN; everything else goes to OUT and ERR.  Returns the exit
+     *  status.  Settings do not carry over from one call to the next,
+     *  but the in-memory cache of outputs does, as long as the cache
+     *  directory stays the same.  Calls may run concurrently. */
+    static int run(String[] args, InputStream in, PrintStream out,
+                   PrintStream err, Path dir) {
+        return new PyLang(dir).run(args, in, out, err);
+    }
+
+    /** Carry out the command ARGS as for run(ARGS, IN, OUT, ERR, DIR). */
+    private int run(String[] args, InputStream in, PrintStream out,
+                    PrintStream err) {
+        if (args.length == 0) {
+            err.println("Usage: java PyLang [options] <input.py>");
+            err.println("Options:");
+            err.println("  --pass=l     Run lexer only, listing the tokens and the lexing rate");
+            err.println("  --pass=s     Run lexer/parser only");
+            err.println("  --pass=.s    Run through semantic analysis");
+            err.println("  --pass=..s   Run full compilation to assembly");
+            err.println("  --run        Execute the compiled program and report its instruction count");
+            err.println("  --venus      Execute on the venus164 simulator (use with --run)");
+            err.println("  --max-instructions N  Fail a run after N instructions (default 10^10)");
+            err.println("  --profile    Count calls, allocations and loop iterations per function;");
+            err.println("               with --run, print a flat profile at exit");
+            err.println("  --out FILE   Output to specified file");
+            err.println("  --debug      Enable debug output");
+            err.println("  --dir DIR    Process all .py files in directory");
+            err.println("  --test       Compare the file's output, or with --dir each file's, with its golden");
+            err.println("  --jobs N     Compile up to N files in parallel (use with --dir)");
+            err.println("  --cache-dir DIR  Reuse outputs of earlier runs stored in DIR");
+            err.println("  --no-cache   Recompile every input from scratch");
+            err.println("  --stats      Print time and allocation per compiler phase");
+            err.println("  --no-comments  Omit explanatory comments from the assembly");
+            err.println("  --no-optimize  Emit generated code without constant folding or peephole optimization");
+            err.println("  --heap-size N  Reserve N bytes (suffix K or M allowed) of heap at startup");
+            err.println("  --heap-grow N  Grow a full heap by at least N bytes at a time (0: never)");
+            err.println("  --int-cache LO..HI  Preallocate the boxed ints from LO to HI (none if LO > HI)");
+            err.println("  --daemon[=PORT]  Serve PyLangClient requests on a loopback port (must come first)");
+            return 1;
+        }
 
         String inputFile = null;
         String outputFile = null;
@@ -34,13 +133,43 @@ public class PyLang {
         boolean run = false;
         boolean debug = false;
         boolean test = false;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        String cacheDir = null;
+        boolean useCache = true;
+        boolean printStats = false;
 
         // Parse command line arguments
         for (int i = 0; i < args.length; i++) {
-            if (args[i].startsWith("--pass=")) {
+            int last;
+            try {
+                last = parseCodeGenOption(args, i, codeGenOptions);
+            } catch (IllegalArgumentException e) {
+                err.println("Error: " + e.getMessage());
+                return 1;
+            }
+            if (last >= 0) {
+                i = last;
+            } else if (args[i].startsWith("--pass=")) {
                 pass = args[i].substring(7);
             } else if (args[i].equals("--run")) {
                 run = true;
+            } else if (args[i].equals("--venus")) {
+                useVenus = true;
+            } else if (args[i].equals("--max-instructions")
+                       || args[i].startsWith("--max-instructions=")) {
+                String value = args[i].startsWith("--max-instructions=")
+                    ? args[i].substring(19)
+                    : (i + 1 < args.length ? args[++i] : "");
+                try {
+                    maxInstructions = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    err.println("Error: Invalid instruction limit: " + value);
+                    return 1;
+                }
+                if (maxInstructions < 1) {
+                    err.println("Error: Instruction limit must be positive");
+                    return 1;
+                }
             } else if (args[i].startsWith("--out")) {
                 if (i + 1 < args.length) {
                     outputFile = args[++i];
@@ -57,133 +186,815 @@ public class PyLang {
                 }
             } else if (args[i].equals("--test")) {
                 test = true;
+            } else if (args[i].equals("--jobs") || args[i].startsWith("--jobs=")) {
+                String value = args[i].startsWith("--jobs=")
+                    ? args[i].substring(7)
+                    : (i + 1 < args.length ? args[++i] : "");
+                try {
+                    jobs = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    err.println("Error: Invalid job count: " + value);
+                    return 1;
+                }
+                if (jobs < 1) {
+                    err.println("Error: Job count must be positive");
+                    return 1;
+                }
+            } else if (args[i].startsWith("--cache-dir")) {
+                if (args[i].startsWith("--cache-dir=")) {
+                    cacheDir = args[i].substring(12);
+                } else if (i + 1 < args.length) {
+                    cacheDir = args[++i];
+                }
+            } else if (args[i].equals("--no-cache")) {
+                useCache = false;
+            } else if (args[i].equals("--stats")) {
+                printStats = true;
             } else if (!args[i].startsWith("--")) {
                 inputFile = args[i];
             }
         }
 
         if (inputFile == null && inputDir == null) {
-            System.err.println("Error: No input file or directory specified");
-            return;
+            err.println("Error: No input file or directory specified");
+            return 1;
+        }
+
+        if (useCache) {
+            cache = sharedCache(cacheDir == null ? null : resolve(cacheDir));
+        }
+        if (outputFile != null) {
+            outputFile = resolve(outputFile).toString();
         }
 
         if (inputDir != null) {
             // Process directory
-            processDirectory(inputDir, outputFile, pass, run, debug, test);
-            return;
+            boolean ok = processDirectory(inputDir, outputFile, pass, run, debug, test, jobs,
+                                          in, out, err);
+            if (printStats) {
+                err.print(stats);
+            }
+            return ok ? 0 : 1;
         }
 
-        try {
-            // Read input file
-            String input = new String(Files.readAllBytes(Paths.get(inputFile)));
+        if (test) {
+            // Test single file
+            FileResult result = testFile(resolve(inputFile), pass, debug);
+            out.write(result.out, 0, result.out.length);
+            out.flush();
+            err.write(result.err, 0, result.err.length);
+            if (result.skipped) {
+                err.println("Error: No golden output for " + inputFile);
+                return 1;
+            }
+            if (result.error != null) {
+                err.println("  " + result.path + ": " + result.error);
+                return 1;
+            }
+            return 0;
+        }
 
+        try {
             // Process single file
-            processFile(inputFile, input, outputFile, pass, run, debug);
-
+            String error = processFile(inputFile, resolve(inputFile), outputFile, pass, run, debug,
+                                       codeGenOptions, in, out, err);
+            if (printStats) {
+                err.print(stats);
+            }
+            return error == null ? 0 : 1;
         } catch (IOException e) {
-            System.err.println("Error reading input file: " + e.getMessage());
+            err.println("Error reading input file: " + e.getMessage());
         } catch (Exception e) {
-            System.err.println("Compilation error: " + e.getMessage());
+            err.println("Compilation error: " + e.getMessage());
             if (debug) {
-                e.printStackTrace();
+                e.printStackTrace(err);
             }
         }
+        return 1;
     }
 
-    private static void processDirectory(String inputDir, String outputFile, String pass, boolean run, boolean debug, boolean test) {
-        try {
-            Path dirPath = Paths.get(inputDir);
-            if (!Files.isDirectory(dirPath)) {
-                System.err.println("Error: " + inputDir + " is not a directory");
-                return;
-            }
-
-            // Find all .py files
-            try (Stream<Path> paths = Files.walk(dirPath)) {
-                paths.filter(Files::isRegularFile)
-                     .filter(path -> path.toString().endsWith(".py"))
-                     .sorted()
-                     .forEach(path -> {
-                         try {
-                             String input = new String(Files.readAllBytes(path));
-                             String fileName = path.getFileName().toString();
-
-                             if (test) {
-                                 System.out.println("Processing: " + fileName);
-                             }
-
-                             String fileOutputFile = null;
-                             if (outputFile != null && !test) {
-                                 fileOutputFile = outputFile + "." + fileName;
-                             }
-
-                             processFile(fileName, input, fileOutputFile, pass, run, debug);
-
-                         } catch (Exception e) {
-                             System.err.println("Error processing " + path + ": " + e.getMessage());
-                             if (debug) {
-                                 e.printStackTrace();
-                             }
-                         }
-                     });
+    /** If ARGS[I] is an option setting code generation, record it in
+     *  OPTIONS and return the index of the last argument it takes, or -1
+     *  if it is not such an option.  Throws IllegalArgumentException,
+     *  with the message to report, if its value is invalid. */
+    private static int parseCodeGenOption(String[] args, int i,
+                                          CodeGenOptions options) {
+        String arg = args[i];
+        if (arg.equals("--profile")) {
+            options.profile = true;
+        } else if (arg.equals("--no-comments")) {
+            options.comments = false;
+        } else if (arg.equals("--no-optimize")) {
+            options.optimize = false;
+        } else if (arg.equals("--heap-size") || arg.startsWith("--heap-size=")
+                   || arg.equals("--heap-grow") || arg.startsWith("--heap-grow=")) {
+            boolean grow = arg.startsWith("--heap-grow");
+            String value = arg.length() > 11
+                ? arg.substring(12)
+                : (i + 1 < args.length ? args[++i] : "");
+            int bytes = parseSize(value);
+            if (bytes < 0 || (bytes == 0 && !grow)) {
+                throw new IllegalArgumentException("Invalid heap size: " + value);
+            }
+            if (grow) {
+                options.heapGrow = bytes;
+            } else {
+                options.heapSize = bytes;
+            }
+        } else if (arg.equals("--int-cache") || arg.startsWith("--int-cache=")) {
+            String value = arg.startsWith("--int-cache=")
+                ? arg.substring(12)
+                : (i + 1 < args.length ? args[++i] : "");
+            String[] bounds = value.split("\\.\\.", -1);
+            try {
+                if (bounds.length != 2) {
+                    throw new NumberFormatException();
+                }
+                options.intCacheMin = Integer.parseInt(bounds[0]);
+                options.intCacheMax = Integer.parseInt(bounds[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid int cache range: " + value);
+            }
+            if ((long) options.intCacheMax - options.intCacheMin >= 1 << 16) {
+                throw new IllegalArgumentException("Int cache range is too large: "
+                                                   + value);
             }
+        } else {
+            return -1;
+        }
+        return i;
+    }
+
+    /** Return the settings of OPTIONS, changed by the code generation
+     *  options listed, separated by white space, in FILE. */
+    private static CodeGenOptions readCodeGenOptions(Path file,
+                                                     CodeGenOptions options)
+        throws IOException {
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        String[] args = text.isEmpty() ? new String[0] : text.split("\\s+");
+        CodeGenOptions result = options.copy();
+        for (int i = 0; i < args.length; i++) {
+            int last = parseCodeGenOption(args, i, result);
+            if (last < 0) {
+                throw new IllegalArgumentException(file.getFileName()
+                                                   + ": not a code generation option: "
+                                                   + args[i]);
+            }
+            i = last;
+        }
+        return result;
+    }
+
+    /** Return the cache of outputs backed by files in DIR, or kept in
+     *  memory only if DIR is null, reusing the cache of earlier commands
+     *  if it is the same. */
+    private static synchronized CompilationCache sharedCache(Path dir) {
+        if (sharedCache == null || !Objects.equals(dir, sharedCacheDir)) {
+            sharedCache = new CompilationCache(CompilationCache.DEFAULT_CAPACITY, dir);
+            sharedCacheDir = dir;
+        }
+        return sharedCache;
+    }
+
+    /** Return the path named by NAME, relative to the working directory. */
+    private Path resolve(String name) {
+        return workingDir.resolve(name);
+    }
+
+    /** Return the number of bytes denoted by VALUE, a decimal number
+     *  optionally followed by K or M, or -1 if VALUE is malformed or
+     *  denotes more than 1GB. */
+    private static int parseSize(String value) {
+        long scale = 1;
+        String digits = value;
+        if (value.endsWith("K") || value.endsWith("k")) {
+            scale = 1024;
+        } else if (value.endsWith("M") || value.endsWith("m")) {
+            scale = 1024 * 1024;
+        }
+        if (scale != 1) {
+            digits = value.substring(0, value.length() - 1);
+        }
+        try {
+            long count = Long.parseLong(digits);
+            return count < 0 || count > (1 << 30) / scale
+                ? -1 : (int) (count * scale);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Compile every .py file under INPUTDIR using up to JOBS worker
+     *  threads.  Each file's output is buffered and written in sorted path
+     *  order, so the result does not depend on JOBS.  Failures are
+     *  collected and reported together once all files are done.  If
+     *  RUN, IN is read to its end first, and each program is given a
+     *  copy of what was read as its input.  In test mode, each file's
+     *  output is instead compared with its golden (see testFile).
+     *  Returns false iff any file failed. */
+    private boolean processDirectory(String inputDir, String outputFile, String pass, boolean run, boolean debug, boolean test, int jobs,
+                                     InputStream in, PrintStream out, PrintStream err) {
+        Path dirPath = resolve(inputDir);
+        if (!Files.isDirectory(dirPath)) {
+            err.println("Error: " + inputDir + " is not a directory");
+            return false;
+        }
+
+        // Find all .py files
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(dirPath)) {
+            files = paths.filter(Files::isRegularFile)
+                         .filter(path -> path.toString().endsWith(".py"))
+                         .sorted()
+                         .collect(Collectors.toList());
         } catch (IOException e) {
-            System.err.println("Error reading directory: " + e.getMessage());
+            err.println("Error reading directory: " + e.getMessage());
+            return false;
+        }
+
+        byte[] input = new byte[0];
+        if (run && !test) {
+            try {
+                input = readAll(in);
+            } catch (IOException e) {
+                err.println("Error reading input: " + e.getMessage());
+                return false;
+            }
+        }
+        byte[] stdin = input;
+
+        long start = System.nanoTime();
+
+        ExecutorService pool =
+            Executors.newFixedThreadPool(Math.min(jobs, Math.max(files.size(), 1)));
+        List<Future<FileResult>> results = new ArrayList<>();
+        for (Path path : files) {
+            results.add(pool.submit(() -> test
+                                    ? testFile(path, pass, debug)
+                                    : compileFile(path, outputFile, pass, run, debug,
+                                                  new ByteArrayInputStream(stdin))));
         }
+        pool.shutdown();
+
+        List<FileResult> failures = new ArrayList<>();
+        int skipped = 0;
+        for (int i = 0; i < files.size(); i++) {
+            FileResult result;
+            try {
+                result = results.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                err.println("Interrupted while compiling " + inputDir);
+                pool.shutdownNow();
+                return false;
+            } catch (ExecutionException e) {
+                result = new FileResult(files.get(i), new byte[0], new byte[0],
+                                        String.valueOf(e.getCause()));
+            }
+            out.write(result.out, 0, result.out.length);
+            out.flush();
+            err.write(result.err, 0, result.err.length);
+            err.flush();
+            if (result.skipped) {
+                skipped += 1;
+            } else if (result.error != null) {
+                failures.add(result);
+            }
+        }
+        long wall = System.nanoTime() - start;
+
+        if (test) {
+            err.printf("Tested %d file(s): %d passed, %d failed, %d skipped in %.2f s%n",
+                              files.size(), files.size() - failures.size() - skipped,
+                              failures.size(), skipped, wall / 1e9);
+        } else {
+            err.printf("Compiled %d file(s): %d succeeded, %d failed%n",
+                              files.size(), files.size() - failures.size(),
+                              failures.size());
+        }
+        for (FileResult failure : failures) {
+            err.println("  " + failure.path + ": " + failure.error);
+        }
+        return failures.isEmpty();
     }
 
-    private static void processFile(String fileName, String input, String outputFile, String pass, boolean run, boolean debug) throws Exception {
-        // Phase 1: Lexer/Parser
-        Program program = Parser.process(input, debug);
+    /** Compile the file at PATH as processDirectory requests, capturing
+     *  everything it prints.  If RUN, the program reads from IN. */
+    private FileResult compileFile(Path path, String outputFile, String pass, boolean run, boolean debug,
+                                   InputStream in) {
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        String error = null;
+        try (PrintStream out = new PrintStream(outBytes, true);
+             PrintStream err = new PrintStream(errBytes, true)) {
+            try {
+                String fileName = path.getFileName().toString();
 
-        if (pass.equals("s")) {
-            // Output AST and stop
-            if (outputFile != null) {
-                try (PrintWriter out = new PrintWriter(outputFile)) {
-                    out.println(program.toJSON());
+                String fileOutputFile = null;
+                if (outputFile != null) {
+                    fileOutputFile = outputFile + "." + fileName;
+                }
+
+                error = processFile(fileName, path, fileOutputFile, pass, run, debug,
+                                    codeGenOptions, in, out, err);
+
+            } catch (Exception e) {
+                error = String.valueOf(e.getMessage());
+                err.println("Error processing " + path + ": " + e.getMessage());
+                if (debug) {
+                    e.printStackTrace(err);
                 }
-            } else {
-                System.out.println(program.toJSON());
             }
-            return;
+        }
+        return new FileResult(path, outBytes.toByteArray(),
+                              errBytes.toByteArray(), error);
+    }
+
+    /** Check the file at PATH against its golden: for PASS "l", the
+     *  listing of its tokens in PATH.tokens; for "s", the AST in
+     *  PATH.ast; for ".s", the typed AST in PATH.ast.typed; and for "..s",
+     *  the output of running the program, which is given the contents of
+     *  PATH.in (or PATH.ast.in or PATH.ast.typed.in) as input, in
+     *  PATH.ast.typed.s.result.  Code is generated as the command line
+     *  directs, changed by the options in PATH.options if it exists, as
+     *  in "--heap-size 16K".  ASTs are compared as JSON trees, so
+     *  layout does not matter.  For PASS "s", the file must also parse
+     *  the same a top-level construct at a time as it does as a whole
+     *  (see compareParses), golden or not.  A file with nothing to check
+     *  is skipped.  The result's output is a PASS or FAIL line with the
+     *  time taken; everything the compiler printed is kept only on
+     *  failure, whose description tells code generation failures from
+     *  programs that fault or run too long. */
+    private FileResult testFile(Path path, String pass, boolean debug) {
+        String name = path.toString();
+        Path golden = Paths.get(name + (pass.equals("l") ? ".tokens"
+                                        : pass.equals("s") ? ".ast"
+                                        : pass.equals(".s") ? ".ast.typed"
+                                        : ".ast.typed.s.result"));
+        boolean hasGolden = Files.exists(golden);
+        if (!hasGolden && !pass.equals("s")) {
+            return new FileResult(path, new byte[0], new byte[0], null, true);
         }
 
-        // Phase 2: Semantic Analysis
-        program = Analysis.process(program, debug);
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        String error = null;
+        long start = System.nanoTime();
+        try (PrintStream out = new PrintStream(outBytes, true);
+             PrintStream err = new PrintStream(errBytes, true)) {
+            try {
+                byte[] stdin = new byte[0];
+                for (String suffix : new String[] { ".in", ".ast.in", ".ast.typed.in" }) {
+                    Path inFile = Paths.get(name + suffix);
+                    if (Files.exists(inFile)) {
+                        stdin = Files.readAllBytes(inFile);
+                        break;
+                    }
+                }
 
-        if (pass.equals(".s")) {
-            // Output typed AST and stop
+                if (pass.equals("s")) {
+                    error = compareParses(path);
+                }
+                if (error == null && hasGolden) {
+                    CodeGenOptions options = codeGenOptions;
+                    Path optionsFile = Paths.get(name + ".options");
+                    if (Files.exists(optionsFile)) {
+                        options = readCodeGenOptions(optionsFile, options);
+                    }
+                    if (!pass.equals("..s")) {
+                        processFile(name, path, null, pass, false, debug, options,
+                                    new ByteArrayInputStream(stdin), out, err);
+                    } else {
+                        String assembly = compile(path, pass, debug, options, err);
+                        if (assembly == null) {
+                            error = "code generation failed";
+                        } else if (!execute(name, assembly, options,
+                                            new ByteArrayInputStream(stdin), out, err)) {
+                            error = "execution failed";
+                        }
+                    }
+                    if (error == null) {
+                        String expected = new String(Files.readAllBytes(golden));
+                        String actual = outBytes.toString();
+                        if (pass.equals("s") || pass.equals(".s")) {
+                            ObjectMapper mapper = new ObjectMapper();
+                            if (!mapper.readTree(expected).equals(mapper.readTree(actual))) {
+                                error = "AST differs from " + golden.getFileName();
+                            }
+                        } else if (!expected.equals(actual)) {
+                            error = "output differs from " + golden.getFileName()
+                                + firstDifference(expected, actual);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                error = String.valueOf(e.getMessage());
+                err.println("Error processing " + path + ": " + e.getMessage());
+                if (debug) {
+                    e.printStackTrace(err);
+                }
+            }
+        }
+        long wall = System.nanoTime() - start;
+        String line = String.format("%s %s (%.1f ms)%n",
+                                    error == null ? "PASS" : "FAIL", path, wall / 1e6);
+        return new FileResult(path, line.getBytes(),
+                              error == null ? new byte[0] : errBytes.toByteArray(),
+                              error);
+    }
+
+    /** Return a description of how the parse of the file at PATH made a
+     *  top-level construct at a time differs from its sequential parse as
+     *  a whole, or null if it does not.  The file is parsed in parallel,
+     *  in pieces as small as can be, and by an IncrementalParser, both in
+     *  full and after its first line is deleted and put back, reusing the
+     *  chunks after it. */
+    private String compareParses(Path path) throws Exception {
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        if (!text.endsWith("\n") && !text.endsWith("\r")) {
+            text += "\n";
+        }
+        String whole = toJSON(Parser.processSequentially(text));
+
+        if (!whole.equals(toJSON(Parser.processInPieces(text, 1)))) {
+            return "parallel parse differs from sequential parse";
+        }
+
+        IncrementalParser incremental = new IncrementalParser(text);
+        if (!whole.equals(toJSON(incremental.getProgram()))) {
+            return "incremental parse differs from whole parse";
+        }
+        int firstLine = text.indexOf('\n') + 1;
+        incremental.edit(0, firstLine, "");
+        incremental.edit(0, 0, text.substring(0, firstLine));
+        if (!whole.equals(toJSON(incremental.getProgram()))) {
+            return "incremental parse after an edit differs from whole parse";
+        }
+        return null;
+    }
+
+    /** Return a description of the first line in which ACTUAL differs
+     *  from EXPECTED. */
+    private static String firstDifference(String expected, String actual) {
+        String[] want = expected.split("\n", -1), got = actual.split("\n", -1);
+        for (int i = 0; ; i += 1) {
+            String w = i < want.length ? want[i] : "<end of output>";
+            String g = i < got.length ? got[i] : "<end of output>";
+            if (!w.equals(g)) {
+                return String.format(": line %d: expected \"%s\", got \"%s\"",
+                                     i + 1, w, g);
+            }
+        }
+    }
+
+    /** The captured output of compiling one file in a directory. */
+    private static class FileResult {
+        /** The source file. */
+        final Path path;
+        /** Bytes written to standard output and standard error. */
+        final byte[] out, err;
+        /** Description of the failure, or null if compilation succeeded. */
+        final String error;
+        /** True iff the file was not tested, for want of a golden. */
+        final boolean skipped;
+
+        FileResult(Path path, byte[] out, byte[] err, String error) {
+            this(path, out, err, error, false);
+        }
+
+        FileResult(Path path, byte[] out, byte[] err, String error,
+                   boolean skipped) {
+            this.path = path;
+            this.out = out;
+            this.err = err;
+            this.error = error;
+            this.skipped = skipped;
+        }
+    }
+
+    /** Compile the source file SOURCE, called FILENAME in messages,
+     *  through PASS as OPTIONS direct, writing results to OUTPUTFILE if
+     *  non-null and to OUT otherwise.  If RUN,
+     *  also execute the program, which reads from IN and writes to OUT.
+     *  Diagnostics go to ERR.  Returns null on success, and otherwise
+     *  "code generation failed" or "execution failed". */
+    private String processFile(String fileName, Path source, String outputFile, String pass, boolean run, boolean debug,
+                                CodeGenOptions options,
+                                InputStream in, PrintStream out, PrintStream err) throws Exception {
+        if (pass.equals("l")) {
+            tokenize(fileName, source, outputFile, out, err);
+            return null;
+        }
+
+        if (pass.equals("s") || pass.equals(".s")) {
+            // Output AST (typed after semantic analysis) and stop
+            String json = compile(source, pass, debug, options, err);
             if (outputFile != null) {
-                try (PrintWriter out = new PrintWriter(outputFile)) {
-                    out.println(program.toJSON());
+                try (PrintWriter fileOut = new PrintWriter(outputFile)) {
+                    fileOut.println(json);
                 }
             } else {
-                System.out.println(program.toJSON());
+                out.println(json);
             }
-            return;
+            return null;
         }
 
-        // Phase 3: Code Generation
         if (pass.equals("..s")) {
-            String assembly = CodeGen.process(program, debug);
+            if (!run) {
+                return streamAssembly(fileName, source, outputFile, debug, options,
+                                      out, err) ? null : "code generation failed";
+            }
+
+            String assembly = compile(source, pass, debug, options, err);
 
             if (assembly == null) {
-                System.err.println("Code generation failed for " + fileName);
-                return;
+                err.println("Code generation failed for " + fileName);
+                return "code generation failed";
             }
 
             if (outputFile != null) {
-                try (PrintWriter out = new PrintWriter(outputFile)) {
-                    out.print(assembly);
+                try (PrintWriter fileOut = new PrintWriter(outputFile)) {
+                    fileOut.print(assembly);
                 }
             } else if (!run) {
-                System.out.print(assembly);
+                out.print(assembly);
+            }
+
+            if (run && !execute(fileName, assembly, options, in, out, err)) {
+                return "execution failed";
+            }
+        }
+        return null;
+    }
+
+    /** Return everything remaining to be read from IN. */
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Number of tokens lexed at a time by tokenize before they are
+     *  written out. */
+    private static final int TOKEN_BATCH = 4096;
+
+    /** List the tokens of the source file SOURCE, called FILENAME in
+     *  messages, one per line as position range, kind and value, to
+     *  OUTPUTFILE if non-null and to OUT otherwise.  Report on ERR the
+     *  number of tokens and the rate at which they were lexed, timing
+     *  the lexer alone: tokens are lexed in batches into arrays, and only
+     *  then written. */
+    private void tokenize(String fileName, Path source, String outputFile,
+                          PrintStream out, PrintStream err) throws IOException {
+        int[] kinds = new int[TOKEN_BATCH];
+        int[] starts = new int[TOKEN_BATCH];
+        int[] ends = new int[TOKEN_BATCH];
+        Object[] values = new Object[TOKEN_BATCH];
+        long wall = 0;
+        Writer writer = new BufferedWriter(outputFile != null ? new FileWriter(outputFile)
+                                           : new OutputStreamWriter(out));
+        try (CompilerStats.Timer timer = stats.time("lex")) {
+            TokenStream tokens = TokenStream.open(source);
+            boolean more = true;
+            while (more) {
+                int n = 0;
+                long start = System.nanoTime();
+                while (n < TOKEN_BATCH && (more = tokens.next())) {
+                    kinds[n] = tokens.kind();
+                    starts[n] = tokens.start();
+                    ends[n] = tokens.end();
+                    values[n] = tokens.value();
+                    n += 1;
+                }
+                wall += System.nanoTime() - start;
+                for (int i = 0; i < n; i += 1) {
+                    writer.write(formatToken(tokens, kinds[i], starts[i], ends[i],
+                                             values[i]));
+                    writer.write('\n');
+                }
+            }
+            err.printf("%s: lexed %d tokens in %.2f ms (%.0f tokens/s)%n",
+                       fileName, tokens.count(), wall / 1e6,
+                       wall == 0 ? 0.0 : tokens.count() * 1e9 / wall);
+        } finally {
+            if (outputFile != null) {
+                writer.close();
+            } else {
+                writer.flush();
+            }
+        }
+    }
+
+    /** Return a listing of the token of TOKENS of kind KIND from packed
+     *  position START to END with value VALUE, as in
+     *  "2:5-2:9 IDENTIFIER count". */
+    private static String formatToken(TokenStream tokens, int kind, int start,
+                                      int end, Object value) {
+        String text = String.valueOf(value)
+            .replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n")
+            .replace("\t", "\\t");
+        if (kind == PyLangTokens.STRING || kind == PyLangTokens.IDSTRING) {
+            text = '"' + text.replace("\"", "\\\"") + '"';
+        }
+        return String.format("%d:%d-%d:%d %s %s",
+                             tokens.line(start), tokens.column(start),
+                             tokens.line(end), tokens.column(end),
+                             PyLangTokens.terminalNames[kind], text);
+    }
+
+    /** Execute ASSEMBLY, compiled from FILENAME as OPTIONS direct, giving
+     *  it input from IN and sending its output to OUT, and report its
+     *  instruction count and time on ERR.  Returns false iff the program
+     *  could not be run to completion, including when it runs past
+     *  maxInstructions. */
+    private boolean execute(String fileName, String assembly,
+                            CodeGenOptions options, InputStream in,
+                            PrintStream out, PrintStream err) {
+        long instructions, wall;
+        try (CompilerStats.Timer t = stats.time("run")) {
+            if (useVenus) {
+                VenusRunner.Result result =
+                    VenusRunner.run(assembly, in, out, maxInstructions);
+                if (!result.done) {
+                    err.println("Execution of " + fileName + " failed: "
+                                + "stopped after " + maxInstructions
+                                + " instructions");
+                    return false;
+                }
+                instructions = result.instructions;
+                wall = result.wallNanos;
+            } else {
+                Executable program;
+                try (CompilerStats.Timer t2 = stats.time("run/assemble")) {
+                    program = Assembler.assemble(assembly);
+                }
+                Interpreter interpreter = new Interpreter(program, in, out);
+                interpreter.setCounting(options.profile);
+                long start = System.nanoTime();
+                try {
+                    if (!interpreter.run(maxInstructions)) {
+                        err.println("Execution of " + fileName + " failed: "
+                                    + "stopped after " + maxInstructions
+                                    + " instructions");
+                        return false;
+                    }
+                } catch (Interpreter.Fault e) {
+                    err.println("Execution of " + fileName + " failed: "
+                                + e.getMessage());
+                    return false;
+                }
+                wall = System.nanoTime() - start;
+                instructions = interpreter.getInstructionCount();
+                if (interpreter.getExitCode() != 0) {
+                    out.println("Exited with error code "
+                                + interpreter.getExitCode());
+                }
+                if (options.profile) {
+                    err.print(new Profile(program, interpreter));
+                }
             }
+        }
+        err.printf("%s: executed %d instructions in %.2f ms (%.1f MIPS)%n",
+                   fileName, instructions, wall / 1e6,
+                   wall == 0 ? 0.0 : instructions * 1e3 / wall);
+        return true;
+    }
+
+    /** Compile the source file SOURCE, called FILENAME in messages, to
+     *  assembly as OPTIONS direct, streaming the code to OUTPUTFILE if non-null and to OUT
+     *  otherwise.  The source is hashed and lexed straight from the
+     *  buffer ByteBufferReader.map gives, a mapping of the file when it
+     *  is large, and never copied into a String; nor is the code held
+     *  in memory as a whole, unless it goes into the cache too.  Diagnostics go to ERR.
+     *  Returns false iff code generation failed. */
+    private boolean streamAssembly(String fileName, Path source, String outputFile, boolean debug,
+                                   CodeGenOptions options,
+                                   PrintStream out, PrintStream err) throws Exception {
+        ByteBuffer input = ByteBufferReader.map(source);
+        String key = null;
+        String cached = null;
+        if (cache != null) {
+            key = CompilationCache.key(input, "..s" + options.key());
+            cached = cache.lookup(key);
+        }
 
-            if (run) {
-                // Execute the assembly code
-                System.out.println("Execution not yet implemented for " + fileName);
+        Writer writer = outputFile != null ? new FileWriter(outputFile)
+            : new OutputStreamWriter(out);
+        boolean ok = true;
+        try {
+            if (cached != null) {
+                writer.write(cached);
+            } else {
+                Program program = Parser.process(input, debug, stats);
+                program = Analysis.process(program, debug, stats);
+                StringWriter copy = key != null ? new StringWriter() : null;
+                ok = CodeGen.process(program, options,
+                                     copy != null ? new TeeWriter(writer, copy) : writer,
+                                     debug, stats, err);
+                if (ok && copy != null) {
+                    cache.store(key, copy.toString());
+                }
+            }
+        } finally {
+            if (outputFile != null) {
+                writer.close();
+            } else {
+                writer.flush();
             }
         }
+
+        if (!ok) {
+            err.println("Code generation failed for " + fileName);
+        }
+        return ok;
+    }
+
+    /** A Writer passing everything written to it on to two others. */
+    private static class TeeWriter extends Writer {
+        /** The Writers written to. */
+        private final Writer first, second;
+
+        TeeWriter(Writer first, Writer second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) throws IOException {
+            first.write(buf, off, len);
+            second.write(buf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            first.write(str, off, len);
+            second.write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            first.close();
+            second.close();
+        }
+    }
+
+    /** Return the output of compiling the source file SOURCE through PASS:
+     *  the AST in JSON form for "s" and ".s", and the assembly code for
+     *  "..s" (null if code generation fails), as OPTIONS direct.  Reuses the result of an
+     *  earlier compilation of the same source text when one is cached.
+     *  The file is read as by ByteBufferReader.map, and both hashed for
+     *  the cache and parsed in place.  A code generation failure is reported on ERR. */
+    private String compile(Path source, String pass, boolean debug,
+                           CodeGenOptions options, PrintStream err)
+        throws Exception {
+        ByteBuffer input = ByteBufferReader.map(source);
+        String key = null;
+        if (cache != null) {
+            key = CompilationCache.key(input,
+                                       pass.equals("..s") ? pass + options.key() : pass);
+            String cached = cache.lookup(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // Phase 1: Lexer/Parser
+        Program program = Parser.process(input, debug, stats);
+        String result;
+
+        if (pass.equals("s")) {
+            result = toJSON(program);
+        } else {
+            // Phase 2: Semantic Analysis
+            program = Analysis.process(program, debug, stats);
+
+            if (pass.equals(".s")) {
+                result = toJSON(program);
+            } else {
+                // Phase 3: Code Generation
+                result = CodeGen.process(program, options, debug, stats, err);
+            }
+        }
+
+        if (key != null && result != null) {
+            cache.store(key, result);
+        }
+        return result;
+    }
+
+    /** Return PROGRAM in JSON form, recording the cost in STATS. */
+    private String toJSON(Program program) throws Exception {
+        try (CompilerStats.Timer timer = stats.time("json")) {
+            return program.toJSON();
+        }
     }
 }
@@ -0,0 +1,109 @@
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+
+/**
+ * A thin command-line client of PyLangDaemon.
+ *
+ * "java PyLangClient [--port=N] ARGS" behaves as "java PyLang ARGS", but
+ * has the compiler resident in a daemon do the work, and so starts in a
+ * fraction of the time.  "java PyLangClient --stop" shuts the daemon
+ * down.  With --run, the client reads its standard input to the end
+ * and passes it on to the compiled program.  The client proves to the
+ * daemon that it runs as the same user by sending the token the daemon
+ * keeps in PyLangDaemon.tokenFile.
+ */
+public class PyLangClient {
+
+    public static void main(String[] args) throws IOException {
+        int port = PyLangDaemon.DEFAULT_PORT;
+        int first = 0;
+        if (args.length > 0 && args[0].startsWith("--port=")) {
+            try {
+                port = Integer.parseInt(args[0].substring(7));
+            } catch (NumberFormatException e) {
+                port = -1;
+            }
+            if (port < 1 || port > 65535) {
+                System.err.println("Error: Invalid port: " + args[0].substring(7));
+                System.err.println("Usage: java PyLangClient [--port=N] <PyLang arguments>");
+                System.exit(1);
+            }
+            first = 1;
+        }
+        byte[] input = new byte[0];
+        for (int i = first; i < args.length; i += 1) {
+            if (args[i].equals("--run")) {
+                input = readAll(System.in);
+            }
+        }
+
+        String token;
+        Socket socket;
+        try {
+            token = new String(Files.readAllBytes(PyLangDaemon.tokenFile(port)),
+                               StandardCharsets.UTF_8).trim();
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (NoSuchFileException | ConnectException e) {
+            System.err.println("Error: No PyLang daemon on port " + port
+                               + " (start one with java PyLang --daemon="
+                               + port + ")");
+            System.exit(2);
+            return;
+        }
+        try (Socket s = socket;
+             DataOutputStream request =
+                 new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+             DataInputStream reply =
+                 new DataInputStream(new BufferedInputStream(s.getInputStream()))) {
+            request.writeUTF(token);
+            request.writeUTF(Paths.get("").toAbsolutePath().toString());
+            request.writeInt(args.length - first);
+            for (int i = first; i < args.length; i += 1) {
+                request.writeUTF(args[i]);
+            }
+            request.writeInt(input.length);
+            request.write(input);
+            request.flush();
+
+            byte[] buffer = new byte[8192];
+            while (true) {
+                int kind = reply.readByte();
+                if (kind == PyLangDaemon.EXIT) {
+                    System.out.flush();
+                    System.exit(reply.readInt());
+                }
+                PrintStream stream =
+                    kind == PyLangDaemon.ERR ? System.err : System.out;
+                int length = reply.readInt();
+                while (length > 0) {
+                    int n = reply.read(buffer, 0, Math.min(length, buffer.length));
+                    if (n < 0) {
+                        throw new EOFException();
+                    }
+                    stream.write(buffer, 0, n);
+                    length -= n;
+                }
+                stream.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("Error: PyLang daemon closed the connection");
+            System.exit(2);
+        }
+    }
+
+    /** Return everything remaining on IN. */
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A resident PyLang compiler serving PyLangClient over a loopback socket.
+ *
+ * Keeping one JVM running spares each compilation the costs of starting
+ * the JVM, loading and initializing the compiler's classes, and running
+ * cold code; the in-memory cache of outputs also persists from one
+ * request to the next.  Each request is carried out as a PyLang command
+ * line (see PyLang.run) on a thread of its own, so that the requests of
+ * a parallel build run concurrently, with its output streamed back as it
+ * is produced; at most MAX_WORKERS run at once, and the rest wait their
+ * turn.
+ *
+ * Any local user can connect to the port, so the daemon only serves
+ * those who can read a random token, which it writes at startup to a
+ * file only its owner can read (see tokenFile).  A request is the token,
+ * the client's working directory, the number of arguments and the
+ * arguments, each as by DataOutput.writeUTF, then the length and bytes
+ * of the standard input for the compiled program.  The reply is a
+ * sequence of frames, each a byte giving the stream (OUT or ERR) and the
+ * length and bytes of a chunk of output, ended by a byte EXIT and the
+ * exit status as an int.  The single argument STOP shuts the daemon
+ * down.  A request with the wrong token gets an error and status 2.
+ */
+public class PyLangDaemon {
+
+    /** Default port number. */
+    public static final int DEFAULT_PORT = 7391;
+
+    /** Kinds of reply frame. */
+    static final int OUT = 1, ERR = 2, EXIT = 0;
+
+    /** Argument asking the daemon to shut down. */
+    static final String STOP = "--stop";
+
+    /** Maximum number of requests carried out at once; later ones wait
+     *  for a thread to become free. */
+    private static final int MAX_WORKERS =
+        Integer.getInteger("pylang.daemon.threads",
+                           2 * Runtime.getRuntime().availableProcessors());
+
+    /** Number of random bytes in a token. */
+    private static final int TOKEN_BYTES = 32;
+
+    /** Return the file holding the token of the daemon on port PORT:
+     *  daemon-PORT.token in the directory .pylang of the user's home. */
+    static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".pylang",
+                         "daemon-" + port + ".token");
+    }
+
+    /** Serve requests on port --daemon=PORT, or DEFAULT_PORT, of the
+     *  loopback interface until told to stop. */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        if (args.length > 0 && args[0].startsWith("--daemon=")) {
+            try {
+                port = Integer.parseInt(args[0].substring(9));
+            } catch (NumberFormatException e) {
+                System.err.println("Error: Invalid port: " + args[0].substring(9));
+                System.exit(1);
+            }
+        }
+        ThreadPoolExecutor workers =
+            new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, 60, TimeUnit.SECONDS,
+                                   new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "pylang-daemon");
+                thread.setDaemon(true);
+                return thread;
+            });
+        workers.allowCoreThreadTimeOut(true);
+        try (ServerSocket server =
+                 new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            byte[] token = newToken(tokenFile(port));
+            System.err.println("PyLang daemon listening on port " + port);
+            while (true) {
+                Socket socket = server.accept();
+                workers.submit(() -> serve(socket, server, token));
+            }
+        } catch (IOException e) {
+            if (!e.getMessage().contains("closed")) {
+                System.err.println("Error: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    /** Write a new random token to FILE, readable and writable by its
+     *  owner alone, and return it.  FILE is deleted when the daemon
+     *  exits. */
+    private static byte[] newToken(Path file) throws IOException {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b & 0xff));
+        }
+
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews()
+            .contains("posix");
+        Path dir = file.getParent();
+        if (posix) {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(
+                                        PosixFilePermissions.fromString("rwx------")));
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+        } else {
+            Files.createDirectories(dir);
+        }
+        Files.deleteIfExists(file);
+        if (posix) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(
+                                 PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+        }
+        file.toFile().deleteOnExit();
+        Files.write(file, token.toString().getBytes(StandardCharsets.UTF_8));
+        return token.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Carry out the request arriving on SOCKET, if it carries TOKEN,
+     *  closing SERVER if it asks the daemon to stop. */
+    private static void serve(Socket socket, ServerSocket server, byte[] token) {
+        try (Socket s = socket;
+             DataInputStream request =
+                 new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream reply =
+                 new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            byte[] given = request.readUTF().getBytes(StandardCharsets.UTF_8);
+            if (!MessageDigest.isEqual(given, token)) {
+                byte[] message = "Error: Wrong PyLang daemon token\n"
+                    .getBytes(StandardCharsets.UTF_8);
+                reply.writeByte(ERR);
+                reply.writeInt(message.length);
+                reply.write(message);
+                reply.writeByte(EXIT);
+                reply.writeInt(2);
+                reply.flush();
+                return;
+            }
+            String dir = request.readUTF();
+            String[] args = new String[request.readInt()];
+            for (int i = 0; i < args.length; i += 1) {
+                args[i] = request.readUTF();
+            }
+            byte[] input = new byte[request.readInt()];
+            request.readFully(input);
+
+            boolean stop = args.length == 1 && args[0].equals(STOP);
+            int status = 0;
+            if (!stop) {
+                PrintStream out = new PrintStream(new FrameStream(reply, OUT), true);
+                PrintStream err = new PrintStream(new FrameStream(reply, ERR), true);
+                status = PyLang.run(args, new ByteArrayInputStream(input), out, err,
+                                    Paths.get(dir));
+                out.flush();
+                err.flush();
+            }
+            synchronized (reply) {
+                reply.writeByte(EXIT);
+                reply.writeInt(status);
+                reply.flush();
+            }
+            if (stop) {
+                server.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error serving request: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error serving request: " + e);
+        }
+    }
+
+    /** An output stream sending what is written to it as frames of kind
+     *  KIND on a reply stream. */
+    private static class FrameStream extends OutputStream {
+        /** The reply stream, shared by the frame streams of a request. */
+        private final DataOutputStream reply;
+        /** Kind of frame. */
+        private final int kind;
+
+        FrameStream(DataOutputStream reply, int kind) {
+            this.reply = reply;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (reply) {
+                reply.writeByte(kind);
+                reply.writeInt(len);
+                reply.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (reply) {
+                reply.flush();
+            }
+        }
+    }
+}
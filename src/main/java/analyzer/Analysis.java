@@ -1,5 +1,6 @@
 package analyzer;
 
+import common.CompilerStats;
 import common.analysis.types.Type;
 import common.astnodes.Program;
 
@@ -12,35 +13,52 @@ public class Analysis {
      *  type annotations. Provide debugging output iff DEBUG. Returns modified
      *  tree. */
     public static Program process(Program program, boolean debug) {
-        if (program.hasErrors()) {
-            return program;
-        }
+        return process(program, debug, new CompilerStats());
+    }
 
-        //Pass 1: Building Class Hierarchy - creating a map of classes and their respective superclass
-        ClassHierarchyBuilder classHierarchyBuilder = new ClassHierarchyBuilder();
-        program.dispatch(classHierarchyBuilder);
-
-        //Pass 2: Declaration Analysis - building symbol tables
-        DeclarationAnalyzer declarationAnalyzer =
-            new DeclarationAnalyzer(program.errors);
-        program.dispatch(declarationAnalyzer);
-
-        HashMap<String, String> class_hierarchy = classHierarchyBuilder.getClassHierarchy(); // Map of classes and their superclasses
-        SymbolTable<Type> globalSym = declarationAnalyzer.getGlobals(); // Symbol table for global scope
-        HashMap<String, SymbolTable<Type>> allClassesSym = declarationAnalyzer.getClassesSym(); // Map of all classes and their symbol tables
-
-        //Pass 3: Semantics - checking for semantic errors
-        Semantics semantics =
-            new Semantics(program.errors, class_hierarchy, globalSym, allClassesSym);
-        program.dispatch(semantics);
-
-        //Pass 4: Type Checking - adding inferred types and checking for type errors
-        if (!program.hasErrors()) {
-            TypeChecker typeChecker =
-                new TypeChecker(globalSym, program.errors, class_hierarchy, allClassesSym);
-            program.dispatch(typeChecker);
-        }
+    /** As for process(PROGRAM, DEBUG), additionally recording the cost of
+     *  each pass in STATS under "analysis". */
+    public static Program process(Program program, boolean debug,
+                                  CompilerStats stats) {
+        try (CompilerStats.Timer total = stats.time("analysis")) {
+            if (program.hasErrors()) {
+                return program;
+            }
+
+            //Pass 1: Building Class Hierarchy - creating a map of classes and their respective superclass
+            ClassHierarchyBuilder classHierarchyBuilder = new ClassHierarchyBuilder();
+            try (CompilerStats.Timer timer = stats.time("analysis/ClassHierarchyBuilder")) {
+                program.dispatch(classHierarchyBuilder);
+            }
+
+            //Pass 2: Declaration Analysis - building symbol tables
+            DeclarationAnalyzer declarationAnalyzer =
+                new DeclarationAnalyzer(program.errors);
+            try (CompilerStats.Timer timer = stats.time("analysis/DeclarationAnalyzer")) {
+                program.dispatch(declarationAnalyzer);
+            }
 
-        return program;
+            HashMap<String, String> class_hierarchy = classHierarchyBuilder.getClassHierarchy(); // Map of classes and their superclasses
+            SymbolTable<Type> globalSym = declarationAnalyzer.getGlobals(); // Symbol table for global scope
+            HashMap<String, SymbolTable<Type>> allClassesSym = declarationAnalyzer.getClassesSym(); // Map of all classes and their symbol tables
+
+            //Pass 3: Semantics - checking for semantic errors
+            Semantics semantics =
+                new Semantics(program.errors, class_hierarchy, globalSym, allClassesSym);
+            try (CompilerStats.Timer timer = stats.time("analysis/Semantics")) {
+                program.dispatch(semantics);
+            }
+
+            //Pass 4: Type Checking - adding inferred types and checking for type errors
+            if (!program.hasErrors()) {
+                TypeChecker typeChecker =
+                    new TypeChecker(globalSym, program.errors, class_hierarchy, allClassesSym);
+                try (CompilerStats.Timer timer = stats.time("analysis/TypeChecker")) {
+                    program.dispatch(typeChecker);
+                }
+            }
+
+            return program;
+        }
     }
 }
@@ -1,7 +1,15 @@
 package codegen;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+
+import common.CompilerStats;
 import common.astnodes.Program;
 import common.codegen.CodeGenBase;
+import common.codegen.CodeGenOptions;
+import common.codegen.InsnBuffer;
+import common.codegen.PeepholeOptimizer;
 import common.codegen.RiscVBackend;
 
 /** Interface to code generator. */
@@ -13,20 +21,105 @@ public class CodeGen {
      * command line.
      */
     public static String process(Program program, boolean debug) {
+        return process(program, debug, new CompilerStats());
+    }
+
+    /** As for process(PROGRAM, DEBUG), additionally recording the cost of
+     *  code generation in STATS under "codegen". */
+    public static String process(Program program, boolean debug,
+                                 CompilerStats stats) {
+        return process(program, new CodeGenOptions(), debug, stats);
+    }
+
+    /** As for process(PROGRAM, DEBUG, STATS), generating code as OPTIONS
+     *  direct. */
+    public static String process(Program program, CodeGenOptions options,
+                                 boolean debug, CompilerStats stats) {
+        return process(program, options, debug, stats, System.err);
+    }
+
+    /** As for process(PROGRAM, OPTIONS, DEBUG, STATS), reporting a
+     *  failure, with its stack trace if DEBUG, on ERR. */
+    public static String process(Program program, CodeGenOptions options,
+                                 boolean debug, CompilerStats stats,
+                                 PrintStream err) {
         /* Emit code into a ByteOutputStream, and convert to a string.*/
-        try {
+        try (CompilerStats.Timer timer = stats.time("codegen")) {
             RiscVBackend backend = new RiscVBackend();
-            CodeGenBase cgen = new CodeGenImpl(backend);
-            cgen.generate(program);
-
+            backend.setEmitComments(options.comments);
+            generate(program, options, backend, stats);
             return backend.toString();
         } catch (IllegalStateException | IllegalArgumentException e) {
-            System.err.println("Error performing code generation. "
-                               + "Re-run with --debug to see stack trace.");
+            err.println("Error performing code generation. "
+                        + "Re-run with --debug to see stack trace.");
             if (debug) {
-                e.printStackTrace();
+                e.printStackTrace(err);
             }
             return null;
         }
     }
+
+    /** As for process(PROGRAM, OPTIONS, DEBUG, STATS, ERR), but
+     *  streaming the assembly code to OUT rather than returning it, a
+     *  function or other segment at a time.  Returns false iff code
+     *  generation failed, in which case the code for the segments before
+     *  the failure may already have been written to OUT.  Throws
+     *  IOException if writing to OUT fails. */
+    public static boolean process(Program program, CodeGenOptions options,
+                                  Writer out, boolean debug,
+                                  CompilerStats stats, PrintStream err)
+        throws IOException {
+        try (CompilerStats.Timer timer = stats.time("codegen")) {
+            RiscVBackend backend = new RiscVBackend(out);
+            backend.setEmitComments(options.comments);
+            generate(program, options, backend, stats);
+            backend.flush();
+            return true;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            err.println("Error performing code generation. "
+                        + "Re-run with --debug to see stack trace.");
+            if (debug) {
+                e.printStackTrace(err);
+            }
+            return false;
+        }
+    }
+
+    /** Generate the instructions for PROGRAM into BACKEND, as OPTIONS
+     *  direct.  The instructions are collected a segment at a time (see
+     *  InsnBuffer), and each segment is optimized, if OPTIONS so direct,
+     *  and rendered before the next is generated, so that only one is
+     *  held in memory.  The cost is recorded in STATS under
+     *  "codegen/generate", "codegen/peephole" and "codegen/render"; the
+     *  time to generate includes that to optimize and render all
+     *  segments but the last. */
+    private static void generate(Program program, CodeGenOptions options,
+                                 RiscVBackend backend, CompilerStats stats) {
+        InsnBuffer insns = new InsnBuffer();
+        insns.setSegmentHandler(segment -> flush(segment, options, backend, stats));
+        try (CompilerStats.Timer timer = stats.time("codegen/generate")) {
+            CodeGenBase cgen = new CodeGenImpl(insns, options.optimize);
+            cgen.setHeapSize(options.heapSize, options.heapGrow);
+            cgen.setIntCache(options.intCacheMin, options.intCacheMax);
+            cgen.setProfile(options.profile);
+            cgen.generate(program);
+        }
+        flush(insns, options, backend, stats);
+    }
+
+    /** Optimize INSNS if OPTIONS so direct, emit them as assembly text to
+     *  BACKEND, and clear INSNS, recording the cost in STATS under
+     *  "codegen/peephole" and "codegen/render". */
+    private static void flush(InsnBuffer insns, CodeGenOptions options,
+                              RiscVBackend backend, CompilerStats stats) {
+        if (options.optimize) {
+            try (CompilerStats.Timer timer = stats.time("codegen/peephole")) {
+                PeepholeOptimizer.optimize(insns);
+            }
+        }
+        try (CompilerStats.Timer timer = stats.time("codegen/render")) {
+            insns.render(backend);
+        }
+        insns.clear();
+    }
 }
@@ -1,16 +1,27 @@
 package codegen;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import common.analysis.SymbolTable;
 import common.analysis.AbstractNodeAnalyzer;
+import common.analysis.types.ListValueType;
 import common.analysis.types.Type;
 import common.astnodes.*;
+import common.codegen.AttrInfo;
+import common.codegen.ClassInfo;
 import common.codegen.CodeGenBase;
 import common.codegen.FuncInfo;
+import common.codegen.GlobalVarInfo;
 import common.codegen.Label;
 import common.codegen.RiscVBackend;
+import common.codegen.RiscVBackend.Register;
+import common.codegen.StackVarInfo;
 import common.codegen.SymbolInfo;
+import common.codegen.VarInfo;
 
 import static common.codegen.RiscVBackend.Register.*;
 
@@ -19,9 +30,29 @@ public class CodeGenImpl extends CodeGenBase {
 
     /** A code generator emitting instructions to BACKEND. */
     public CodeGenImpl(RiscVBackend backend) {
+        this(backend, true);
+    }
+
+    /** A code generator emitting instructions to BACKEND, computing
+     *  constant expressions at compile time iff FOLD. */
+    public CodeGenImpl(RiscVBackend backend, boolean fold) {
         super(backend);
+        this.fold = fold;
+        boxesInts = false;
     }
 
+    /** The registers holding expression temporaries, in order of
+     *  preference.  The argument registers serve as scratch registers
+     *  within the code for a single operation. */
+    private static final Register[] TEMPS = { T0, T1, T2, T3, T4, T5, T6 };
+
+    /** Size in bytes of a one-character string object. */
+    private static final int CHAR_SIZE = 20;
+
+    /** Size in words of the largest object of a class whose
+     *  construction bumps GP inline. */
+    private static final int INLINE_OBJECT_WORDS = 8;
+
     /** Operation on None. */
     private final Label errorNone = new Label("error.None");
     /** Division by zero. */
@@ -29,6 +60,46 @@ public class CodeGenImpl extends CodeGenBase {
     /** Index out of bounds. */
     private final Label errorOob = new Label("error.OOB");
 
+    /** Runtime routine boxing the integer in A0. */
+    private final Label makeIntLabel = new Label("makeint");
+    /** Runtime routine concatenating the strings in A0 and A1. */
+    private final Label strCatLabel = new Label("strcat");
+    /** Runtime routine comparing the strings in A0 and A1. */
+    private final Label strEqlLabel = new Label("streql");
+    /** Runtime routine concatenating the lists in A0 and A1. */
+    private final Label concatLabel = new Label("concat");
+    /** Table of the one-character strings, in character order. */
+    private final Label allCharsLabel = new Label("allChars");
+
+    /** True iff the generated code refers to allCharsLabel. */
+    private boolean usesAllChars;
+
+    /** True iff constant expressions are computed at compile time. */
+    private final boolean fold;
+
+    /** The values of the constant expressions of the program. */
+    private ConstantFolder folder = new ConstantFolder();
+
+    /** Parameters and locals referred to by functions nested in the
+     *  function defining them.  These always live in memory. */
+    private final Set<StackVarInfo> captured =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    @Override
+    protected void analyzeProgram(Program program) {
+        super.analyzeProgram(program);
+        for (FuncInfo funcInfo : functions) {
+            CaptureFinder finder = new CaptureFinder(funcInfo);
+            for (Stmt stmt : funcInfo.getStatements()) {
+                stmt.dispatch(finder);
+            }
+        }
+        if (fold) {
+            folder = new ConstantFolder(program.statements, globalSymbols,
+                                        functions, lenFunc);
+        }
+    }
+
     /**
      * Emits the top level of the program.
      *
@@ -40,26 +111,19 @@ public class CodeGenImpl extends CodeGenBase {
      * @param statements top level statements
      */
     protected void emitTopLevel(List<Stmt> statements) {
-        StmtAnalyzer stmtAnalyzer = new StmtAnalyzer(null);
-        backend.emitADDI(SP, SP, -2 * backend.getWordSize(),
-                         "Saved FP and saved RA (unused at top level).");
-        backend.emitSW(ZERO, SP, 0, "Top saved FP is 0.");
-        backend.emitSW(ZERO, SP, 4, "Top saved RA is 0.");
-        backend.emitADDI(FP, SP, 2 * backend.getWordSize(),
-                         "Set FP to previous SP.");
-
-        FuncInfo makeInt = makeFuncInfo("makeInt",0, Type.OBJECT_TYPE,
-                globalSymbols,null,this::emitMakeInt);
-        globalSymbols.put(makeInt.getBaseName(), makeInt);
-
-
-        functions.add(makeInt);
+        Frame frame = new Frame(null, statements);
+        String size = frame.sizeSymbol;
+        backend.emitADDI(SP, SP, "-" + size, "Reserve space for stack frame.");
+        backend.emitSW(ZERO, SP, size + "-4", "Top saved RA is 0.");
+        backend.emitSW(ZERO, SP, size + "-8", "Top saved FP is 0.");
+        backend.emitADDI(FP, SP, size, "Set FP to previous SP.");
+        frame.count(PROFILE_CALLS, "calls");
 
-        for (Stmt stmt : statements) {
-            stmt.dispatch(stmtAnalyzer);
-        }
+        StmtAnalyzer stmtAnalyzer = new StmtAnalyzer(frame);
+        stmtAnalyzer.emitBody(statements);
         backend.emitLI(A0, EXIT_ECALL, "Code for ecall: exit");
         backend.emitEcall(null);
+        frame.defineSize();
     }
 
     /**
@@ -72,23 +136,379 @@ public class CodeGenImpl extends CodeGenBase {
      * `bar`'s code for `bar`.
      */
     protected void emitUserDefinedFunction(FuncInfo funcInfo) {
+        Frame frame = new Frame(funcInfo, funcInfo.getStatements());
+        String size = frame.sizeSymbol;
         backend.emitGlobalLabel(funcInfo.getCodeLabel());
-        StmtAnalyzer stmtAnalyzer = new StmtAnalyzer(funcInfo);
+        backend.emitADDI(SP, SP, "-" + size, "Reserve space for stack frame.");
+        backend.emitSW(RA, SP, size + "-4", "Save return address.");
+        backend.emitSW(FP, SP, size + "-8", "Save control link.");
+        backend.emitADDI(FP, SP, size, "Set FP to previous SP.");
+        frame.count(PROFILE_CALLS, "calls");
 
-        for (Stmt stmt : funcInfo.getStatements()) {
-            stmt.dispatch(stmtAnalyzer);
+        List<Register> saved = frame.registers.getUsedRegisters();
+        for (int i = 0; i < saved.size(); i += 1) {
+            backend.emitSW(saved.get(i), FP, frame.savedOffset(i),
+                           "Save callee-saved register.");
+        }
+        for (StackVarInfo local : funcInfo.getLocals()) {
+            if (frame.registers.get(local) == null
+                && !folder.isConstant(local)) {
+                Register value = frame.loadLiteral(local.getInitialValue(),
+                                                   local.getVarType(), A0);
+                backend.emitSW(value, FP, frame.varOffset(local),
+                               "Initialize local: " + local.getVarName());
+            }
         }
 
+        StmtAnalyzer stmtAnalyzer = new StmtAnalyzer(frame);
+        stmtAnalyzer.emitBody(funcInfo.getStatements());
+
         backend.emitMV(A0, ZERO, "Returning None implicitly");
-        backend.emitLocalLabel(stmtAnalyzer.epilogue, "Epilogue");
+        backend.emitLocalLabel(frame.epilogue, "Epilogue");
+        for (int i = 0; i < saved.size(); i += 1) {
+            backend.emitLW(saved.get(i), FP, frame.savedOffset(i),
+                           "Restore callee-saved register.");
+        }
+        backend.emitLW(RA, FP, -4, "Get return address");
+        backend.emitLW(FP, FP, -8, "Use control link to restore caller's FP");
+        backend.emitADDI(SP, SP, size, "Restore stack pointer");
+        backend.emitJR(RA, "Return to caller");
+        frame.defineSize();
+    }
 
-        backend.emitLW(FP,FP,0,"Restoring FP with FP");
+    /**
+     * The state of code generation for one function body or for the top
+     * level: where its variables live, which temporaries are in use, and
+     * the layout of its stack frame.
+     *
+     * With FP pointing just above the frame, the frame holds, from the
+     * top: the saved return address at -4(FP) and the caller's FP at
+     * -8(FP), then one word per local (the j-th at -12-4j(FP)), the saved
+     * callee-saved registers, a save area with a word for each temporary
+     * register, and spill slots; at the bottom, starting at 0(SP), is
+     * space for the arguments of the calls it makes.  The parameters are
+     * above FP, in the caller's frame, the last at 0(FP) or, for nested
+     * functions, at 4(FP) below the static link at 0(FP).  SP stays fixed
+     * throughout the body, so the frame size is known only once the body
+     * has been generated; it is defined afterwards as an assembler
+     * symbol.
+     */
+    private class Frame {
+        /** The function, or null for the top level. */
+        final FuncInfo funcInfo;
+        /** Symbol table of the body. */
+        final SymbolTable<SymbolInfo> sym;
+        /** Registers assigned to variables. */
+        final RegisterAllocator registers;
+        /** Assembler symbol for the frame size in bytes. */
+        final String sizeSymbol;
+        /** Label of the epilogue. */
+        final Label epilogue = generateLocalLabel();
+        /** Label of my entry in the profile table, or null if not
+         *  profiling. */
+        final Label counters;
 
-        backend.emitJR(RA, "Return to caller");
+        /** Slot numbers of the first saved register and of the temporary
+         *  save area.  Slot K is at -12-4K(FP). */
+        private final int savedBase, tempSaveBase;
+        /** True for each temporary holding a live value. */
+        private final boolean[] busy = new boolean[TEMPS.length];
+        /** Number of words of the temporary save area in use. */
+        private int tempSaves;
+        /** True for each spill slot holding a live value. */
+        private final List<Boolean> spills = new ArrayList<>();
+        /** Largest number of words of arguments to any call. */
+        private int maxArgs;
+
+        /** A frame for the BODY of FUNCINFO0 (null for the top
+         *  level). */
+        Frame(FuncInfo funcInfo0, List<Stmt> body) {
+            funcInfo = funcInfo0;
+            sym = funcInfo == null ? globalSymbols : funcInfo.getSymbolTable();
+            registers = new RegisterAllocator(funcInfo, body, sym, captured,
+                                              folder);
+            sizeSymbol = "@" + (funcInfo == null ? ".main"
+                                : funcInfo.getFuncName()) + ".size";
+            savedBase = funcInfo == null ? 0 : funcInfo.getLocals().size();
+            tempSaveBase = savedBase
+                + (funcInfo == null ? 0
+                   : registers.getUsedRegisters().size());
+            if (!profile) {
+                counters = null;
+            } else if (funcInfo == null) {
+                counters = addProfileEntry("<main>", new Label("main"),
+                                           new Label("main.profile"));
+            } else {
+                Label code = funcInfo.getCodeLabel();
+                counters = addProfileEntry(funcInfo.getFuncName(), code,
+                                           new Label(code + ".profile"));
+            }
+        }
+
+        /** Emit code adding 1 to my counter at OFFSET in the profile
+         *  table, which counts WHAT, if profiling.  Clobbers A6 and A7. */
+        void count(int offset, String what) {
+            if (counters == null) {
+                return;
+            }
+            backend.emitLA(A6, counters, "Load profile entry");
+            backend.emitLW(A7, A6, offset, "Load count of " + what);
+            backend.emitADDI(A7, A7, 1, "Count " + what);
+            backend.emitSW(A7, A6, offset, "Store count of " + what);
+        }
+
+        /** Define my size symbol to the size of the frame as generated. */
+        void defineSize() {
+            int slots;
+            if (!spills.isEmpty()) {
+                slots = tempSaveBase + TEMPS.length + spills.size();
+            } else {
+                slots = tempSaveBase + tempSaves;
+            }
+            backend.defineSym(sizeSymbol.substring(1),
+                              wordSize * (2 + slots + maxArgs));
+        }
+
+        /** Return the FP offset of slot K. */
+        int slotOffset(int k) {
+            return -wordSize * (3 + k);
+        }
+
+        /** Return the FP offset of the I-th saved register. */
+        int savedOffset(int i) {
+            return slotOffset(savedBase + i);
+        }
+
+        /** Return the offset of VAR from the FP of its own function's
+         *  frame. */
+        int varOffset(StackVarInfo var) {
+            FuncInfo owner = var.getFuncInfo();
+            int params = owner.getParams().size();
+            int index = owner.getVarIndex(var.getVarName());
+            int offset = wordSize * (params - 1 - index);
+            if (index < params && owner.getDepth() > 0) {
+                offset += wordSize;
+            }
+            return offset;
+        }
+
+        /** Note that a call passes ARGS words of arguments. */
+        void noteArgs(int args) {
+            maxArgs = Math.max(maxArgs, args);
+        }
+
+        /** Return a free temporary, which becomes busy. */
+        Register take() {
+            for (int i = 0; i < TEMPS.length; i += 1) {
+                if (!busy[i]) {
+                    busy[i] = true;
+                    return TEMPS[i];
+                }
+            }
+            throw new IllegalStateException("out of temporary registers");
+        }
+
+        /** Make temporary REG, which must be free, busy. */
+        void take(Register reg) {
+            int i = tempIndex(reg);
+            assert !busy[i];
+            busy[i] = true;
+        }
+
+        /** Release REG if it is a temporary. */
+        void free(Register reg) {
+            int i = tempIndex(reg);
+            if (i >= 0) {
+                busy[i] = false;
+            }
+        }
+
+        /** Return true iff REG is a temporary. */
+        boolean isTemp(Register reg) {
+            return tempIndex(reg) >= 0;
+        }
+
+        /** Return the number of free temporaries. */
+        int freeTemps() {
+            int n = 0;
+            for (boolean b : busy) {
+                n += b ? 0 : 1;
+            }
+            return n;
+        }
+
+        /** Return a temporary holding the value in REG: REG itself if it
+         *  is a temporary, and otherwise a copy. */
+        Register own(Register reg) {
+            if (isTemp(reg)) {
+                return reg;
+            }
+            Register copy = take();
+            backend.emitMV(copy, reg, "Copy to temporary");
+            return copy;
+        }
+
+        /** Keep the value in REG while other code is generated.  If too
+         *  few temporaries would remain for that code, REG is stored in a
+         *  spill slot and released. */
+        Held hold(Register reg) {
+            if (!isTemp(reg) || freeTemps() >= 1) {
+                return new Held(reg, -1);
+            }
+            return spill(reg);
+        }
+
+        /** Store the value in REG in a spill slot, releasing REG, and
+         *  return the slot. */
+        Held spill(Register reg) {
+            int slot = spills.indexOf(false);
+            if (slot < 0) {
+                slot = spills.size();
+                spills.add(true);
+            } else {
+                spills.set(slot, true);
+            }
+            backend.emitSW(reg, FP, spillOffset(slot), "Spill temporary");
+            free(reg);
+            return new Held(null, slot);
+        }
+
+        /** Return a register holding the value kept by HELD, loading it
+         *  into SCRATCH if it was spilled. */
+        Register use(Held held, Register scratch) {
+            if (held.reg != null) {
+                return held.reg;
+            }
+            backend.emitLW(scratch, FP, spillOffset(held.slot),
+                           "Reload spilled temporary");
+            return scratch;
+        }
+
+        /** Return a register holding the value kept by HELD, as for
+         *  use(HELD, SCRATCH), and stop keeping it in a spill slot.  A
+         *  temporary holding it stays busy. */
+        Register reclaim(Held held, Register scratch) {
+            Register reg = use(held, scratch);
+            if (held.reg == null) {
+                release(held);
+            }
+            return reg;
+        }
+
+        /** Stop keeping the value kept by HELD. */
+        void release(Held held) {
+            if (held.reg != null) {
+                free(held.reg);
+            } else {
+                spills.set(held.slot, false);
+            }
+        }
+
+        /** Return the FP offset of spill slot SLOT. */
+        int spillOffset(int slot) {
+            return slotOffset(tempSaveBase + TEMPS.length + slot);
+        }
+
+        /** Emit code to save each busy temporary before a call, returning
+         *  the temporaries saved. */
+        List<Register> saveTemps() {
+            List<Register> saved = new ArrayList<>();
+            for (int i = 0; i < TEMPS.length; i += 1) {
+                if (busy[i]) {
+                    tempSaves = Math.max(tempSaves, i + 1);
+                    backend.emitSW(TEMPS[i], FP, slotOffset(tempSaveBase + i),
+                                   "Save temporary across call");
+                    saved.add(TEMPS[i]);
+                }
+            }
+            return saved;
+        }
+
+        /** Emit code to restore the temporaries SAVED after a call. */
+        void restoreTemps(List<Register> saved) {
+            for (Register reg : saved) {
+                backend.emitLW(reg, FP,
+                               slotOffset(tempSaveBase + tempIndex(reg)),
+                               "Restore temporary after call");
+            }
+        }
+
+        /** Emit a call to LABEL, preserving busy temporaries. */
+        void call(Label label, String comment) {
+            List<Register> saved = saveTemps();
+            backend.emitJAL(label, comment);
+            restoreTemps(saved);
+        }
+
+        /** Emit a call to the address in REG, which must not be a
+         *  temporary, preserving busy temporaries. */
+        void call(Register reg, String comment) {
+            List<Register> saved = saveTemps();
+            backend.emitJALR(reg, comment);
+            restoreTemps(saved);
+        }
+
+        /** Return a fresh temporary holding the value in A0. */
+        Register result() {
+            Register reg = take();
+            backend.emitMV(reg, A0, "Move result to temporary");
+            return reg;
+        }
+
+        /** Emit code to load LITERAL, the initial value of a variable of
+         *  static type TYPE, into TARGET and return TARGET, or return ZERO
+         *  for None, 0 and False. */
+        Register loadLiteral(Literal literal, Type type, Register target) {
+            if (isPrimitive(type)) {
+                int value = literal instanceof IntegerLiteral
+                    ? ((IntegerLiteral) literal).value
+                    : ((BooleanLiteral) literal).value ? 1 : 0;
+                if (value == 0) {
+                    return ZERO;
+                }
+                backend.emitLI(target, value, "Load constant");
+                return target;
+            }
+            Label label = constants.fromLiteral(literal);
+            if (label == null) {
+                return ZERO;
+            }
+            backend.emitLA(target, label, "Load constant");
+            return target;
+        }
+
+        /** Emit code leaving in SCRATCH the FP of the frame of OWNER,
+         *  which encloses my function, and return SCRATCH. */
+        Register frameOf(FuncInfo owner, Register scratch) {
+            Register base = FP;
+            for (FuncInfo f = funcInfo; f != owner; f = f.getParentFuncInfo()) {
+                backend.emitLW(scratch, base, 0, "Follow static link");
+                base = scratch;
+            }
+            return base;
+        }
+
+        /** Return the index of REG among the temporaries, or -1. */
+        private int tempIndex(Register reg) {
+            for (int i = 0; i < TEMPS.length; i += 1) {
+                if (TEMPS[i] == reg) {
+                    return i;
+                }
+            }
+            return -1;
+        }
     }
 
-    void emitMakeInt(FuncInfo funcInfo) {
+    /** A value kept while other code is generated: either in register
+     *  REG, or if that is null, in spill slot SLOT. */
+    private static class Held {
+        final Register reg;
+        final int slot;
 
+        Held(Register reg, int slot) {
+            this.reg = reg;
+            this.slot = slot;
+        }
     }
 
     /** An analyzer that encapsulates code generation for statments. */
@@ -117,213 +537,1208 @@ public class CodeGenImpl extends CodeGenBase {
          * appropriate info for the var that is currently in scope.
          */
 
-        /** Symbol table for my statements. */
-        private SymbolTable<SymbolInfo> sym;
+        /** State of the function being generated. */
+        private final Frame frame;
 
-        /** Label of code that exits from procedure. */
-        protected Label epilogue;
+        /** Generator for expressions. */
+        private final ExprAnalyzer exprAnalyzer;
 
-        /** The descriptor for the current function, or null at the top
-         *  level. */
-        private FuncInfo funcInfo;
+        /** An analyzer for the function whose state is FRAME0. */
+        StmtAnalyzer(Frame frame0) {
+            frame = frame0;
+            exprAnalyzer = new ExprAnalyzer(frame);
+        }
 
-        /** An analyzer for the function described by FUNCINFO0, which is null
-         *  for the top level. */
-        StmtAnalyzer(FuncInfo funcInfo0) {
-            funcInfo = funcInfo0;
-            if (funcInfo == null) {
-                sym = globalSymbols;
-            } else {
-                sym = funcInfo.getSymbolTable();
+        /** Emit the top-level statements STATEMENTS of my function,
+         *  placing each register variable in its register as its
+         *  interval begins. */
+        void emitBody(List<Stmt> statements) {
+            for (int i = 0; i < statements.size(); i += 1) {
+                for (StackVarInfo var : frame.registers.startingAt(i)) {
+                    Register reg = frame.registers.get(var);
+                    if (var.getFuncInfo().getParams()
+                        .contains(var.getVarName())) {
+                        backend.emitLW(reg, FP, frame.varOffset(var),
+                                       "Load parameter: " + var.getVarName());
+                    } else {
+                        Register value =
+                            frame.loadLiteral(var.getInitialValue(),
+                                              var.getVarType(), reg);
+                        if (value != reg) {
+                            backend.emitMV(reg, value,
+                                           "Initialize local: "
+                                           + var.getVarName());
+                        }
+                    }
+                }
+                emit(statements.get(i));
             }
-            epilogue = generateLocalLabel();
+        }
+
+        /** Emit each of STATEMENTS. */
+        private void emit(List<Stmt> statements) {
+            for (Stmt stmt : statements) {
+                emit(stmt);
+            }
+        }
+
+        /** Emit STMT, which leaves no temporary busy. */
+        private void emit(Stmt stmt) {
+            stmt.dispatch(this);
+            assert frame.freeTemps() == TEMPS.length
+                : "temporary left busy at line " + stmt.getLocation()[0];
         }
 
         @Override
         public Void analyze(ReturnStmt stmt) {
-            stmt.value.dispatch(exprAnalyzer);
-            backend.emitJ(epilogue,"jump to epilogue to avoid returning null");
+            if (stmt.value == null) {
+                backend.emitMV(A0, ZERO, "Return None");
+            } else {
+                Register value = exprAnalyzer.gen(
+                    stmt.value, frame.funcInfo.getReturnType());
+                backend.emitMV(A0, value, "Move return value to A0");
+                frame.free(value);
+            }
+            backend.emitJ(frame.epilogue, "Go to return");
             return null;
         }
 
         @Override
         public Void analyze(AssignStmt stmt) {
+            Type type = stmt.value.getInferredType();
+            Held value = frame.hold(exprAnalyzer.gen(stmt.value));
+            Held boxed = null;
+            for (Expr target : stmt.targets) {
+                if (!exprAnalyzer.needsBox(type, target)) {
+                    exprAnalyzer.assign(target, value);
+                    continue;
+                }
+                if (boxed == null) {
+                    Literal constant = exprAnalyzer.constantOf(stmt.value);
+                    boxed = frame.hold(constant != null
+                        ? frame.loadLiteral(constant, Type.OBJECT_TYPE,
+                                            frame.take())
+                        : exprAnalyzer.box(frame.use(value, A1), type));
+                }
+                exprAnalyzer.assign(target, boxed);
+            }
+            frame.release(value);
+            if (boxed != null) {
+                frame.release(boxed);
+            }
             return null;
         }
 
-        ExprAnalyzer exprAnalyzer = new ExprAnalyzer(funcInfo);
-
         @Override
         public Void analyze(ExprStmt stmt) {
-            stmt.expr.dispatch(exprAnalyzer);
+            frame.free(exprAnalyzer.gen(stmt.expr));
             return null;
         }
 
         @Override
         public Void analyze(ForStmt stmt) {
+            boolean string = Type.STR_TYPE.equals(
+                stmt.iterable.getInferredType());
+            Register seq = frame.registers.getSequence(stmt);
+            Register index = frame.registers.getIndex(stmt);
+            Held seqSlot = null, indexSlot = null;
+
+            Register value = exprAnalyzer.gen(stmt.iterable);
+            if (!string) {
+                emitErrorIfZero(value, errorNone, "Iterating over None");
+            }
+            if (seq != null) {
+                backend.emitMV(seq, value, "Save sequence");
+                frame.free(value);
+            } else {
+                seqSlot = frame.spill(value);
+            }
+            if (index != null) {
+                backend.emitMV(index, ZERO, "Initialize index");
+            } else {
+                indexSlot = frame.spill(ZERO);
+            }
+
+            Label top = generateLocalLabel();
+            Label test = generateLocalLabel();
+            backend.emitJ(test, "Test for more elements");
+            backend.emitLocalLabel(top, "Top of for loop");
+            frame.count(PROFILE_LOOPS, "loop iterations");
+            Register s = seq != null ? seq : frame.use(seqSlot, A1);
+            Register i = index != null ? index : frame.use(indexSlot, A2);
+            Register element = frame.take();
+            if (string) {
+                usesAllChars = true;
+                backend.emitADD(A3, s, i, "Address of character");
+                backend.emitLBU(A3, A3, getAttrOffset(strClass, "__str__"),
+                                "Load character");
+                backend.emitLI(A4, CHAR_SIZE, "Size of string of one char");
+                backend.emitMUL(A3, A3, A4, "Offset of its string");
+                backend.emitLA(element, allCharsLabel,
+                               "Load table of one-char strings");
+                backend.emitADD(element, element, A3, "Get string of char");
+            } else {
+                backend.emitSLLI(A3, i, 2, "Offset of element");
+                backend.emitADD(A3, s, A3, "Address of element");
+                backend.emitLW(element, A3, "@.__elts__", "Load element");
+                Type type = stmt.iterable.getInferredType();
+                if (type instanceof ListValueType
+                    && !exprAnalyzer.needsBox(
+                           ((ListValueType) type).elementType,
+                           stmt.identifier)) {
+                    exprAnalyzer.unbox(element,
+                                       ((ListValueType) type).elementType);
+                }
+            }
+            backend.emitADDI(i, i, 1, "Advance index");
+            if (index == null) {
+                backend.emitSW(i, FP, frame.spillOffset(indexSlot.slot),
+                               "Store index");
+            }
+            exprAnalyzer.assign(stmt.identifier, new Held(element, -1));
+            frame.free(element);
+            emit(stmt.body);
+
+            backend.emitLocalLabel(test, "Test for more elements");
+            s = seq != null ? seq : frame.use(seqSlot, A1);
+            i = index != null ? index : frame.use(indexSlot, A2);
+            backend.emitLW(A3, s, "@.__len__", "Get length of sequence");
+            backend.emitBLT(i, A3, top, "Loop while elements remain");
+            if (seqSlot != null) {
+                frame.release(seqSlot);
+            }
+            if (indexSlot != null) {
+                frame.release(indexSlot);
+            }
             return null;
         }
 
         @Override
         public Void analyze(IfStmt stmt) {
+            Label elseLabel = generateLocalLabel();
+            exprAnalyzer.branch(stmt.condition, elseLabel, false);
+            emit(stmt.thenBody);
+            if (stmt.elseBody.isEmpty()) {
+                backend.emitLocalLabel(elseLabel, "End of if");
+            } else {
+                Label end = generateLocalLabel();
+                backend.emitJ(end, "Skip else branch");
+                backend.emitLocalLabel(elseLabel, "Else branch");
+                emit(stmt.elseBody);
+                backend.emitLocalLabel(end, "End of if");
+            }
             return null;
         }
 
         @Override
         public Void analyze(WhileStmt stmt) {
+            Label top = generateLocalLabel();
+            Label test = generateLocalLabel();
+            backend.emitJ(test, "Test loop condition");
+            backend.emitLocalLabel(top, "Top of while loop");
+            frame.count(PROFILE_LOOPS, "loop iterations");
+            emit(stmt.body);
+            backend.emitLocalLabel(test, "Test loop condition");
+            exprAnalyzer.branch(stmt.condition, top, true);
             return null;
         }
+    }
 
+    private class ExprAnalyzer extends AbstractNodeAnalyzer<Register> {
+        /** State of the function being generated. */
+        private final Frame frame;
+        /** Symbol table of the function. */
+        private final SymbolTable<SymbolInfo> sym;
 
+        ExprAnalyzer(Frame frame0) {
+            frame = frame0;
+            sym = frame.sym;
+        }
 
-    }
+        /*
+         * Each analyze method emits code for an expression and returns
+         * the register holding its value.  This is either a temporary,
+         * which the caller must free, or a register it may only read: a
+         * variable's register, or ZERO.  On entry at least one temporary
+         * is free.
+         *
+         * Values whose static type is int or bool are raw words: the
+         * integer, or 0 or 1.  They are boxed only where they flow into a
+         * position of another static type (see coerce) and when stored
+         * into lists, whose elements are always objects.
+         */
 
-    private class ExprAnalyzer extends AbstractNodeAnalyzer<Void> {
-        private SymbolTable<SymbolInfo> sym;
-        private FuncInfo funcInfo;
-        ExprAnalyzer(FuncInfo funcInfo0) {
-            funcInfo = funcInfo0;
-            if (funcInfo == null) {
-                sym = globalSymbols;
+        /** Emit code to store the value kept by VALUE in TARGET, an
+         *  identifier, attribute or list element, in the representation
+         *  TARGET requires (see needsBox). */
+        void assign(Expr target, Held value) {
+            if (target instanceof Identifier) {
+                storeVar(((Identifier) target).name, frame.use(value, A1));
+            } else if (target instanceof MemberExpr) {
+                MemberExpr member = (MemberExpr) target;
+                Register object = gen(member.object);
+                emitErrorIfZero(object, errorNone, "Operation on None");
+                ClassInfo classInfo = classOf(member.object);
+                String name = member.member.name;
+                backend.emitSW(frame.use(value, A1), object,
+                               getAttrOffset(classInfo, name),
+                               "Set attribute: " + name);
+                frame.free(object);
+            } else {
+                IndexExpr index = (IndexExpr) target;
+                Register list = gen(index.list);
+                Held heldList = frame.hold(list);
+                Register i = gen(index.index);
+                list = frame.use(heldList, A2);
+                Register address = elementAddress(list, i, 2);
+                backend.emitSW(frame.use(value, A1), address, "@.__elts__",
+                               "Set list element");
+                frame.free(i);
+                frame.release(heldList);
+            }
+        }
+
+        /** Return true iff a value of static type TYPE must be boxed to be
+         *  assigned to TARGET. */
+        boolean needsBox(Type type, Expr target) {
+            return isPrimitive(type)
+                && (target instanceof IndexExpr
+                    || !isPrimitive(target.getInferredType()));
+        }
+
+        /** Emit code to store the value in VALUE to variable NAME. */
+        private void storeVar(String name, Register value) {
+            SymbolInfo info = sym.get(name);
+            if (info instanceof GlobalVarInfo) {
+                backend.emitSW(value, ((GlobalVarInfo) info).getLabel(), A3,
+                               "Set global: " + name);
+                return;
+            }
+            StackVarInfo var = (StackVarInfo) info;
+            Register reg = var.getFuncInfo() == frame.funcInfo
+                ? frame.registers.get(var) : null;
+            if (reg != null) {
+                backend.emitMV(reg, value, "Set local: " + name);
+            } else {
+                Register base = frame.frameOf(var.getFuncInfo(), A3);
+                backend.emitSW(value, base, frame.varOffset(var),
+                               "Set var: " + name);
+            }
+        }
+
+        /** Emit code computing the address of element I of LIST (less
+         *  the offset of the first element) into A3, checking that LIST
+         *  is not None and I is in bounds, and return A3.  Elements are
+         *  1 << SHIFT bytes long. */
+        private Register elementAddress(Register list, Register i,
+                                        int shift) {
+            emitErrorIfZero(list, errorNone, "Operation on None");
+            backend.emitLW(A3, list, "@.__len__", "Get length");
+            emitErrorIfNotBelow(i, A3, errorOob, "Index out of bounds");
+            if (shift > 0) {
+                backend.emitSLLI(A4, i, shift, "Offset of element");
+                backend.emitADD(A3, list, A4, "Address of element");
+            } else {
+                backend.emitADD(A3, list, i, "Address of element");
+            }
+            return A3;
+        }
+
+        /** Emit code to jump to TARGET iff the bool value of CONDITION is
+         *  WHEN. */
+        void branch(Expr condition, Label target, boolean when) {
+            Literal constant = folder.get(condition);
+            if (constant != null) {
+                condition = constant;
+            }
+            if (condition instanceof BooleanLiteral) {
+                if (((BooleanLiteral) condition).value == when) {
+                    backend.emitJ(target, "Branch always taken");
+                }
+                return;
+            }
+            if (condition instanceof UnaryExpr) {
+                UnaryExpr expr = (UnaryExpr) condition;
+                branch(expr.operand, target, !when);
+                return;
+            }
+            if (condition instanceof BinaryExpr) {
+                BinaryExpr expr = (BinaryExpr) condition;
+                switch (expr.operator) {
+                case "and":
+                case "or":
+                    if (expr.operator.equals("and") != when) {
+                        branch(expr.left, target, when);
+                        branch(expr.right, target, when);
+                    } else {
+                        Label skip = generateLocalLabel();
+                        branch(expr.left, skip, !when);
+                        branch(expr.right, target, when);
+                        backend.emitLocalLabel(skip, "End of " + expr.operator);
+                    }
+                    return;
+                case "<": case "<=": case ">": case ">=":
+                case "==": case "!=": case "is":
+                    if (!Type.STR_TYPE.equals(expr.left.getInferredType())) {
+                        compareAndBranch(expr, target, when);
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+            Register value = gen(condition);
+            frame.free(value);
+            if (when) {
+                backend.emitBNEZ(value, target, "Branch if true");
+            } else {
+                backend.emitBEQZ(value, target, "Branch if false");
+            }
+        }
+
+        /** Emit code for the comparison EXPR, of ints, bools or objects,
+         *  jumping to TARGET iff its result is WHEN. */
+        private void compareAndBranch(BinaryExpr expr, Label target,
+                                      boolean when) {
+            Register left = gen(expr.left);
+            Held held = frame.hold(left);
+            Register right = gen(expr.right);
+            left = frame.reclaim(held, A1);
+            frame.free(left);
+            frame.free(right);
+            String op = expr.operator;
+            if (!when) {
+                op = negate(op);
+            }
+            switch (op) {
+            case "<": backend.emitBLT(left, right, target, "Branch if <"); break;
+            case ">=": backend.emitBGE(left, right, target, "Branch if >="); break;
+            case ">": backend.emitBLT(right, left, target, "Branch if >"); break;
+            case "<=": backend.emitBGE(right, left, target, "Branch if <="); break;
+            case "!=": backend.emitBNE(left, right, target, "Branch if !="); break;
+            default: backend.emitBEQ(left, right, target, "Branch if =="); break;
+            }
+        }
+
+        /** Return the comparison operator that is true exactly when OP is
+         *  false ("is" is treated as "=="). */
+        private String negate(String op) {
+            switch (op) {
+            case "<": return ">=";
+            case ">=": return "<";
+            case ">": return "<=";
+            case "<=": return ">";
+            case "!=": return "==";
+            default: return "!=";
+            }
+        }
+
+        /** Return a temporary to receive a value computed from REG: REG
+         *  itself if it is a temporary, and otherwise a fresh one. */
+        private Register target(Register reg) {
+            return frame.isTemp(reg) ? reg : frame.take();
+        }
+
+        /** Return a temporary into which an operation on LEFT and RIGHT may
+         *  place its result, freeing whichever of them is not it. */
+        private Register reuse(Register left, Register right) {
+            Register target;
+            if (frame.isTemp(left)) {
+                target = left;
+                frame.free(right);
+            } else if (frame.isTemp(right)) {
+                target = right;
             } else {
-                sym = funcInfo.getSymbolTable();
+                target = frame.take();
+            }
+            return target;
+        }
+
+        /** Emit code converting the value in VALUE, of static type FROM,
+         *  to the representation of static type TO, and return the
+         *  register holding the result.  VALUE is consumed. */
+        Register coerce(Register value, Type from, Type to) {
+            if (!isPrimitive(from) || isPrimitive(to)) {
+                return value;
+            }
+            if (Type.BOOL_TYPE.equals(from)) {
+                return boxBool(value, target(value));
             }
+            backend.emitMV(A0, value, "Pass value to box");
+            frame.free(value);
+            return boxInt();
+        }
+
+        /** Emit code for EXPR converted to the representation of static
+         *  type TO, returning the register holding it.  A constant int or
+         *  bool converted to an object is its constant object. */
+        Register gen(Expr expr, Type to) {
+            Type from = expr.getInferredType();
+            Literal value = constantOf(expr);
+            if (value != null && isPrimitive(from) && !isPrimitive(to)) {
+                return frame.loadLiteral(value, to, frame.take());
+            }
+            return coerce(gen(expr), from, to);
+        }
+
+        /** Return the value of EXPR if it is a literal or its value is
+         *  known at compile time, and otherwise null. */
+        Literal constantOf(Expr expr) {
+            if (expr instanceof IntegerLiteral
+                || expr instanceof BooleanLiteral) {
+                return (Literal) expr;
+            }
+            return folder.get(expr);
+        }
+
+        /** Emit code to box the raw value in VALUE, of static type TYPE,
+         *  into a fresh temporary, which is returned.  VALUE is kept. */
+        Register box(Register value, Type type) {
+            if (Type.BOOL_TYPE.equals(type)) {
+                return boxBool(value, frame.take());
+            }
+            backend.emitMV(A0, value, "Pass value to box");
+            return boxInt();
+        }
+
+        /** Emit code turning the 0 or 1 in BIT into a bool object in
+         *  TARGET, and return TARGET. */
+        private Register boxBool(Register bit, Register target) {
+            backend.emitSLLI(A5, bit, 4, "Offset of bool object");
+            backend.emitLA(target, constants.getBoolConstant(false),
+                           "Load False");
+            backend.emitADD(target, target, A5, "Select bool object");
+            return target;
+        }
+
+        /**
+         * Takes an integer in register A0 and converts it to a pointer to
+         * an int object in memory containing that integer, which is left
+         * in a fresh temporary that is returned.
+         */
+        public Register boxInt() {
+            boxesInts = true;
+            Label slow = generateLocalLabel();
+            Label done = generateLocalLabel();
+            int words = intClass.attributes.size() + HEADER_SIZE;
+            int cached = getIntCacheSize();
+            if (cached > 0) {
+                Label fresh = generateLocalLabel();
+                if (intCacheMin > -2048 && intCacheMin <= 2048) {
+                    backend.emitADDI(A1, A0, -intCacheMin,
+                                     "Index of value in int cache");
+                } else {
+                    backend.emitLI(A1, intCacheMin, "Least cached int");
+                    backend.emitSUB(A1, A0, A1,
+                                    "Index of value in int cache");
+                }
+                backend.emitLI(A2, cached, "Number of cached ints");
+                backend.emitBGEU(A1, A2, fresh, "Allocate if not cached");
+                backend.emitSLLI(A1, A1,
+                                 Integer.numberOfTrailingZeros(
+                                     words * wordSize),
+                                 "Offset of cached int");
+                backend.emitLA(A0, intCacheLabel, "Load int cache");
+                backend.emitADD(A0, A0, A1, "Select cached int");
+                backend.emitJ(done, "Skip allocation");
+                backend.emitLocalLabel(fresh, "Value not cached");
+            }
+            frame.count(PROFILE_ALLOCS, "allocations");
+            bump(words, slow);
+            backend.emitSW(A0, GP, "@.__int__", "Store value in new int");
+            claim(intClass, words);
+            backend.emitJ(done, "Skip allocator");
+            backend.emitLocalLabel(slow, "Heap exhausted");
+            frame.call(makeIntLabel, "Box integer");
+            backend.emitLocalLabel(done, "End of boxing");
+            return frame.result();
+        }
+
+        /** Emit the start of an inline allocation of WORDS words: leave
+         *  the end of the new object in A1, branching to SLOW if it does
+         *  not fit in the heap. */
+        private void bump(int words, Label slow) {
+            backend.emitADDI(A1, GP, words * wordSize, "End of new object");
+            backend.emitBGEU(A1, S11, slow, "Call allocator if heap is full");
+        }
+
+        /** Emit the rest of an inline allocation of WORDS words begun by
+         *  bump, leaving in A0 the new object, with the header of CLASSINFO
+         *  stored in it.  Clobbers A1. */
+        private void claim(ClassInfo classInfo, int words) {
+            backend.emitMV(A0, GP, "Allocate object at GP");
+            backend.emitMV(GP, A1, "Set next free slot in the heap");
+            int tag = classInfo.getTypeTag();
+            if (tag == 0) {
+                backend.emitSW(ZERO, A0, 0, "Set type tag");
+            } else {
+                backend.emitLI(A1, tag, "Type tag");
+                backend.emitSW(A1, A0, 0, "Set type tag");
+            }
+            backend.emitLI(A1, words, "Object size");
+            backend.emitSW(A1, A0, "@.__obj_size__", "Set object size");
+            Label table = classInfo.getDispatchTableLabel();
+            if (table == null) {
+                backend.emitSW(ZERO, A0, getDispatchTableOffset(),
+                               "No dispatch table");
+            } else {
+                backend.emitLA(A1, table, "Dispatch table");
+                backend.emitSW(A1, A0, getDispatchTableOffset(),
+                               "Set dispatch table");
+            }
+        }
+
+        /** Emit code to convert the object in VALUE, whose static type is
+         *  TYPE, to its raw value if TYPE is int or bool, returning the
+         *  register holding the result. */
+        Register unbox(Register value, Type type) {
+            if (isPrimitive(type)) {
+                backend.emitLW(value, value, "@.__int__", "Unbox value");
+            }
+            return value;
+        }
+
+        /** Emit code for EXPR, returning the register holding its
+         *  value. */
+        Register gen(Expr expr) {
+            Literal value = folder.get(expr);
+            if (value instanceof StringLiteral) {
+                return frame.loadLiteral(value, Type.STR_TYPE, frame.take());
+            } else if (value instanceof IntegerLiteral) {
+                return raw(((IntegerLiteral) value).value);
+            } else if (value instanceof BooleanLiteral) {
+                return raw(((BooleanLiteral) value).value ? 1 : 0);
+            }
+            return expr.dispatch(this);
         }
 
         //EXPRESSIONS
 
         @Override
-        public Void analyze(CallExpr expr) {
-            backend.emitSW(RA,SP,-4,"Saving return address");
-            backend.emitSW(FP,SP,-8,"Saving frame pointer");
-            backend.emitMV(FP,SP,"Setting fp to sp");
-            backend.emitADDI(SP,SP,-8,"SP pointing to top of stack (currently at the return address)");
-            for(Expr e:expr.args) {
-                e.dispatch(this);
-                backend.emitSW(A0,SP,-4,"pushing next param onto stack");
-                backend.emitADDI(SP,SP,-4,"shifting SP onto end of stack");
-            }
-            backend.emitJAL(((FuncInfo)sym.get(expr.function.name)).getCodeLabel(),
-                    String.format("Invoke function %s",expr.function.name));
-            backend.emitLW(RA,FP,-4,"Restoring RA");
-            backend.emitMV(SP,FP,"Restoring SP");
-            return null;
+        public Register analyze(CallExpr expr) {
+            SymbolInfo info = sym.get(expr.function.name);
+            if (info instanceof ClassInfo) {
+                return construct((ClassInfo) info);
+            }
+            FuncInfo callee = (FuncInfo) info;
+            boolean nested = callee.getDepth() > 0;
+            List<Held> args = evaluate(expr.args, callee, 0);
+            int n = args.size();
+            for (int i = 0; i < n; i += 1) {
+                int offset = wordSize * (n - 1 - i + (nested ? 1 : 0));
+                backend.emitSW(frame.use(args.get(i), A1), SP, offset,
+                               "Push argument " + i);
+                frame.release(args.get(i));
+            }
+            if (nested) {
+                Register link =
+                    frame.frameOf(callee.getParentFuncInfo(), A1);
+                backend.emitSW(link, SP, 0, "Push static link");
+            }
+            frame.noteArgs(n + (nested ? 1 : 0));
+            frame.call(callee.getCodeLabel(),
+                       "Invoke function: " + callee.getFuncName());
+            return frame.result();
+        }
+
+        /** Emit code to evaluate EXPRS in order, as the arguments of
+         *  CALLEE starting with its parameter FIRST, returning their kept
+         *  values. */
+        private List<Held> evaluate(List<Expr> exprs, FuncInfo callee,
+                                    int first) {
+            List<Held> values = new ArrayList<>();
+            for (int i = 0; i < exprs.size(); i += 1) {
+                Expr e = exprs.get(i);
+                VarInfo param = (VarInfo) callee.getSymbolTable()
+                    .get(callee.getParams().get(first + i));
+                values.add(frame.hold(gen(e, param.getVarType())));
+            }
+            return values;
+        }
+
+        /** Emit code to create a new object of the class CLASSINFO,
+         *  returning its register. */
+        private Register construct(ClassInfo classInfo) {
+            if (classInfo == intClass || classInfo == boolClass) {
+                return ZERO;
+            } else if (classInfo == strClass) {
+                return frame.loadLiteral(new StringLiteral(null, null, ""),
+                                         Type.STR_TYPE, frame.take());
+            }
+            int words = classInfo.attributes.size() + HEADER_SIZE;
+            Label done = null;
+            frame.count(PROFILE_ALLOCS, "allocations");
+            if (words <= INLINE_OBJECT_WORDS) {
+                Label slow = generateLocalLabel();
+                done = generateLocalLabel();
+                bump(words, slow);
+                claim(classInfo, words);
+                for (AttrInfo attr : classInfo.attributes) {
+                    Register value =
+                        frame.loadLiteral(attr.getInitialValue(),
+                                          attr.getVarType(), A1);
+                    backend.emitSW(value, A0,
+                                   getAttrOffset(classInfo,
+                                                 attr.getVarName()),
+                                   "Initialize attribute: "
+                                   + attr.getVarName());
+                }
+                backend.emitJ(done, "Skip allocator");
+                backend.emitLocalLabel(slow, "Heap exhausted");
+            }
+            backend.emitLA(A0, classInfo.getPrototypeLabel(),
+                           "Load prototype of: " + classInfo.getClassName());
+            frame.call(objectAllocLabel, "Allocate new object");
+            if (done != null) {
+                backend.emitLocalLabel(done, "End of allocation");
+            }
+            Register object = frame.result();
+            if (classInfo == objectClass) {
+                return object;
+            }
+            backend.emitSW(object, SP, 0, "Push self");
+            frame.noteArgs(1);
+            backend.emitLW(A1, object, getDispatchTableOffset(),
+                           "Load dispatch table");
+            backend.emitLW(A1, A1, getMethodOffset(classInfo, "__init__"),
+                           "Load address of __init__");
+            frame.call(A1, "Invoke __init__");
+            return object;
         }
 
         @Override
-        public Void analyze(BinaryExpr expr) {
-            expr.right.dispatch(this);
-            backend.emitSW(A0,SP,-4,"Pushing right summand onto the stack");
-            backend.emitADDI(SP,SP,-4,"Adjusting SP");
-            expr.left.dispatch(this);
-            backend.emitLW(T0,SP,0,"Popping right summand from stack");
-            if(expr.operator.equals("+")) {
-                backend.emitADD(A0,A0,T0,"Operator +");
+        public Register analyze(MethodCallExpr expr) {
+            ClassInfo classInfo = classOf(expr.method.object);
+            String name = expr.method.member.name;
+            FuncInfo method =
+                classInfo.methods.get(classInfo.getMethodIndex(name));
+            Held object = frame.hold(gen(expr.method.object));
+            List<Held> args = evaluate(expr.args, method, 1);
+            int n = args.size() + 1;
+            for (int i = 0; i < args.size(); i += 1) {
+                backend.emitSW(frame.use(args.get(i), A1), SP,
+                               wordSize * (n - 2 - i), "Push argument " + i);
+                frame.release(args.get(i));
             }
-            if(expr.operator.equals("*")) {
-                backend.emitMUL(A0,A0,T0,"Operator *");
+            Register self = frame.use(object, A2);
+            emitErrorIfZero(self, errorNone, "Operation on None");
+            backend.emitSW(self, SP, wordSize * (n - 1), "Push self");
+            backend.emitLW(A1, self, getDispatchTableOffset(),
+                           "Load dispatch table");
+            backend.emitLW(A1, A1, getMethodOffset(classInfo, name),
+                           "Load address of method: " + name);
+            frame.release(object);
+            frame.noteArgs(n);
+            frame.call(A1, "Invoke method: " + name);
+            return frame.result();
+        }
+
+        @Override
+        public Register analyze(BinaryExpr expr) {
+            String op = expr.operator;
+            if (op.equals("and") || op.equals("or")) {
+                return logical(expr);
             }
-            if(expr.operator.equals("-")) {
-                backend.emitSUB(A0,A0,T0,"Operator -");
+            Type type = expr.left.getInferredType();
+            Register left = gen(expr.left);
+            Held held = frame.hold(left);
+            Register right = gen(expr.right);
+            left = frame.reclaim(held, A1);
+
+            if (Type.STR_TYPE.equals(type)) {
+                backend.emitMV(A0, left, "Pass first string");
+                backend.emitMV(A1, right, "Pass second string");
+                frame.free(left);
+                frame.free(right);
+                if (op.equals("+")) {
+                    frame.count(PROFILE_ALLOCS, "allocations");
+                    frame.call(strCatLabel, "Concatenate strings");
+                    return frame.result();
+                }
+                frame.call(strEqlLabel, "Compare strings");
+                if (op.equals("!=")) {
+                    backend.emitXORI(A0, A0, 1, "Negate result");
+                }
+                return frame.result();
+            }
+            if (type.isListType()) {
+                backend.emitMV(A0, left, "Pass first list");
+                backend.emitMV(A1, right, "Pass second list");
+                frame.free(left);
+                frame.free(right);
+                frame.count(PROFILE_ALLOCS, "allocations");
+                frame.call(concatLabel, "Concatenate lists");
+                return frame.result();
+            }
+
+            Register result = reuse(left, right);
+            switch (op) {
+            case "+":
+                backend.emitADD(result, left, right, "Operator +");
+                break;
+            case "-":
+                backend.emitSUB(result, left, right, "Operator -");
+                break;
+            case "*":
+                backend.emitMUL(result, left, right, "Operator *");
+                break;
+            case "//":
+            case "%":
+                divide(op, left, right, result);
+                break;
+            case "<":
+                backend.emitSLT(result, left, right, "Operator <");
+                break;
+            case ">":
+                backend.emitSLT(result, right, left, "Operator >");
+                break;
+            case "<=":
+                backend.emitSLT(result, right, left, "Operator <=");
+                backend.emitXORI(result, result, 1, "Negate >");
+                break;
+            case ">=":
+                backend.emitSLT(result, left, right, "Operator >=");
+                backend.emitXORI(result, result, 1, "Negate <");
+                break;
+            case "!=":
+                backend.emitSUB(result, left, right, "Operator !=");
+                backend.emitSNEZ(result, result, "Test for nonzero");
+                break;
+            default:
+                backend.emitSUB(result, left, right, "Operator " + op);
+                backend.emitSEQZ(result, result, "Test for zero");
+                break;
+            }
+            return result;
+        }
+
+        /** Emit code computing LEFT // RIGHT or LEFT % RIGHT into RESULT,
+         *  as OP directs, rounding the quotient toward negative infinity.
+         *  RESULT may be LEFT or RIGHT. */
+        private void divide(String op, Register left, Register right,
+                            Register result) {
+            Label done = generateLocalLabel();
+            emitErrorIfZero(right, errorDiv, "Division by zero");
+            backend.emitREM(A3, left, right, "Remainder");
+            backend.emitXOR(A4, A3, right, "Compare signs");
+            if (op.equals("//")) {
+                backend.emitDIV(result, left, right, "Operator //");
+                backend.emitBEQZ(A3, done, "Exact: no adjustment");
+                backend.emitBGEZ(A4, done, "Same signs: no adjustment");
+                backend.emitADDI(result, result, -1, "Round toward -infinity");
+            } else {
+                backend.emitBEQZ(A3, done, "Exact: no adjustment");
+                backend.emitBGEZ(A4, done, "Same signs: no adjustment");
+                backend.emitADD(A3, A3, right, "Take sign of divisor");
+            }
+            backend.emitLocalLabel(done, "End of " + op);
+            if (op.equals("%")) {
+                backend.emitMV(result, A3, "Operator %");
+            }
+        }
+
+        /** Emit code for the short-circuiting "and" or "or" EXPR. */
+        private Register logical(BinaryExpr expr) {
+            Label done = generateLocalLabel();
+            Register result = frame.own(gen(expr.left));
+            if (expr.operator.equals("and")) {
+                backend.emitBEQZ(result, done, "Short-circuit: False");
+            } else {
+                backend.emitBNEZ(result, done, "Short-circuit: True");
+            }
+            frame.free(result);
+            join(gen(expr.right), result);
+            backend.emitLocalLabel(done, "End of " + expr.operator);
+            return result;
+        }
+
+        /** Emit code moving VALUE into TARGET, a temporary that is free
+         *  unless it is VALUE, which becomes busy. */
+        private void join(Register value, Register target) {
+            if (value != target) {
+                frame.take(target);
+                backend.emitMV(target, value, "Move to result");
+                frame.free(value);
             }
-            return null;
         }
 
         @Override
-        public Void analyze(IfExpr expr) {
-            return null;
+        public Register analyze(IfExpr expr) {
+            Type type = expr.getInferredType();
+            Literal condition = folder.get(expr.condition);
+            if (expr.condition instanceof BooleanLiteral) {
+                condition = (Literal) expr.condition;
+            }
+            if (condition != null) {
+                Expr chosen = ((BooleanLiteral) condition).value
+                    ? expr.thenExpr : expr.elseExpr;
+                return gen(chosen, type);
+            }
+            Label elseLabel = generateLocalLabel();
+            Label done = generateLocalLabel();
+            branch(expr.condition, elseLabel, false);
+            Register result = frame.own(gen(expr.thenExpr, type));
+            backend.emitJ(done, "Skip else branch");
+            backend.emitLocalLabel(elseLabel, "Else branch");
+            frame.free(result);
+            join(gen(expr.elseExpr, type), result);
+            backend.emitLocalLabel(done, "End of conditional expression");
+            return result;
         }
 
         @Override
-        public Void analyze(IndexExpr expr) {
-            return null;
+        public Register analyze(IndexExpr expr) {
+            boolean string =
+                Type.STR_TYPE.equals(expr.list.getInferredType());
+            Register list = gen(expr.list);
+            Held held = frame.hold(list);
+            Register index = gen(expr.index);
+            list = frame.reclaim(held, A2);
+            Register address = elementAddress(list, index, string ? 0 : 2);
+            Register result = reuse(index, list);
+            if (string) {
+                usesAllChars = true;
+                backend.emitLBU(A3, address, getAttrOffset(strClass, "__str__"),
+                                "Load character");
+                backend.emitLI(A4, CHAR_SIZE, "Size of string of one char");
+                backend.emitMUL(A3, A3, A4, "Offset of its string");
+                backend.emitLA(result, allCharsLabel,
+                               "Load table of one-char strings");
+                backend.emitADD(result, result, A3, "Get string of char");
+                return result;
+            }
+            backend.emitLW(result, address, "@.__elts__",
+                           "Load list element");
+            return unbox(result, expr.getInferredType());
         }
 
         @Override
-        public Void analyze(ListExpr expr) {
-            return null;
+        public Register analyze(ListExpr expr) {
+            if (expr.elements.isEmpty()) {
+                Register result = frame.take();
+                backend.emitLA(result, listClass.getPrototypeLabel(),
+                               "Load empty list");
+                return result;
+            }
+            List<Held> elements = new ArrayList<>();
+            for (Expr e : expr.elements) {
+                elements.add(frame.hold(gen(e, Type.OBJECT_TYPE)));
+            }
+            int n = elements.size();
+            Label done = null;
+            frame.count(PROFILE_ALLOCS, "allocations");
+            if ((n + 4) * wordSize < 2048) {
+                Label slow = generateLocalLabel();
+                done = generateLocalLabel();
+                bump(n + 4, slow);
+                claim(listClass, n + 4);
+                backend.emitJ(done, "Skip allocator");
+                backend.emitLocalLabel(slow, "Heap exhausted");
+            }
+            backend.emitLA(A0, listClass.getPrototypeLabel(),
+                           "Load prototype of list");
+            backend.emitLI(A1, n + 4, "Size of list in words");
+            frame.call(objectAllocResizeLabel, "Allocate list");
+            if (done != null) {
+                backend.emitLocalLabel(done, "End of allocation");
+            }
+            backend.emitLI(A1, n, "Length of list");
+            backend.emitSW(A1, A0, "@.__len__", "Set length of list");
+            for (int i = 0; i < n; i += 1) {
+                backend.emitSW(frame.use(elements.get(i), A1), A0,
+                               getAttrOffset(listClass, "__len__")
+                               + wordSize * (i + 1),
+                               "Set element " + i);
+                frame.release(elements.get(i));
+            }
+            return frame.result();
         }
 
         @Override
-        public Void analyze(MemberExpr expr) {
-            return null;
+        public Register analyze(MemberExpr expr) {
+            ClassInfo classInfo = classOf(expr.object);
+            String name = expr.member.name;
+            Register object = gen(expr.object);
+            emitErrorIfZero(object, errorNone, "Operation on None");
+            Register result = target(object);
+            backend.emitLW(result, object, getAttrOffset(classInfo, name),
+                           "Get attribute: " + name);
+            return result;
         }
 
         @Override
-        public Void analyze(MethodCallExpr expr) {
-            return null;
+        public Register analyze(UnaryExpr expr) {
+            Register operand = gen(expr.operand);
+            Register result = target(operand);
+            if (expr.operator.equals("not")) {
+                backend.emitSEQZ(result, operand, "Operator not");
+            } else {
+                backend.emitSUB(result, ZERO, operand, "Operator -");
+            }
+            return result;
         }
 
         @Override
-        public Void analyze(UnaryExpr expr) {
-            expr.operand.dispatch(this);
-            backend.emitADD(T0,A0,ZERO,"loading argument into temp register");
-            backend.emitSUB(A0,ZERO,T0,"replacing A0 with negative A0");
-            return null;
+        public Register analyze(Identifier id) {
+            SymbolInfo info = sym.get(id.name);
+            if (info instanceof GlobalVarInfo) {
+                Register result = frame.take();
+                backend.emitLW(result, ((GlobalVarInfo) info).getLabel(),
+                               "Load global: " + id.name);
+                return result;
+            }
+            StackVarInfo var = (StackVarInfo) info;
+            if (var.getFuncInfo() == frame.funcInfo) {
+                Register reg = frame.registers.get(var);
+                if (reg != null) {
+                    return reg;
+                }
+            }
+            Register result = frame.take();
+            Register base = frame.frameOf(var.getFuncInfo(), result);
+            backend.emitLW(result, base, frame.varOffset(var),
+                           "Load var: " + id.name);
+            return result;
+        }
+
+        // LITERALS
+
+        @Override
+        public Register analyze(BooleanLiteral literal) {
+            return raw(literal.value ? 1 : 0);
+        }
+
+        @Override
+        public Register analyze(IntegerLiteral literal) {
+            return raw(literal.value);
+        }
+
+        /** Emit code to load VALUE, returning its register. */
+        private Register raw(int value) {
+            if (value == 0) {
+                return ZERO;
+            }
+            Register result = frame.take();
+            backend.emitLI(result, value, "Load integer literal " + value);
+            return result;
+        }
+
+        @Override
+        public Register analyze(NoneLiteral literal) {
+            return ZERO;
+        }
+
+        @Override
+        public Register analyze(StringLiteral literal) {
+            return frame.loadLiteral(literal, Type.STR_TYPE, frame.take());
+        }
+    }
+
+    /** Return the descriptor of the class of the static type of
+     *  EXPR. */
+    private ClassInfo classOf(Expr expr) {
+        return (ClassInfo) globalSymbols.get(
+            expr.getInferredType().className());
+    }
+
+    /** Return the type of attribute NAME of CLASSINFO. */
+    private Type attrType(ClassInfo classInfo, String name) {
+        return classInfo.attributes.get(classInfo.getAttributeIndex(name))
+            .getVarType();
+    }
+
+    /** Return true iff values of TYPE are stored unboxed in global
+     *  variables and attributes. */
+    private static boolean isPrimitive(Type type) {
+        return Type.INT_TYPE.equals(type) || Type.BOOL_TYPE.equals(type);
+    }
+
+    /** Finds the variables of enclosing functions that a function refers
+     *  to, adding them to CAPTURED. */
+    private class CaptureFinder extends AbstractNodeAnalyzer<Void> {
+        /** The function searched. */
+        private final FuncInfo funcInfo;
+
+        CaptureFinder(FuncInfo funcInfo0) {
+            funcInfo = funcInfo0;
+        }
+
+        /** Search each of NODES. */
+        private void search(List<? extends Node> nodes) {
+            for (Node node : nodes) {
+                node.dispatch(this);
+            }
         }
 
         @Override
         public Void analyze(Identifier id) {
+            SymbolInfo info = funcInfo.getSymbolTable().get(id.name);
+            if (info instanceof StackVarInfo
+                && ((StackVarInfo) info).getFuncInfo() != funcInfo) {
+                captured.add((StackVarInfo) info);
+            }
             return null;
         }
 
-        // LITERALS
+        @Override
+        public Void analyze(ExprStmt stmt) {
+            return stmt.expr.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(AssignStmt stmt) {
+            search(stmt.targets);
+            return stmt.value.dispatch(this);
+        }
 
         @Override
-        public Void analyze(BooleanLiteral literal) {
-            backend.emitLA(A0,constants.fromLiteral(literal),
-                    "Load the address of the literal into a0");
+        public Void analyze(ReturnStmt stmt) {
+            return stmt.value == null ? null : stmt.value.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(IfStmt stmt) {
+            stmt.condition.dispatch(this);
+            search(stmt.thenBody);
+            search(stmt.elseBody);
             return null;
+        }
 
+        @Override
+        public Void analyze(WhileStmt stmt) {
+            stmt.condition.dispatch(this);
+            search(stmt.body);
+            return null;
         }
 
         @Override
-        public Void analyze(IntegerLiteral literal) {
-            backend.emitLA(A0,constants.fromLiteral(literal),
-                    "Load the address of the literal into a0");
+        public Void analyze(ForStmt stmt) {
+            stmt.identifier.dispatch(this);
+            stmt.iterable.dispatch(this);
+            search(stmt.body);
             return null;
         }
 
         @Override
-        public Void analyze(NoneLiteral literal) {
-            backend.emitLA(A0,constants.fromLiteral(literal),
-                    "Load the address of the literal into a0");
+        public Void analyze(BinaryExpr expr) {
+            expr.left.dispatch(this);
+            return expr.right.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(UnaryExpr expr) {
+            return expr.operand.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(IfExpr expr) {
+            expr.condition.dispatch(this);
+            expr.thenExpr.dispatch(this);
+            return expr.elseExpr.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(CallExpr expr) {
+            search(expr.args);
             return null;
         }
 
         @Override
-        public Void analyze(StringLiteral literal) {
-            backend.emitLA(A0,constants.fromLiteral(literal),
-                    "Load the address of the literal into a0");
+        public Void analyze(MethodCallExpr expr) {
+            expr.method.object.dispatch(this);
+            search(expr.args);
             return null;
         }
-    }
 
-    /*
-    Takes an integer in register A0 and converts it to a pointer to an int object in memory containing that integer
-     */
-    public Void boxInt() {
+        @Override
+        public Void analyze(MemberExpr expr) {
+            return expr.object.dispatch(this);
+        }
 
-        return null;
+        @Override
+        public Void analyze(IndexExpr expr) {
+            expr.list.dispatch(this);
+            return expr.index.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(ListExpr expr) {
+            search(expr.elements);
+            return null;
+        }
     }
 
     /**
      * Emits custom code in the CODE segment.
      */
     protected void emitCustomCode() {
-        emitErrorFunc(errorNone, "Operation on None");
-        emitErrorFunc(errorDiv, "Division by zero");
-        emitErrorFunc(errorOob, "Index out of bounds");
+        if (boxesInts) {
+            emitStdFunc(makeIntLabel);
+        }
+        emitStdFunc(strCatLabel);
+        emitStdFunc(strEqlLabel);
+        emitStdFunc(concatLabel);
+        emitErrorFunc(errorNone, ERROR_NONE, "Operation on None");
+        emitErrorFunc(errorDiv, ERROR_DIV_ZERO, "Division by zero");
+        emitErrorFunc(errorOob, ERROR_OOB, "Index out of bounds");
+    }
+
+    @Override
+    protected void emitConstants() {
+        super.emitConstants();
+        if (usesAllChars) {
+            emitAllChars();
+        }
     }
 
-    /** Emit an error routine labeled ERRLABEL that aborts with message MSG. */
-    private void emitErrorFunc(Label errLabel, String msg) {
+    /** Emit a table of the 256 strings of one character, each CHAR_SIZE
+     *  bytes long and indexed by its character code. */
+    private void emitAllChars() {
+        backend.emitGlobalLabel(allCharsLabel);
+        for (int c = 0; c < 256; c += 1) {
+            backend.emitWordLiteral(strClass.getTypeTag(),
+                                    "Type tag for class: str");
+            backend.emitWordLiteral(CHAR_SIZE / wordSize, "Object size");
+            backend.emitWordAddress(strClass.getDispatchTableLabel(),
+                                    "Pointer to dispatch table");
+            backend.emitWordLiteral(1, "Constant value of attribute: __len__");
+            backend.emitWordLiteral(c, "Character and null terminator");
+        }
+    }
+
+    /** Emit an error routine labeled ERRLABEL that aborts with exit code
+     *  CODE and message MSG. */
+    private void emitErrorFunc(Label errLabel, int code, String msg) {
+        addProfileEntry(errLabel.toString(), errLabel, null);
         backend.emitGlobalLabel(errLabel);
-        backend.emitLI(A0, ERROR_NONE, "Exit code for: " + msg);
+        backend.emitLI(A0, code, "Exit code for: " + msg);
         backend.emitLA(A1, constants.getStrConstant(msg),
                        "Load error message as str");
         backend.emitADDI(A1, A1, getAttrOffset(strClass, "__str__"),
                          "Load address of attribute __str__");
         backend.emitJ(abortLabel, "Abort");
     }
+
+    /** Emit code jumping to the error routine ERROR iff REG is 0, with
+     *  COMMENT.  The error routines follow all other code, too far away
+     *  for a conditional branch in a large program, so the test branches
+     *  around an unconditional jump. */
+    private void emitErrorIfZero(Register reg, Label error, String comment) {
+        Label ok = generateLocalLabel();
+        backend.emitBNEZ(reg, ok, "Skip error");
+        backend.emitJ(error, comment);
+        backend.emitLocalLabel(ok, "No error");
+    }
+
+    /** Emit code jumping to the error routine ERROR iff the unsigned value
+     *  in RS1 is at least that in RS2, with COMMENT, as for
+     *  emitErrorIfZero. */
+    private void emitErrorIfNotBelow(Register rs1, Register rs2, Label error,
+                                     String comment) {
+        Label ok = generateLocalLabel();
+        backend.emitBLTU(rs1, rs2, ok, "Skip error");
+        backend.emitJ(error, comment);
+        backend.emitLocalLabel(ok, "No error");
+    }
 }
@@ -0,0 +1,415 @@
+package codegen;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import common.analysis.AbstractNodeAnalyzer;
+import common.analysis.SymbolTable;
+import common.analysis.types.Type;
+import common.astnodes.AssignStmt;
+import common.astnodes.BinaryExpr;
+import common.astnodes.BooleanLiteral;
+import common.astnodes.CallExpr;
+import common.astnodes.Expr;
+import common.astnodes.ExprStmt;
+import common.astnodes.ForStmt;
+import common.astnodes.Identifier;
+import common.astnodes.IfExpr;
+import common.astnodes.IfStmt;
+import common.astnodes.IndexExpr;
+import common.astnodes.IntegerLiteral;
+import common.astnodes.ListExpr;
+import common.astnodes.Literal;
+import common.astnodes.MemberExpr;
+import common.astnodes.MethodCallExpr;
+import common.astnodes.ReturnStmt;
+import common.astnodes.Stmt;
+import common.astnodes.StringLiteral;
+import common.astnodes.UnaryExpr;
+import common.astnodes.WhileStmt;
+import common.codegen.FuncInfo;
+import common.codegen.SymbolInfo;
+import common.codegen.VarInfo;
+
+/**
+ * The values of the expressions of a typed program that can be computed
+ * at compile time.
+ *
+ * Constant expressions are built from int, bool and str literals with
+ * the arithmetic, comparison and logical operators, string concatenation,
+ * conditional expressions, len of constant strings and of list displays
+ * with constant elements, and variables of type int, bool or str that are
+ * never assigned after their initialization.  The program itself is left
+ * unchanged: code generation asks for the value of each expression it
+ * visits.  Expressions that would fail at run time, such as division by
+ * zero, are not folded.
+ */
+public class ConstantFolder {
+
+    /** The values of the non-literal constant expressions. */
+    private final Map<Expr, Literal> values = new IdentityHashMap<>();
+
+    /** Variables that are assigned somewhere. */
+    private final Set<VarInfo> assigned =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** The predefined len function. */
+    private final FuncInfo lenFunc;
+
+    /** An empty set of values, which folds nothing. */
+    public ConstantFolder() {
+        lenFunc = null;
+    }
+
+    /** The values of the constant expressions in STATEMENTS, the top
+     *  level of a program whose global symbols are GLOBALS, and in the
+     *  bodies of FUNCTIONS.  LENFUNC is the predefined len. */
+    public ConstantFolder(List<Stmt> statements,
+                          SymbolTable<SymbolInfo> globals,
+                          List<FuncInfo> functions, FuncInfo lenFunc) {
+        this.lenFunc = lenFunc;
+        for (FuncInfo funcInfo : functions) {
+            walk(funcInfo.getStatements(),
+                 new AssignmentFinder(funcInfo.getSymbolTable()));
+        }
+        walk(statements, new AssignmentFinder(globals));
+        for (FuncInfo funcInfo : functions) {
+            walk(funcInfo.getStatements(),
+                 new Evaluator(funcInfo.getSymbolTable()));
+        }
+        walk(statements, new Evaluator(globals));
+    }
+
+    /** Return the value of EXPR, or null if it is not constant or is
+     *  itself a literal. */
+    public Literal get(Expr expr) {
+        return values.get(expr);
+    }
+
+    /** Return true iff VAR always has its initial value, so that every
+     *  use of it is folded. */
+    public boolean isConstant(VarInfo var) {
+        if (lenFunc == null || assigned.contains(var)) {
+            return false;
+        }
+        Type type = var.getVarType();
+        Literal value = var.getInitialValue();
+        return Type.INT_TYPE.equals(type) && value instanceof IntegerLiteral
+            || Type.BOOL_TYPE.equals(type) && value instanceof BooleanLiteral
+            || Type.STR_TYPE.equals(type) && value instanceof StringLiteral;
+    }
+
+    /** Return the value of EXPR, already evaluated, or null if it is not
+     *  constant.  Unlike get, this returns the literals themselves. */
+    private Literal valueOf(Expr expr) {
+        if (expr instanceof IntegerLiteral || expr instanceof BooleanLiteral
+            || expr instanceof StringLiteral) {
+            return (Literal) expr;
+        }
+        return values.get(expr);
+    }
+
+    /** Apply ANALYZER to each of STATEMENTS. */
+    private static void walk(List<Stmt> statements,
+                             AbstractNodeAnalyzer<?> analyzer) {
+        for (Stmt stmt : statements) {
+            stmt.dispatch(analyzer);
+        }
+    }
+
+    /** Finds the variables assigned in the statements of a body whose
+     *  symbol table is SYM. */
+    private class AssignmentFinder extends AbstractNodeAnalyzer<Void> {
+        /** Symbol table of the body. */
+        private final SymbolTable<SymbolInfo> sym;
+
+        AssignmentFinder(SymbolTable<SymbolInfo> sym) {
+            this.sym = sym;
+        }
+
+        /** Record an assignment to TARGET. */
+        private void assign(Expr target) {
+            if (target instanceof Identifier) {
+                SymbolInfo info = sym.get(((Identifier) target).name);
+                if (info instanceof VarInfo) {
+                    assigned.add((VarInfo) info);
+                }
+            }
+        }
+
+        @Override
+        public Void analyze(AssignStmt stmt) {
+            for (Expr target : stmt.targets) {
+                assign(target);
+            }
+            return null;
+        }
+
+        @Override
+        public Void analyze(ForStmt stmt) {
+            assign(stmt.identifier);
+            walk(stmt.body, this);
+            return null;
+        }
+
+        @Override
+        public Void analyze(IfStmt stmt) {
+            walk(stmt.thenBody, this);
+            walk(stmt.elseBody, this);
+            return null;
+        }
+
+        @Override
+        public Void analyze(WhileStmt stmt) {
+            walk(stmt.body, this);
+            return null;
+        }
+    }
+
+    /** Computes the values of the constant expressions in a body whose
+     *  symbol table is SYM.  Each analyze method on an expression returns
+     *  its value, or null if it is not constant. */
+    private class Evaluator extends AbstractNodeAnalyzer<Literal> {
+        /** Symbol table of the body. */
+        private final SymbolTable<SymbolInfo> sym;
+
+        Evaluator(SymbolTable<SymbolInfo> sym) {
+            this.sym = sym;
+        }
+
+        /** Record VALUE as the value of EXPR, returning VALUE. */
+        private Literal fold(Expr expr, Literal value) {
+            if (value != null) {
+                values.put(expr, value);
+            }
+            return value;
+        }
+
+        /** Evaluate each of EXPRS. */
+        private void evaluate(List<Expr> exprs) {
+            for (Expr expr : exprs) {
+                expr.dispatch(this);
+            }
+        }
+
+        @Override
+        public Literal analyze(ExprStmt stmt) {
+            stmt.expr.dispatch(this);
+            return null;
+        }
+
+        @Override
+        public Literal analyze(AssignStmt stmt) {
+            evaluate(stmt.targets);
+            stmt.value.dispatch(this);
+            return null;
+        }
+
+        @Override
+        public Literal analyze(ReturnStmt stmt) {
+            if (stmt.value != null) {
+                stmt.value.dispatch(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Literal analyze(IfStmt stmt) {
+            stmt.condition.dispatch(this);
+            walk(stmt.thenBody, this);
+            walk(stmt.elseBody, this);
+            return null;
+        }
+
+        @Override
+        public Literal analyze(WhileStmt stmt) {
+            stmt.condition.dispatch(this);
+            walk(stmt.body, this);
+            return null;
+        }
+
+        @Override
+        public Literal analyze(ForStmt stmt) {
+            stmt.iterable.dispatch(this);
+            walk(stmt.body, this);
+            return null;
+        }
+
+        @Override
+        public Literal analyze(IntegerLiteral literal) {
+            return literal;
+        }
+
+        @Override
+        public Literal analyze(BooleanLiteral literal) {
+            return literal;
+        }
+
+        @Override
+        public Literal analyze(StringLiteral literal) {
+            return literal;
+        }
+
+        @Override
+        public Literal analyze(Identifier id) {
+            SymbolInfo info = sym.get(id.name);
+            if (info instanceof VarInfo && isConstant((VarInfo) info)) {
+                return fold(id, ((VarInfo) info).getInitialValue());
+            }
+            return null;
+        }
+
+        @Override
+        public Literal analyze(UnaryExpr expr) {
+            Literal operand = expr.operand.dispatch(this);
+            if (operand instanceof IntegerLiteral
+                && expr.operator.equals("-")) {
+                return fold(expr, integer(-((IntegerLiteral) operand).value));
+            } else if (operand instanceof BooleanLiteral
+                       && expr.operator.equals("not")) {
+                return fold(expr, bool(!((BooleanLiteral) operand).value));
+            }
+            return null;
+        }
+
+        @Override
+        public Literal analyze(BinaryExpr expr) {
+            Literal left = expr.left.dispatch(this);
+            Literal right = expr.right.dispatch(this);
+            if (left == null) {
+                return null;
+            }
+            String op = expr.operator;
+            if (left instanceof BooleanLiteral
+                && (op.equals("and") || op.equals("or"))) {
+                boolean l = ((BooleanLiteral) left).value;
+                if (l == op.equals("or")) {
+                    return fold(expr, left);
+                }
+                return fold(expr, right);
+            }
+            if (right == null) {
+                return null;
+            }
+            if (left instanceof IntegerLiteral) {
+                return fold(expr, intOp(op, ((IntegerLiteral) left).value,
+                                        ((IntegerLiteral) right).value));
+            } else if (left instanceof BooleanLiteral) {
+                boolean l = ((BooleanLiteral) left).value;
+                boolean r = ((BooleanLiteral) right).value;
+                switch (op) {
+                case "==": return fold(expr, bool(l == r));
+                case "!=": return fold(expr, bool(l != r));
+                default: return null;
+                }
+            } else if (left instanceof StringLiteral) {
+                String l = ((StringLiteral) left).value;
+                String r = ((StringLiteral) right).value;
+                switch (op) {
+                case "+": return fold(expr, new StringLiteral(null, null,
+                                                              l + r));
+                case "==": return fold(expr, bool(l.equals(r)));
+                case "!=": return fold(expr, bool(!l.equals(r)));
+                default: return null;
+                }
+            }
+            return null;
+        }
+
+        /** Return the result of integer operation OP on L and R, or null
+         *  if it fails at run time. */
+        private Literal intOp(String op, int l, int r) {
+            switch (op) {
+            case "+": return integer(l + r);
+            case "-": return integer(l - r);
+            case "*": return integer(l * r);
+            case "//": return r == 0 ? null : integer(Math.floorDiv(l, r));
+            case "%": return r == 0 ? null : integer(Math.floorMod(l, r));
+            case "<": return bool(l < r);
+            case "<=": return bool(l <= r);
+            case ">": return bool(l > r);
+            case ">=": return bool(l >= r);
+            case "==": return bool(l == r);
+            case "!=": return bool(l != r);
+            default: return null;
+            }
+        }
+
+        @Override
+        public Literal analyze(IfExpr expr) {
+            Literal condition = expr.condition.dispatch(this);
+            Literal thenValue = expr.thenExpr.dispatch(this);
+            Literal elseValue = expr.elseExpr.dispatch(this);
+            if (!(condition instanceof BooleanLiteral)
+                || !expr.thenExpr.getInferredType()
+                    .equals(expr.elseExpr.getInferredType())) {
+                return null;
+            }
+            return fold(expr, ((BooleanLiteral) condition).value
+                              ? thenValue : elseValue);
+        }
+
+        @Override
+        public Literal analyze(CallExpr expr) {
+            evaluate(expr.args);
+            if (lenFunc == null || sym.get(expr.function.name) != lenFunc) {
+                return null;
+            }
+            Expr arg = expr.args.get(0);
+            if (arg instanceof ListExpr) {
+                for (Expr element : ((ListExpr) arg).elements) {
+                    if (valueOf(element) == null) {
+                        return null;
+                    }
+                }
+                return fold(expr,
+                            integer(((ListExpr) arg).elements.size()));
+            }
+            Literal value = valueOf(arg);
+            if (value instanceof StringLiteral) {
+                return fold(expr,
+                            integer(((StringLiteral) value).value.length()));
+            }
+            return null;
+        }
+
+        @Override
+        public Literal analyze(ListExpr expr) {
+            evaluate(expr.elements);
+            return null;
+        }
+
+        @Override
+        public Literal analyze(MethodCallExpr expr) {
+            expr.method.object.dispatch(this);
+            evaluate(expr.args);
+            return null;
+        }
+
+        @Override
+        public Literal analyze(MemberExpr expr) {
+            expr.object.dispatch(this);
+            return null;
+        }
+
+        @Override
+        public Literal analyze(IndexExpr expr) {
+            expr.list.dispatch(this);
+            expr.index.dispatch(this);
+            return null;
+        }
+    }
+
+    /** Return the literal for VALUE. */
+    private static IntegerLiteral integer(int value) {
+        return new IntegerLiteral(null, null, value);
+    }
+
+    /** Return the literal for VALUE. */
+    private static BooleanLiteral bool(boolean value) {
+        return new BooleanLiteral(null, null, value);
+    }
+}
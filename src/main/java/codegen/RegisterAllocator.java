@@ -0,0 +1,362 @@
+package codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import common.analysis.AbstractNodeAnalyzer;
+import common.analysis.SymbolTable;
+import common.astnodes.AssignStmt;
+import common.astnodes.BinaryExpr;
+import common.astnodes.CallExpr;
+import common.astnodes.Expr;
+import common.astnodes.ExprStmt;
+import common.astnodes.ForStmt;
+import common.astnodes.Identifier;
+import common.astnodes.IfExpr;
+import common.astnodes.IfStmt;
+import common.astnodes.IndexExpr;
+import common.astnodes.ListExpr;
+import common.astnodes.MemberExpr;
+import common.astnodes.MethodCallExpr;
+import common.astnodes.ReturnStmt;
+import common.astnodes.Stmt;
+import common.astnodes.UnaryExpr;
+import common.astnodes.WhileStmt;
+import common.codegen.FuncInfo;
+import common.codegen.RiscVBackend.Register;
+import common.codegen.StackVarInfo;
+import common.codegen.SymbolInfo;
+
+import static common.codegen.RiscVBackend.Register.*;
+
+/**
+ * An assignment of the variables of one function body (or of the top
+ * level) to callee-saved registers.
+ *
+ * The candidates are the function's parameters and locals that no nested
+ * function refers to, and the hidden sequence and index of each for loop.
+ * Each has a live interval measured in top-level statements of the body,
+ * running from the first statement that mentions it to the last.  Whole
+ * statements are the unit because the top-level statements run in
+ * sequence: a value placed in a register at the start of the first
+ * statement reaches every later use.  Each use of a candidate weighs
+ * 10^d at loop depth d.  A linear scan over the intervals, in order of
+ * their start, hands out S1-S9; when they run short, the lightest of the
+ * overlapping candidates stays in memory.
+ */
+public class RegisterAllocator {
+
+    /** The registers available for variables.  S10 and S11 hold the
+     *  bounds of the heap. */
+    public static final Register[] REGISTERS = {
+        S1, S2, S3, S4, S5, S6, S7, S8, S9
+    };
+
+    /** Least weight of a candidate worth a register. */
+    private static final int MIN_WEIGHT = 2;
+
+    /** Deepest loop nesting that increases the weight of a use. */
+    private static final int MAX_LOOP_DEPTH = 4;
+
+    /** A variable that may be kept in a register. */
+    private static class Candidate {
+        /** The StackVarInfo, or the ForStmt or its Identifier standing
+         *  for the loop's sequence or index. */
+        final Object key;
+        /** First and last statement mentioning the variable. */
+        int start, end;
+        /** Sum of the weights of the uses. */
+        long weight;
+        /** The register assigned, if any. */
+        Register register;
+
+        Candidate(Object key, int start) {
+            this.key = key;
+            this.start = this.end = start;
+        }
+    }
+
+    /** The function whose variables are allocated, or null for the top
+     *  level. */
+    private final FuncInfo funcInfo;
+    /** Symbol table of the body. */
+    private final SymbolTable<SymbolInfo> sym;
+    /** Variables referred to by nested functions, which must stay in
+     *  memory. */
+    private final Set<StackVarInfo> captured;
+    /** The values of the constant expressions. */
+    private final ConstantFolder folder;
+
+    /** All candidates, by key, in order of first appearance. */
+    private final Map<Object, Candidate> candidates =
+        new IdentityHashMap<>();
+    /** Registers assigned to variables whose interval starts at each
+     *  top-level statement. */
+    private final Map<Integer, List<StackVarInfo>> starts =
+        new LinkedHashMap<>();
+    /** The registers used, in order. */
+    private final List<Register> used = new ArrayList<>();
+
+    /** Allocate registers for the variables of BODY, the statements of
+     *  FUNCINFO (null for the top level), whose symbol table is SYM.
+     *  Variables in CAPTURED are left in memory.  Uses whose values
+     *  FOLDER knows need no register. */
+    public RegisterAllocator(FuncInfo funcInfo, List<Stmt> body,
+                             SymbolTable<SymbolInfo> sym,
+                             Set<StackVarInfo> captured,
+                             ConstantFolder folder) {
+        this.funcInfo = funcInfo;
+        this.sym = sym;
+        this.captured = captured;
+        this.folder = folder;
+        UseCounter counter = new UseCounter();
+        for (int i = 0; i < body.size(); i += 1) {
+            counter.statement = i;
+            body.get(i).dispatch(counter);
+        }
+        scan();
+    }
+
+    /** Return the register holding VAR, or null if it is in memory. */
+    public Register get(StackVarInfo var) {
+        return lookup(var);
+    }
+
+    /** Return the register holding the sequence traversed by LOOP, or
+     *  null if it is in memory. */
+    public Register getSequence(ForStmt loop) {
+        return lookup(loop);
+    }
+
+    /** Return the register holding the index of LOOP in its sequence,
+     *  or null if it is in memory. */
+    public Register getIndex(ForStmt loop) {
+        return lookup(loop.identifier);
+    }
+
+    /** Return the variables given registers whose intervals start at
+     *  top-level statement STATEMENT, in order of first appearance. */
+    public List<StackVarInfo> startingAt(int statement) {
+        List<StackVarInfo> vars = starts.get(statement);
+        return vars == null ? Collections.<StackVarInfo>emptyList() : vars;
+    }
+
+    /** Return the registers assigned to any variable. */
+    public List<Register> getUsedRegisters() {
+        return used;
+    }
+
+    /** Return the register assigned to the candidate KEY, or null. */
+    private Register lookup(Object key) {
+        Candidate c = candidates.get(key);
+        return c == null ? null : c.register;
+    }
+
+    /** Assign registers to the candidates. */
+    private void scan() {
+        List<Candidate> order = new ArrayList<>();
+        for (Candidate c : candidates.values()) {
+            if (c.weight >= MIN_WEIGHT) {
+                order.add(c);
+            }
+        }
+        order.sort((a, b) -> a.start != b.start
+                   ? Integer.compare(a.start, b.start)
+                   : Long.compare(b.weight, a.weight));
+
+        List<Candidate> active = new ArrayList<>();
+        List<Register> free = new ArrayList<>();
+        Collections.addAll(free, REGISTERS);
+        for (Candidate c : order) {
+            for (int i = active.size() - 1; i >= 0; i -= 1) {
+                Candidate a = active.get(i);
+                if (a.end < c.start) {
+                    active.remove(i);
+                    free.add(a.register);
+                }
+            }
+            if (!free.isEmpty()) {
+                free.sort(null);
+                c.register = free.remove(0);
+                active.add(c);
+                continue;
+            }
+            Candidate lightest = c;
+            for (Candidate a : active) {
+                if (a.weight < lightest.weight) {
+                    lightest = a;
+                }
+            }
+            if (lightest != c) {
+                c.register = lightest.register;
+                lightest.register = null;
+                active.remove(lightest);
+                active.add(c);
+            }
+        }
+
+        for (Candidate c : order) {
+            if (c.register == null) {
+                continue;
+            }
+            if (!used.contains(c.register)) {
+                used.add(c.register);
+            }
+            if (c.key instanceof StackVarInfo) {
+                starts.computeIfAbsent(c.start, k -> new ArrayList<>())
+                    .add((StackVarInfo) c.key);
+            }
+        }
+        used.sort(null);
+    }
+
+    /** Record a use of candidate KEY in the current statement at loop
+     *  depth DEPTH. */
+    private void use(Object key, int statement, int depth) {
+        Candidate c = candidates.get(key);
+        if (c == null) {
+            c = new Candidate(key, statement);
+            candidates.put(key, c);
+        }
+        c.end = statement;
+        long weight = 1;
+        for (int i = Math.min(depth, MAX_LOOP_DEPTH); i > 0; i -= 1) {
+            weight *= 10;
+        }
+        c.weight += weight;
+    }
+
+    /** Walks the statements of the body, recording uses of
+     *  candidates. */
+    private class UseCounter extends AbstractNodeAnalyzer<Void> {
+        /** Index of the top-level statement being walked. */
+        int statement;
+        /** Number of loops enclosing the current node. */
+        int depth;
+
+        /** Walk each of NODES. */
+        private void walk(List<? extends Stmt> nodes) {
+            for (Stmt node : nodes) {
+                node.dispatch(this);
+            }
+        }
+
+        /** Walk each of EXPRS. */
+        private void walkExprs(List<Expr> exprs) {
+            for (Expr expr : exprs) {
+                expr.dispatch(this);
+            }
+        }
+
+        @Override
+        public Void analyze(Identifier id) {
+            SymbolInfo info = sym.get(id.name);
+            if (info instanceof StackVarInfo
+                && ((StackVarInfo) info).getFuncInfo() == funcInfo
+                && funcInfo != null
+                && !captured.contains(info)
+                && folder.get(id) == null) {
+                use(info, statement, depth);
+            }
+            return null;
+        }
+
+        @Override
+        public Void analyze(ExprStmt stmt) {
+            return stmt.expr.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(AssignStmt stmt) {
+            walkExprs(stmt.targets);
+            return stmt.value.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(ReturnStmt stmt) {
+            return stmt.value == null ? null : stmt.value.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(IfStmt stmt) {
+            stmt.condition.dispatch(this);
+            walk(stmt.thenBody);
+            walk(stmt.elseBody);
+            return null;
+        }
+
+        @Override
+        public Void analyze(WhileStmt stmt) {
+            depth += 1;
+            stmt.condition.dispatch(this);
+            walk(stmt.body);
+            depth -= 1;
+            return null;
+        }
+
+        @Override
+        public Void analyze(ForStmt stmt) {
+            stmt.iterable.dispatch(this);
+            depth += 1;
+            use(stmt, statement, depth);
+            use(stmt.identifier, statement, depth);
+            stmt.identifier.dispatch(this);
+            walk(stmt.body);
+            depth -= 1;
+            return null;
+        }
+
+        @Override
+        public Void analyze(BinaryExpr expr) {
+            expr.left.dispatch(this);
+            return expr.right.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(UnaryExpr expr) {
+            return expr.operand.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(IfExpr expr) {
+            expr.condition.dispatch(this);
+            expr.thenExpr.dispatch(this);
+            return expr.elseExpr.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(CallExpr expr) {
+            walkExprs(expr.args);
+            return null;
+        }
+
+        @Override
+        public Void analyze(MethodCallExpr expr) {
+            expr.method.object.dispatch(this);
+            walkExprs(expr.args);
+            return null;
+        }
+
+        @Override
+        public Void analyze(MemberExpr expr) {
+            return expr.object.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(IndexExpr expr) {
+            expr.list.dispatch(this);
+            return expr.index.dispatch(this);
+        }
+
+        @Override
+        public Void analyze(ListExpr expr) {
+            walkExprs(expr.elements);
+            return null;
+        }
+    }
+}
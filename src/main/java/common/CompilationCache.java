@@ -0,0 +1,276 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A content-addressed store of compiler outputs.
+ *
+ * Each entry maps a hash of a source text, the phase it was compiled
+ * through (AST, typed AST, or assembly), and the build of the compiler
+ * to the text that phase produced.  Entries are kept in an in-memory LRU
+ * tier, bounded both in entries and in bytes, and, if a cache directory
+ * is given, in an on-disk tier that survives across runs.
+ *
+ * All methods are safe to call from multiple threads.
+ */
+public class CompilationCache {
+
+    /** Version of the cached data.  Keys also identify the build of the
+     *  compiler (see Build), but one run from a classes directory is
+     *  identified only by its version and runtime library: bump this
+     *  whenever a change to the compiler alters the output produced for
+     *  some input, so that stale on-disk entries are ignored. */
+    private static final String FORMAT_VERSION = "1";
+
+    /** The runtime library routines in src/main/asm, which the code
+     *  generator copies into the assembly it produces. */
+    private static final String[] RUNTIME_RESOURCES = {
+        "abort.s", "alloc.s", "alloc2.s", "concat.s", "gc.s",
+        "heap.init.s", "input.s", "len.s", "makeint.s",
+        "object.__init__.s", "print.s", "strcat.s", "streql.s"
+    };
+
+    /** Default number of entries in the in-memory tier. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** Default number of bytes of output held in the in-memory tier. */
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    /** The in-memory tier, in least- to most-recently used order. */
+    private final LinkedHashMap<String, String> memory =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Maximum number of entries in the in-memory tier. */
+    private final int capacity;
+
+    /** Maximum total size of the in-memory tier, in bytes. */
+    private final long maxBytes;
+
+    /** Total size of the in-memory tier, in bytes. */
+    private long bytes;
+
+    /** Directory holding the on-disk tier, or null if there is none. */
+    private final Path directory;
+
+    /** A cache holding at most CAPACITY entries in memory and backed by
+     *  files in DIRECTORY, which may be null for an in-memory cache. */
+    public CompilationCache(int capacity, Path directory) {
+        this(capacity, DEFAULT_MAX_BYTES, directory);
+    }
+
+    /** A cache holding at most CAPACITY entries and MAXBYTES bytes of
+     *  output in memory, and backed by files in DIRECTORY, which may be
+     *  null for an in-memory cache. */
+    public CompilationCache(int capacity, long maxBytes, Path directory) {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+    }
+
+    /** Holder of the hash identifying this build of the compiler, which
+     *  is computed on first use. */
+    private static class Build {
+        /** The SHA-256 digest of the compiler's implementation version,
+         *  the runtime library it copies into assembly, and the size and
+         *  modification time of the jar it was loaded from, if any. */
+        static final byte[] IDENTITY = identity();
+
+        /** Return the digest held in IDENTITY. */
+        private static byte[] identity() {
+            MessageDigest digest = sha256();
+            String version =
+                CompilationCache.class.getPackage().getImplementationVersion();
+            digest.update(String.valueOf(version)
+                          .getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            ClassLoader loader = CompilationCache.class.getClassLoader();
+            for (String name : RUNTIME_RESOURCES) {
+                digest.update(name.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                try (InputStream in = loader.getResourceAsStream(name)) {
+                    if (in != null) {
+                        byte[] buffer = new byte[8192];
+                        for (int n; (n = in.read(buffer)) > 0; ) {
+                            digest.update(buffer, 0, n);
+                        }
+                    }
+                } catch (IOException e) {
+                    /* Hash what was read; a missing routine fails code
+                     * generation anyway. */
+                }
+                digest.update((byte) 0);
+            }
+            try {
+                Path jar = Paths.get(CompilationCache.class.getProtectionDomain()
+                                     .getCodeSource().getLocation().toURI());
+                if (Files.isRegularFile(jar)) {
+                    digest.update(ByteBuffer.allocate(16)
+                                  .putLong(Files.size(jar))
+                                  .putLong(Files.getLastModifiedTime(jar)
+                                           .toMillis())
+                                  .array());
+                }
+            } catch (IOException | URISyntaxException | RuntimeException e) {
+                /* Classes not loaded from a local jar: the version and
+                 * runtime library identify the build. */
+            }
+            return digest.digest();
+        }
+    }
+
+    /** Return a new SHA-256 digest. */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Return the cache key for SOURCE compiled through PHASE. */
+    public static String key(String source, String phase) {
+        return key(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)),
+                   phase);
+    }
+
+    /** Return the cache key for the UTF-8 source text from the position
+     *  of SOURCE to its limit, compiled through PHASE by this build of
+     *  the compiler.  SOURCE, which may be a mapping of a file, is hashed
+     *  in place and left as it was. */
+    public static String key(ByteBuffer source, String phase) {
+        MessageDigest digest = sha256();
+        digest.update(FORMAT_VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(Build.IDENTITY);
+        digest.update(phase.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(source.duplicate());
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /** Return the cached output of compiling SOURCE through PHASE, or
+     *  null if there is none. */
+    public String get(String source, String phase) {
+        return lookup(key(source, phase));
+    }
+
+    /** Return the cached output with key KEY (see key), or null if there
+     *  is none. */
+    public String lookup(String key) {
+        synchronized (memory) {
+            String result = memory.get(key);
+            if (result != null) {
+                return result;
+            }
+        }
+        if (directory == null) {
+            return null;
+        }
+
+        Path file = directory.resolve(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        String result;
+        try {
+            result = new String(Files.readAllBytes(file),
+                                StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+        remember(key, result);
+        return result;
+    }
+
+    /** Record RESULT as the output of compiling SOURCE through PHASE. */
+    public void put(String source, String phase, String result) {
+        store(key(source, phase), result);
+    }
+
+    /** Record RESULT as the output with key KEY (see key). */
+    public void store(String key, String result) {
+        remember(key, result);
+        if (directory == null) {
+            return;
+        }
+
+        /* Write to a temporary file first so that concurrent readers
+         * never see a partially written entry. */
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            tmp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(tmp, result.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp, directory.resolve(key),
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, directory.resolve(key),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            /* The on-disk tier is best effort. */
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e2) {
+                    /* Ignore. */
+                }
+            }
+        }
+    }
+
+    /** Keep RESULT under KEY in the in-memory tier, evicting the least
+     *  recently used entries to stay within its bounds.  A RESULT too
+     *  large for the tier on its own is not kept there. */
+    private void remember(String key, String result) {
+        long size = sizeOf(key, result);
+        synchronized (memory) {
+            String old = memory.remove(key);
+            if (old != null) {
+                bytes -= sizeOf(key, old);
+            }
+            if (size > maxBytes) {
+                return;
+            }
+            memory.put(key, result);
+            bytes += size;
+            Iterator<Map.Entry<String, String>> eldest =
+                memory.entrySet().iterator();
+            while (eldest.hasNext()
+                   && (memory.size() > capacity || bytes > maxBytes)) {
+                Map.Entry<String, String> entry = eldest.next();
+                bytes -= sizeOf(entry.getKey(), entry.getValue());
+                eldest.remove();
+            }
+        }
+    }
+
+    /** Return the approximate number of bytes held in memory by the
+     *  entry mapping KEY to RESULT.  Keys and outputs are ASCII almost
+     *  throughout, which Java strings store a byte per character. */
+    private static long sizeOf(String key, String result) {
+        return key.length() + result.length();
+    }
+}
@@ -0,0 +1,201 @@
+package common;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wall time, CPU time, and allocation measurements for the phases and
+ * passes of the compiler.
+ *
+ * Phases are named by slash-separated paths, so that the passes of a
+ * phase appear nested beneath it (for example, "analysis" and
+ * "analysis/TypeChecker").  CPU time and allocation are measured for the
+ * current thread, so a phase must start and stop on the same thread.
+ * They are reported as -1 when the JVM does not support measuring them.
+ */
+public class CompilerStats {
+
+    /** Totals for one phase. */
+    public static class Phase {
+        /** Slash-separated name of the phase. */
+        public final String name;
+        /** Number of times the phase ran. */
+        private long count;
+        /** Total elapsed wall-clock time, in nanoseconds. */
+        private long wallNanos;
+        /** Total CPU time, in nanoseconds, or -1 if not measured. */
+        private long cpuNanos;
+        /** Total bytes allocated, or -1 if not measured. */
+        private long allocatedBytes;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /** Add RUNS runs, taking WALL, CPU and ALLOCATED in all, to the
+         *  totals. */
+        void add(long runs, long wall, long cpu, long allocated) {
+            boolean first = count == 0;
+            count += runs;
+            wallNanos += wall;
+            cpuNanos = cpu < 0 || (!first && cpuNanos < 0)
+                ? -1 : cpuNanos + cpu;
+            allocatedBytes = allocated < 0 || (!first && allocatedBytes < 0)
+                ? -1 : allocatedBytes + allocated;
+        }
+    }
+
+    /** A running measurement of a phase, recorded when closed. */
+    public class Timer implements AutoCloseable {
+        /** The phase being measured. */
+        private final Phase phase;
+        /** Readings taken when the measurement started. */
+        private final long wall0, cpu0, allocated0;
+
+        Timer(Phase phase) {
+            this.phase = phase;
+            this.allocated0 = allocatedBytes();
+            this.cpu0 = cpuTime();
+            this.wall0 = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            long wall = System.nanoTime() - wall0;
+            long cpu = cpu0 < 0 ? -1 : cpuTime() - cpu0;
+            long allocated = allocated0 < 0 ? -1 : allocatedBytes() - allocated0;
+            synchronized (CompilerStats.this) {
+                phase.add(1, wall, cpu, allocated);
+            }
+        }
+    }
+
+    /** Source of per-thread CPU time and allocation counts. */
+    private static final ThreadMXBean THREADS =
+        ManagementFactory.getThreadMXBean();
+
+    /** Phases by name, in the order they first started. */
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+    /** Start measuring phase NAME.  Closing the result records the
+     *  measurement. */
+    public synchronized Timer time(String name) {
+        return new Timer(phase(name));
+    }
+
+    /** Add all measurements in OTHER to mine. */
+    public synchronized void addAll(CompilerStats other) {
+        for (Phase p : other.getPhases()) {
+            phase(p.name).add(p.count, p.wallNanos, p.cpuNanos,
+                              p.allocatedBytes);
+        }
+    }
+
+    /** Return a snapshot of my phases in the order they first started. */
+    public synchronized List<Phase> getPhases() {
+        List<Phase> result = new ArrayList<>();
+        for (Phase p : phases.values()) {
+            Phase copy = new Phase(p.name);
+            copy.add(p.count, p.wallNanos, p.cpuNanos, p.allocatedBytes);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /** Return my measurements as a list of maps, one per phase, suitable
+     *  for serializing as JSON. */
+    public List<Map<String, Object>> toJsonList() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Phase p : getPhases()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("phase", p.name);
+            entry.put("count", p.count);
+            entry.put("wallMillis", p.wallNanos / 1e6);
+            entry.put("cpuMillis", p.cpuNanos < 0 ? -1 : p.cpuNanos / 1e6);
+            entry.put("allocatedBytes", p.allocatedBytes);
+            result.add(entry);
+        }
+        return result;
+    }
+
+    /** Return my measurements as a table, one line per phase, with the
+     *  passes of a phase indented beneath it. */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%-32s %7s %10s %10s %12s%n",
+                                    "Phase", "Count", "Wall ms", "CPU ms",
+                                    "Alloc KB"));
+        for (Phase p : getPhases()) {
+            int depth = 0;
+            for (char c : p.name.toCharArray()) {
+                if (c == '/') {
+                    depth += 1;
+                }
+            }
+            String label = Utils.pad("", ' ', 2 * depth, false)
+                + p.name.substring(p.name.lastIndexOf('/') + 1);
+            result.append(String.format("%-32s %7d %10.2f %10s %12s%n",
+                                        label, p.count, p.wallNanos / 1e6,
+                                        p.cpuNanos < 0 ? "-"
+                                        : String.format("%.2f", p.cpuNanos / 1e6),
+                                        p.allocatedBytes < 0 ? "-"
+                                        : Long.toString(p.allocatedBytes / 1024)));
+        }
+        return result.toString();
+    }
+
+    /** Return the entry for phase NAME, creating it if needed. */
+    private Phase phase(String name) {
+        Phase result = phases.get(name);
+        if (result == null) {
+            result = new Phase(name);
+            phases.put(name, result);
+        }
+        return result;
+    }
+
+    /** Return the CPU time used so far by the current thread, in
+     *  nanoseconds, or -1 if it is unavailable. */
+    private static long cpuTime() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    /** Return the number of bytes allocated so far by the current thread,
+     *  or -1 if it is unavailable. */
+    private static long allocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported()
+            || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,87 @@
+package common;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import venus.assembler.Assembler;
+import venus.assembler.AssemblerError;
+import venus.assembler.AssemblerOutput;
+import venus.linker.LinkedProgram;
+import venus.linker.Linker;
+import venus.simulator.Simulator;
+
+/**
+ * Runs generated assembly code in-process on the venus164 RISC-V
+ * simulator.
+ *
+ * The simulator implements the environment calls the runtime uses
+ * (print_string, print_int, sbrk, fill_line_buffer, read_string and
+ * exit2) itself, writing the program's output to System.out and reading
+ * its input from System.in.  Each run swaps in its own streams for
+ * those; since they are shared by the whole JVM, only one program runs
+ * at a time.
+ */
+public class VenusRunner {
+
+    /** The outcome of one run. */
+    public static class Result {
+        /** Number of instructions executed. */
+        public final long instructions;
+        /** Elapsed wall-clock time of the execution, in nanoseconds,
+         *  excluding assembly and linking. */
+        public final long wallNanos;
+        /** True iff the program finished, rather than being stopped at
+         *  the instruction limit. */
+        public final boolean done;
+
+        Result(long instructions, long wallNanos, boolean done) {
+            this.instructions = instructions;
+            this.wallNanos = wallNanos;
+            this.done = done;
+        }
+    }
+
+    /** Assemble, link, and run ASSEMBLY, which reads its input from IN
+     *  and sends its output to OUT, for at most LIMIT instructions.
+     *  Throws IllegalArgumentException if ASSEMBLY does not assemble. */
+    public static synchronized Result run(String assembly, InputStream in,
+                                          PrintStream out, long limit) {
+        AssemblerOutput output = Assembler.INSTANCE.assemble(assembly);
+        List<AssemblerError> errors = output.getErrors();
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException(errors.get(0).getMessage());
+        }
+        LinkedProgram linked =
+            Linker.INSTANCE.link(Arrays.asList(output.getProg()));
+        Simulator simulator = new Simulator(linked);
+
+        PrintStream stdOut = System.out;
+        InputStream stdIn = System.in;
+        if (out != stdOut) {
+            System.setOut(out);
+        }
+        if (in != stdIn) {
+            System.setIn(in);
+        }
+        try {
+            long instructions = 0;
+            long start = System.nanoTime();
+            while (!simulator.isDone() && instructions < limit) {
+                simulator.step();
+                instructions += 1;
+            }
+            long wall = System.nanoTime() - start;
+            return new Result(instructions, wall, simulator.isDone());
+        } finally {
+            System.out.flush();
+            if (out != stdOut) {
+                System.setOut(stdOut);
+            }
+            if (in != stdIn) {
+                System.setIn(stdIn);
+            }
+        }
+    }
+}
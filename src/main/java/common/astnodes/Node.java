@@ -103,6 +103,16 @@ public abstract class Node {
         System.arraycopy(location, 0, this.location, 0, 4);
     }
 
+    /** Set my source location to run from line FIRSTLINE, column
+     *  FIRSTCOLUMN to line LASTLINE, column LASTCOLUMN. */
+    public void setLocation(int firstLine, int firstColumn,
+                            int lastLine, int lastColumn) {
+        location[0] = firstLine;
+        location[1] = firstColumn;
+        location[2] = lastLine;
+        location[3] = lastColumn;
+    }
+
     public String getErrorMsg() {
         return errorMsg;
     }
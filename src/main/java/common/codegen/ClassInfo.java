@@ -27,6 +27,8 @@ public class ClassInfo extends SymbolInfo {
     protected Label prototypeLabel;
     /** Label of area containing method-dispatching table. */
     protected Label dispatchTableLabel;
+    /** Label of area marking the attributes that hold pointers. */
+    protected Label pointerMapLabel;
 
     /**
      * A descriptor for a class named CLASSNAME identified by runtime tag
@@ -40,6 +42,8 @@ public class ClassInfo extends SymbolInfo {
             new Label(String.format("$%s$%s", className, "prototype"));
         dispatchTableLabel =
             new Label(String.format("$%s$%s", className, "dispatchTable"));
+        pointerMapLabel =
+            new Label(String.format("$%s$%s", className, "pointerMap"));
         attributes = new ArrayList<>();
         methods = new ArrayList<>();
         if (superClassInfo != null) {
@@ -80,6 +84,11 @@ public class ClassInfo extends SymbolInfo {
         return dispatchTableLabel;
     }
 
+    /** Returns the address of this class's pointer map (a label). */
+    public Label getPointerMapLabel() {
+        return pointerMapLabel;
+    }
+
     /**
      * Returns the index of the attribute named ATTRNAME in order of
      * definition.
@@ -107,12 +107,95 @@ public abstract class CodeGenBase {
     /** Label for built-in routine: heap.init. */
     protected final Label heapInitLabel = new Label("heap.init");
 
+    /** Label for built-in routine: gc. */
+    protected final Label gcLabel = new Label("gc");
+
+    /** Labels of the collector's state: the base of the stack, the list
+     *  of large free chunks, the lists of small free chunks by size, the
+     *  object-start bitmap, and the mark stack. */
+    protected final Label
+        gcStackLabel = new Label("gc.stack"),
+        gcFreeLabel = new Label("gc.free"),
+        gcClassesLabel = new Label("gc.classes"),
+        gcBitmapLabel = new Label("gc.bitmap"),
+        gcMarksLabel = new Label("gc.marks");
+
+    /** Label of the table of preallocated int objects. */
+    protected final Label intCacheLabel = new Label("int.cache");
+
+    /** Labels of the collector's tables: the addresses of the global
+     *  variables holding pointers, and the pointer map of each class,
+     *  indexed by type tag. */
+    protected final Label
+        gcGlobalsLabel = new Label("gc.globals"),
+        gcMapsLabel = new Label("gc.maps");
+
+    /** Label of the profile table. */
+    protected final Label profileLabel = new Label("profile.table");
+
     /** Error codes. */
     protected final int ERROR_ARG = 1, ERROR_DIV_ZERO = 2, ERROR_OOB = 3,
         ERROR_NONE = 4, ERROR_OOM = 5, ERROR_NYI = 6;
 
-    /** Size of heap memory. */
-    protected final int HEAP_SIZE_BYTES = 1024 * 1024 * 32;
+    /** Size of heap memory reserved at startup, a multiple of 4KB. */
+    protected int heapSizeBytes = CodeGenOptions.DEFAULT_HEAP_SIZE;
+
+    /** Least number of bytes by which a full heap grows, or 0 if the
+     *  heap has a fixed size. */
+    protected int heapGrowBytes = CodeGenOptions.DEFAULT_HEAP_GROW;
+
+    /** Size of the collector's mark stack. */
+    protected final int GC_MARK_STACK_BYTES = 1024 * 16;
+
+    /** Least and greatest ints whose objects are preallocated in the
+     *  table at intCacheLabel, in order.  The table is empty if the least
+     *  exceeds the greatest. */
+    protected int intCacheMin = CodeGenOptions.DEFAULT_INT_CACHE_MIN,
+        intCacheMax = CodeGenOptions.DEFAULT_INT_CACHE_MAX;
+
+    /** Largest number of ints that may be preallocated. */
+    protected final int MAX_INT_CACHE_SIZE = 1 << 16;
+
+    /** True iff the generated code may box ints at runtime, and so
+     *  needs the table of preallocated ints. */
+    protected boolean boxesInts = true;
+
+    /** True iff the generated code maintains the profile table. */
+    protected boolean profile = false;
+
+    /** Number of words in each entry of the profile table, and the
+     *  offsets of its counters of calls, allocations and loop
+     *  iterations. */
+    public static final int PROFILE_ENTRY_WORDS = 5,
+        PROFILE_CALLS = 8, PROFILE_ALLOCS = 12, PROFILE_LOOPS = 16;
+
+    /** A routine listed in the profile table. */
+    protected static class ProfileEntry {
+        /** Name of the routine. */
+        final String name;
+        /** Its entry point. */
+        final Label code;
+        /** Label of its entry in the table, or null if its code keeps no
+         *  counters. */
+        final Label counters;
+
+        ProfileEntry(String name, Label code, Label counters) {
+            this.name = name;
+            this.code = code;
+            this.counters = counters;
+        }
+    }
+
+    /** The routines in the profile table, in the order their code is
+     *  emitted. */
+    private final List<ProfileEntry> profileEntries = new ArrayList<>();
+
+    /** Type tag of a free chunk of the heap. */
+    protected final int GC_FREE_TAG = -2;
+
+    /** Free chunks of fewer words than this are kept in lists by exact
+     *  size. */
+    protected final int GC_SIZE_CLASSES = 16;
 
     /** Ecall numbers for intrinsic routines. */
     protected final int
@@ -191,6 +274,9 @@ public abstract class CodeGenBase {
      */
     public void generate(Program program) {
         analyzeProgram(program);
+        backend.defineSym("gc_heap_grow", heapGrowBytes);
+        backend.defineSym("int_cache_min", intCacheMin);
+        backend.defineSym("int_cache_size", getIntCacheSize());
 
         backend.startData();
 
@@ -213,7 +299,7 @@ public abstract class CodeGenBase {
 
         Label mainLabel = new Label("main");
         backend.emitGlobalLabel(mainLabel);
-        backend.emitLUI(A0, HEAP_SIZE_BYTES >> 12,
+        backend.emitLUI(A0, heapSizeBytes >> 12,
                         "Initialize heap size (in multiples of 4KB)");
         backend.emitADD(S11, S11, A0, "Save heap size");
         backend.emitJAL(heapInitLabel, "Call heap.init routine");
@@ -221,6 +307,8 @@ public abstract class CodeGenBase {
         backend.emitMV(S10, GP, "Set beginning of heap");
         backend.emitADD(S11, S10, S11,
                         "Set end of heap (= start of heap + heap size)");
+        backend.emitSW(SP, gcStackLabel, T0,
+                       "Set base of stack scanned by collector");
         backend.emitMV(RA, ZERO, "No normal return from main program.");
         backend.emitMV(FP, ZERO, "No preceding frame.");
 
@@ -234,11 +322,47 @@ public abstract class CodeGenBase {
         emitStdFunc("alloc2");
         emitStdFunc("abort");
         emitStdFunc("heap.init");
+        emitStdFunc("gc");
 
         emitCustomCode();
 
         backend.startData();
+        if (profile) {
+            emitProfileTable();
+        }
         emitConstants();
+        emitCollectorTables();
+    }
+
+    /** Reserve SIZE bytes for the heap at startup, rounded up to a
+     *  multiple of 4KB, and grow it by at least GROW bytes at a time
+     *  when it fills, or never if GROW is 0. */
+    public void setHeapSize(int size, int grow) {
+        if (size <= 0 || size > Integer.MAX_VALUE - 4095 || grow < 0) {
+            throw new IllegalArgumentException("Invalid heap size");
+        }
+        heapSizeBytes = (size + 4095) & ~4095;
+        heapGrowBytes = grow;
+    }
+
+    /** Preallocate the objects of the ints from MIN to MAX, or of no
+     *  ints if MIN > MAX. */
+    public void setIntCache(int min, int max) {
+        if ((long) max - min >= MAX_INT_CACHE_SIZE) {
+            throw new IllegalArgumentException("Int cache is too large");
+        }
+        intCacheMin = min;
+        intCacheMax = max;
+    }
+
+    /** Maintain the profile table iff PROFILE. */
+    public void setProfile(boolean profile) {
+        this.profile = profile;
+    }
+
+    /** Return the number of preallocated ints. */
+    protected int getIntCacheSize() {
+        return (int) Math.max(0, (long) intCacheMax - intCacheMin + 1);
     }
 
     /** Create descriptors and symbols for builtin classes and methods. */
@@ -318,6 +442,15 @@ public abstract class CodeGenBase {
      *   @error_none: Attempt to access attribute of None.
      *   @error_oom: Out of memory.
      *   @error_nyi: Unimplemented operation.
+     * Collector:
+     *   @gc_marks: Size of mark stack in bytes.
+     *   @gc_free_tag: Type tag of free chunks.
+     *   @gc_size_classes: Number of lists of free chunks by exact size.
+     *   @gc_heap_grow: Least number of bytes by which to grow the heap
+     *                  (defined by generate).
+     * Int cache (defined by generate):
+     *   @int_cache_min: Least preallocated int.
+     *   @int_cache_size: Number of preallocated ints.
      * Data-structure byte offsets:
      *   @.__obj_size__: Offset of size of object.
      *   @.__len__: Offset of length in chars or words.
@@ -350,6 +483,10 @@ public abstract class CodeGenBase {
         backend.defineSym("error_none", ERROR_NONE);
         backend.defineSym("error_oom", ERROR_OOM);
         backend.defineSym("error_nyi", ERROR_NYI);
+
+        backend.defineSym("gc_marks", GC_MARK_STACK_BYTES);
+        backend.defineSym("gc_free_tag", GC_FREE_TAG);
+        backend.defineSym("gc_size_classes", GC_SIZE_CLASSES);
     }
 
     /*-----------------------------------------------------------*/
@@ -778,9 +915,36 @@ public abstract class CodeGenBase {
             alignObject();
         }
 
+        /* Int constants in the cache are labels of their cached
+         * objects. */
+        int cached = boxesInts ? getIntCacheSize() : 0;
+        if (boxesInts) {
+            backend.emitGlobalLabel(intCacheLabel);
+            for (int i = 0; i < cached; i += 1) {
+                int value = intCacheMin + i;
+                Label label = constants.intConstants.get(value);
+                if (label != null) {
+                    backend.emitGlobalLabel(label);
+                }
+                /* One line per object keeps the table compact. */
+                backend.emitInsn(String.format(".word %d, %d, %s, %d",
+                                               intClass.getTypeTag(),
+                                               intClass.attributes.size()
+                                               + HEADER_SIZE,
+                                               intClass
+                                               .getDispatchTableLabel(),
+                                               value),
+                                 i == 0 ? "Preallocated int objects" : null);
+            }
+            alignObject();
+        }
+
         for (Map.Entry<Integer, Label> e : constants.intConstants.entrySet()) {
             Integer value = e.getKey();
             Label label = e.getValue();
+            if (value >= intCacheMin && (long) value - intCacheMin < cached) {
+                continue;
+            }
             backend.emitGlobalLabel(label);
             backend.emitWordLiteral(intClass.getTypeTag(),
                                     "Type tag for class: int");
@@ -794,6 +958,109 @@ public abstract class CodeGenBase {
         }
     }
 
+    /** Return true iff values of static type TYPE are pointers to
+     *  objects (or None) rather than raw ints or bools. */
+    protected boolean isPointerType(ValueType type) {
+        return type == null
+            || !(type.equals(Type.INT_TYPE) || type.equals(Type.BOOL_TYPE));
+    }
+
+    /** Emit the state of the collector, the table of global variables
+     *  holding pointers, and the pointer map of each class.  A pointer
+     *  map is the number of attributes followed by one bit per attribute,
+     *  set if it holds a pointer, packed 32 to a word.  The predefined
+     *  classes have no map: the collector knows their layout. */
+    protected void emitCollectorTables() {
+        backend.emitGlobalLabel(gcStackLabel);
+        backend.emitWordLiteral(0, "Base of stack");
+        backend.emitGlobalLabel(gcFreeLabel);
+        backend.emitWordLiteral(0, "First large free chunk");
+        backend.emitGlobalLabel(gcClassesLabel);
+        for (int i = 0; i < GC_SIZE_CLASSES; i += 1) {
+            backend.emitWordLiteral(0, "First free chunk of size " + i);
+        }
+        backend.emitGlobalLabel(gcBitmapLabel);
+        backend.emitWordLiteral(0, "Object-start bitmap");
+        backend.emitGlobalLabel(gcMarksLabel);
+        backend.emitWordLiteral(0, "Mark stack");
+
+        backend.emitGlobalLabel(gcGlobalsLabel);
+        for (GlobalVarInfo global : globalVars) {
+            if (isPointerType(global.getVarType())) {
+                backend.emitWordAddress(global.getLabel(),
+                                        String.format("Global var: %s",
+                                                      global.getVarName()));
+            }
+        }
+        backend.emitWordLiteral(0, "End of global roots");
+
+        ClassInfo[] byTag = new ClassInfo[nextTypeTag];
+        for (ClassInfo classInfo : classes) {
+            if (classInfo.getTypeTag() > strClass.getTypeTag()) {
+                byTag[classInfo.getTypeTag()] = classInfo;
+            }
+        }
+        backend.emitGlobalLabel(gcMapsLabel);
+        for (ClassInfo classInfo : byTag) {
+            if (classInfo == null) {
+                backend.emitWordLiteral(0, "Predefined class");
+            } else {
+                backend.emitWordAddress(classInfo.getPointerMapLabel(),
+                                        String.format("Pointer map: %s",
+                                                      classInfo.getClassName()));
+            }
+        }
+        for (ClassInfo classInfo : byTag) {
+            if (classInfo == null) {
+                continue;
+            }
+            List<AttrInfo> attrs = classInfo.attributes;
+            backend.emitGlobalLabel(classInfo.getPointerMapLabel());
+            backend.emitWordLiteral(attrs.size(), "Number of attributes");
+            for (int i = 0; i < attrs.size(); i += 32) {
+                int bits = 0;
+                for (int j = i; j < attrs.size() && j < i + 32; j += 1) {
+                    if (isPointerType(attrs.get(j).getVarType())) {
+                        bits |= 1 << (j - i);
+                    }
+                }
+                backend.emitWordLiteral(bits, "Attributes holding pointers");
+            }
+        }
+    }
+
+    /** Record that the code of the routine NAME starts at CODE, with its
+     *  counters in the profile table at COUNTERS (null if it has none).
+     *  The code at CODE runs up to that of the next routine recorded.
+     *  Returns COUNTERS. */
+    protected Label addProfileEntry(String name, Label code, Label counters) {
+        profileEntries.add(new ProfileEntry(name, code, counters));
+        return counters;
+    }
+
+    /** Emit the profile table: the number of routines, followed by an
+     *  entry of PROFILE_ENTRY_WORDS words for each, in the order their
+     *  code was emitted.  An entry holds the routine's name as a str, the
+     *  address of its code, and the counters of calls, allocations and
+     *  loop iterations, at offsets PROFILE_CALLS, PROFILE_ALLOCS and
+     *  PROFILE_LOOPS, which the routine's own code increments.  Counters
+     *  of routines without any stay 0.  A simulator attributes each
+     *  instruction executed to the routine whose code contains it. */
+    protected void emitProfileTable() {
+        backend.emitGlobalLabel(profileLabel);
+        backend.emitWordLiteral(profileEntries.size(), "Number of routines");
+        for (ProfileEntry entry : profileEntries) {
+            if (entry.counters != null) {
+                backend.emitGlobalLabel(entry.counters);
+            }
+            backend.emitWordAddress(constants.getStrConstant(entry.name),
+                                    "Routine: " + entry.name);
+            backend.emitWordAddress(entry.code, "Entry point");
+            backend.emitWordLiteral(0, "Calls");
+            backend.emitWordLiteral(0, "Allocations");
+            backend.emitWordLiteral(0, "Loop iterations");
+        }
+    }
 
     /** Emit the method dispatching table for CLASSINFO. */
     protected void emitDispatchTable(ClassInfo classInfo) {
@@ -903,6 +1170,7 @@ public abstract class CodeGenBase {
         if (source == null) {
             throw fatal("Code for %s is missing.", sourceFile);
         }
+        addProfileEntry(label.toString().replace("$", ""), label, null);
         backend.emitGlobalLabel(label);
         backend.emit(convertLiterals(source));
     }
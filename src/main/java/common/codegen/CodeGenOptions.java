@@ -0,0 +1,71 @@
+package common.codegen;
+
+/** Settings controlling the code that code generation produces. */
+public class CodeGenOptions {
+
+    /** Default number of bytes reserved for the heap at startup. */
+    public static final int DEFAULT_HEAP_SIZE = 1024 * 1024 * 4;
+
+    /** Default number of bytes by which a full heap grows. */
+    public static final int DEFAULT_HEAP_GROW = 1024 * 1024 * 4;
+
+    /** Default range of ints whose boxed objects are preallocated. */
+    public static final int
+        DEFAULT_INT_CACHE_MIN = -128,
+        DEFAULT_INT_CACHE_MAX = 1023;
+
+    /** True iff the assembly carries one-line comments explaining the
+     *  generated code.  Turning them off shrinks the output and speeds up
+     *  its emission. */
+    public boolean comments = true;
+
+    /** True iff constant expressions are computed at compile time and
+     *  the generated instructions are run through the peephole optimizer
+     *  before being emitted. */
+    public boolean optimize = true;
+
+    /** Number of bytes the generated program reserves for its heap at
+     *  startup, rounded up to a multiple of 4KB. */
+    public int heapSize = DEFAULT_HEAP_SIZE;
+
+    /** Least number of bytes by which the generated program grows its
+     *  heap when a collection leaves it nearly full, or 0 to keep the
+     *  heap at its initial size. */
+    public int heapGrow = DEFAULT_HEAP_GROW;
+
+    /** Least and greatest ints whose boxed objects are preallocated in
+     *  the data section, so that boxing them allocates nothing.  No ints
+     *  are preallocated if the least exceeds the greatest. */
+    public int intCacheMin = DEFAULT_INT_CACHE_MIN,
+        intCacheMax = DEFAULT_INT_CACHE_MAX;
+
+    /** True iff the generated program counts the calls, allocations and
+     *  loop iterations of each function in a table in its data section
+     *  (see CodeGenBase.emitProfileTable). */
+    public boolean profile = false;
+
+    /** Return a copy of these settings. */
+    public CodeGenOptions copy() {
+        CodeGenOptions result = new CodeGenOptions();
+        result.comments = comments;
+        result.optimize = optimize;
+        result.heapSize = heapSize;
+        result.heapGrow = heapGrow;
+        result.intCacheMin = intCacheMin;
+        result.intCacheMax = intCacheMax;
+        result.profile = profile;
+        return result;
+    }
+
+    /** Return a string identifying these settings, for use in cache keys.
+     *  Settings that yield different output have different keys. */
+    public String key() {
+        return (comments ? "" : "nocomments") + (optimize ? "" : "noopt")
+            + (heapSize == DEFAULT_HEAP_SIZE ? "" : "heap" + heapSize)
+            + (heapGrow == DEFAULT_HEAP_GROW ? "" : "grow" + heapGrow)
+            + (intCacheMin == DEFAULT_INT_CACHE_MIN
+               && intCacheMax == DEFAULT_INT_CACHE_MAX
+               ? "" : "ints" + intCacheMin + ".." + intCacheMax)
+            + (profile ? "profile" : "");
+    }
+}
@@ -0,0 +1,726 @@
+package common.codegen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An in-memory list of RISC-V instructions and assembler directives,
+ * recorded in place of assembly text.
+ *
+ * An InsnBuffer accepts the same emit calls as any RiscVBackend, but
+ * rather than formatting each one it appends an entry to parallel
+ * primitive arrays: an opcode, up to three register operands, an integer
+ * immediate, and references into a pool of labels and strings (symbolic
+ * operands and comments).  Optimization passes may inspect and rewrite the
+ * entries; render then replays them into the backend that produces the
+ * final text.  With a segment handler, the entries can be optimized and
+ * rendered a segment at a time as they are produced, rather than only
+ * once the whole program is in the buffer.
+ */
+public class InsnBuffer extends RiscVBackend {
+
+    /** The kinds of entry.  Unless noted otherwise, an instruction's
+     *  operands are held as for the corresponding RiscVBackend emitter:
+     *  destination in RD, sources in RS1 and RS2, immediate in IMM, and
+     *  label in SYM. */
+    public enum Opcode {
+        /** A deleted entry, which emits nothing. */
+        NOP,
+        /** Verbatim text (SYM). */
+        TEXT,
+        /** Instruction or directive given as text (SYM). */
+        INSN,
+        /** .equiv of symbol SYM to the symbolic value in pool entry IMM. */
+        EQUIV,
+        /** .equiv of symbol SYM to the number IMM. */
+        EQUIV_IMM,
+        /** Local label SYM. */
+        LOCAL_LABEL,
+        /** Global label SYM. */
+        GLOBAL_LABEL,
+        /** .word IMM. */
+        WORD,
+        /** .word holding the address of label SYM. */
+        WORD_ADDR,
+        /** .string with the contents SYM. */
+        STRING,
+        /** Start of data section. */
+        DATA,
+        /** Start of code section. */
+        TEXT_SECTION,
+        /** .align IMM. */
+        ALIGN,
+        ECALL,
+        LA, LI, LUI, MV, JR, J, JAL, JALR,
+        ADDI,
+        /** addi with the symbolic immediate SYM. */
+        ADDI_SYM,
+        ADD, SUB, MUL, DIV, REM, XOR, XORI, AND, ANDI, OR, ORI,
+        SLL, SLLI, SRL, SRLI, SRA, SRAI,
+        /** lw RD, IMM(RS1). */
+        LW,
+        /** lw RD, SYM(RS1), with symbolic offset SYM. */
+        LW_SYM,
+        /** lw RD, SYM, loading from global label SYM. */
+        LW_GLOBAL,
+        /** sw RS2, IMM(RS1). */
+        SW,
+        /** sw RS2, SYM(RS1), with symbolic offset SYM. */
+        SW_SYM,
+        /** sw RS2, SYM, RS1, storing to global label SYM using temporary
+         *  RS1. */
+        SW_GLOBAL,
+        LB, LBU,
+        /** sb RS2, IMM(RS1). */
+        SB,
+        BEQ, BNE, BGE, BGEU, BLT, BLTU,
+        BEQZ, BNEZ, BLTZ, BGTZ, BLEZ, BGEZ,
+        SLT, SEQZ, SNEZ;
+
+        /** All opcodes, indexed by ordinal. */
+        static final Opcode[] VALUES = values();
+    }
+
+    /** All registers, indexed by ordinal. */
+    private static final Register[] REGISTERS = Register.values();
+
+    /** Initial capacity of the entry arrays. */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** Value of an absent register or pool reference. */
+    private static final int NONE = -1;
+
+    /** Number of entries. */
+    private int size;
+
+    /** Opcode ordinal of each entry. */
+    private byte[] ops = new byte[INITIAL_CAPACITY];
+    /** Register ordinals of each entry's operands, or NONE. */
+    private byte[] rd = new byte[INITIAL_CAPACITY],
+        rs1 = new byte[INITIAL_CAPACITY],
+        rs2 = new byte[INITIAL_CAPACITY];
+    /** Immediate operand of each entry. */
+    private int[] imm = new int[INITIAL_CAPACITY];
+    /** Pool indices of each entry's symbolic operand and comment, or
+     *  NONE. */
+    private int[] sym = new int[INITIAL_CAPACITY],
+        comment = new int[INITIAL_CAPACITY];
+
+    /** Labels and strings referred to by entries. */
+    private final List<Object> pool = new ArrayList<>();
+    /** Index in POOL of each distinct object in it. */
+    private final HashMap<Object, Integer> poolIndex = new HashMap<>();
+
+    /** Receiver of each complete segment, or null if there is none. */
+    private Consumer<InsnBuffer> segmentHandler;
+
+    /** Pass me to HANDLER whenever a global label is about to be added,
+     *  which starts a new segment, so that it can optimize and render my
+     *  entries so far and then clear me.  Since no rewrite of the
+     *  PeepholeOptimizer looks across a global label but that of a "j"
+     *  to the label after it, a segment never ends in a "j".  Null stops
+     *  segments being handed over. */
+    public void setSegmentHandler(Consumer<InsnBuffer> handler) {
+        segmentHandler = handler;
+    }
+
+    /** Return the number of entries. */
+    public int size() {
+        return size;
+    }
+
+    /** Return the opcode of entry I. */
+    public Opcode getOpcode(int i) {
+        return Opcode.VALUES[ops[i]];
+    }
+
+    /** Return the destination register of entry I, or null. */
+    public Register getRd(int i) {
+        return register(rd[i]);
+    }
+
+    /** Return the first source register of entry I, or null. */
+    public Register getRs1(int i) {
+        return register(rs1[i]);
+    }
+
+    /** Return the second source register of entry I, or null. */
+    public Register getRs2(int i) {
+        return register(rs2[i]);
+    }
+
+    /** Return the immediate operand of entry I. */
+    public int getImm(int i) {
+        return imm[i];
+    }
+
+    /** Return the label or string operand of entry I, or null. */
+    public Object getSym(int i) {
+        return sym[i] == NONE ? null : pool.get(sym[i]);
+    }
+
+    /** Return the comment on entry I, or null. */
+    public String getComment(int i) {
+        return comment[i] == NONE ? null : (String) pool.get(comment[i]);
+    }
+
+    /** Replace entry I with one having opcode OP, registers RD0, RS10 and
+     *  RS20 (each possibly null), immediate IMM0, symbolic operand SYM0
+     *  and comment COMMENT0 (each possibly null). */
+    public void set(int i, Opcode op, Register rd0, Register rs10,
+                    Register rs20, int imm0, Object sym0, String comment0) {
+        ops[i] = (byte) op.ordinal();
+        rd[i] = ordinal(rd0);
+        rs1[i] = ordinal(rs10);
+        rs2[i] = ordinal(rs20);
+        imm[i] = imm0;
+        sym[i] = intern(sym0);
+        comment[i] = intern(comment0);
+    }
+
+    /** Set the immediate operand of entry I to IMM0. */
+    public void setImm(int i, int imm0) {
+        imm[i] = imm0;
+    }
+
+    /** Delete entry I.  It remains in place as a NOP until the next call
+     *  to compact. */
+    public void delete(int i) {
+        ops[i] = (byte) Opcode.NOP.ordinal();
+    }
+
+    /** Remove all my entries. */
+    public void clear() {
+        size = 0;
+        pool.clear();
+        poolIndex.clear();
+    }
+
+    /** Remove all deleted entries, closing up the gaps. */
+    public void compact() {
+        int n = 0;
+        for (int i = 0; i < size; i += 1) {
+            if (ops[i] != Opcode.NOP.ordinal()) {
+                ops[n] = ops[i];
+                rd[n] = rd[i];
+                rs1[n] = rs1[i];
+                rs2[n] = rs2[i];
+                imm[n] = imm[i];
+                sym[n] = sym[i];
+                comment[n] = comment[i];
+                n += 1;
+            }
+        }
+        size = n;
+    }
+
+    /** Emit all my entries, in order, to BACKEND. */
+    public void render(RiscVBackend backend) {
+        for (int i = 0; i < size; i += 1) {
+            render(i, backend);
+        }
+    }
+
+    /** Emit entry I to BACKEND. */
+    private void render(int i, RiscVBackend backend) {
+        Register d = getRd(i), s1 = getRs1(i), s2 = getRs2(i);
+        int n = imm[i];
+        Object x = getSym(i);
+        String c = getComment(i);
+        switch (getOpcode(i)) {
+        case NOP: break;
+        case TEXT: backend.emit((String) x); break;
+        case INSN: backend.emitInsn((String) x, c); break;
+        case EQUIV: backend.defineSym((String) x, (String) pool.get(n)); break;
+        case EQUIV_IMM: backend.defineSym((String) x, n); break;
+        case LOCAL_LABEL: backend.emitLocalLabel((Label) x, c); break;
+        case GLOBAL_LABEL: backend.emitGlobalLabel((Label) x); break;
+        case WORD: backend.emitWordLiteral(n, c); break;
+        case WORD_ADDR: backend.emitWordAddress((Label) x, c); break;
+        case STRING: backend.emitString((String) x, c); break;
+        case DATA: backend.startData(); break;
+        case TEXT_SECTION: backend.startCode(); break;
+        case ALIGN: backend.alignNext(n); break;
+        case ECALL: backend.emitEcall(c); break;
+        case LA: backend.emitLA(d, (Label) x, c); break;
+        case LI: backend.emitLI(d, n, c); break;
+        case LUI: backend.emitLUI(d, n, c); break;
+        case MV: backend.emitMV(d, s1, c); break;
+        case JR: backend.emitJR(s1, c); break;
+        case J: backend.emitJ((Label) x, c); break;
+        case JAL: backend.emitJAL((Label) x, c); break;
+        case JALR: backend.emitJALR(s1, c); break;
+        case ADDI: backend.emitADDI(d, s1, n, c); break;
+        case ADDI_SYM: backend.emitADDI(d, s1, (String) x, c); break;
+        case ADD: backend.emitADD(d, s1, s2, c); break;
+        case SUB: backend.emitSUB(d, s1, s2, c); break;
+        case MUL: backend.emitMUL(d, s1, s2, c); break;
+        case DIV: backend.emitDIV(d, s1, s2, c); break;
+        case REM: backend.emitREM(d, s1, s2, c); break;
+        case XOR: backend.emitXOR(d, s1, s2, c); break;
+        case XORI: backend.emitXORI(d, s1, n, c); break;
+        case AND: backend.emitAND(d, s1, s2, c); break;
+        case ANDI: backend.emitANDI(d, s1, n, c); break;
+        case OR: backend.emitOR(d, s1, s2, c); break;
+        case ORI: backend.emitORI(d, s1, n, c); break;
+        case SLL: backend.emitSLL(d, s1, s2, c); break;
+        case SLLI: backend.emitSLLI(d, s1, n, c); break;
+        case SRL: backend.emitSRL(d, s1, s2, c); break;
+        case SRLI: backend.emitSRLI(d, s1, n, c); break;
+        case SRA: backend.emitSRA(d, s1, s2, c); break;
+        case SRAI: backend.emitSRAI(d, s1, n, c); break;
+        case LW: backend.emitLW(d, s1, n, c); break;
+        case LW_SYM: backend.emitLW(d, s1, (String) x, c); break;
+        case LW_GLOBAL: backend.emitLW(d, (Label) x, c); break;
+        case SW: backend.emitSW(s2, s1, n, c); break;
+        case SW_SYM: backend.emitSW(s2, s1, (String) x, c); break;
+        case SW_GLOBAL: backend.emitSW(s2, (Label) x, s1, c); break;
+        case LB: backend.emitLB(d, s1, n, c); break;
+        case LBU: backend.emitLBU(d, s1, n, c); break;
+        case SB: backend.emitSB(s2, s1, n, c); break;
+        case BEQ: backend.emitBEQ(s1, s2, (Label) x, c); break;
+        case BNE: backend.emitBNE(s1, s2, (Label) x, c); break;
+        case BGE: backend.emitBGE(s1, s2, (Label) x, c); break;
+        case BGEU: backend.emitBGEU(s1, s2, (Label) x, c); break;
+        case BLT: backend.emitBLT(s1, s2, (Label) x, c); break;
+        case BLTU: backend.emitBLTU(s1, s2, (Label) x, c); break;
+        case BEQZ: backend.emitBEQZ(s1, (Label) x, c); break;
+        case BNEZ: backend.emitBNEZ(s1, (Label) x, c); break;
+        case BLTZ: backend.emitBLTZ(s1, (Label) x, c); break;
+        case BGTZ: backend.emitBGTZ(s1, (Label) x, c); break;
+        case BLEZ: backend.emitBLEZ(s1, (Label) x, c); break;
+        case BGEZ: backend.emitBGEZ(s1, (Label) x, c); break;
+        case SLT: backend.emitSLT(d, s1, s2, c); break;
+        case SEQZ: backend.emitSEQZ(d, s1, c); break;
+        case SNEZ: backend.emitSNEZ(d, s1, c); break;
+        default:
+            throw new IllegalStateException("unknown opcode " + getOpcode(i));
+        }
+    }
+
+    /** Append an entry with opcode OP, registers RD0, RS10 and RS20 (each
+     *  possibly null), immediate IMM0, symbolic operand SYM0 and comment
+     *  COMMENT0 (each possibly null). */
+    private void add(Opcode op, Register rd0, Register rs10, Register rs20,
+                     int imm0, Object sym0, String comment0) {
+        if (size == ops.length) {
+            int capacity = 2 * size;
+            ops = Arrays.copyOf(ops, capacity);
+            rd = Arrays.copyOf(rd, capacity);
+            rs1 = Arrays.copyOf(rs1, capacity);
+            rs2 = Arrays.copyOf(rs2, capacity);
+            imm = Arrays.copyOf(imm, capacity);
+            sym = Arrays.copyOf(sym, capacity);
+            comment = Arrays.copyOf(comment, capacity);
+        }
+        ops[size] = (byte) op.ordinal();
+        rd[size] = ordinal(rd0);
+        rs1[size] = ordinal(rs10);
+        rs2[size] = ordinal(rs20);
+        imm[size] = imm0;
+        sym[size] = intern(sym0);
+        comment[size] = intern(comment0);
+        size += 1;
+    }
+
+    /** Return the index of X in the pool, adding it if needed, or NONE if
+     *  X is null. */
+    private int intern(Object x) {
+        if (x == null) {
+            return NONE;
+        }
+        Integer index = poolIndex.get(x);
+        if (index == null) {
+            index = pool.size();
+            pool.add(x);
+            poolIndex.put(x, index);
+        }
+        return index;
+    }
+
+    /** Return the encoding of REG, which may be null. */
+    private static byte ordinal(Register reg) {
+        return reg == null ? NONE : (byte) reg.ordinal();
+    }
+
+    /** Return the register encoded as ORDINAL, or null. */
+    private static Register register(byte ordinal) {
+        return ordinal == NONE ? null : REGISTERS[ordinal];
+    }
+
+    @Override
+    public String toString() {
+        RiscVBackend text = new RiscVBackend();
+        render(text);
+        return text.toString();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    protected void emit(String str) {
+        add(Opcode.TEXT, null, null, null, 0, str, null);
+    }
+
+    @Override
+    public void emitInsn(String insn, String comment) {
+        add(Opcode.INSN, null, null, null, 0, insn, comment);
+    }
+
+    @Override
+    public void defineSym(String name, String value) {
+        add(Opcode.EQUIV, null, null, null, intern(value), name, null);
+    }
+
+    @Override
+    public void defineSym(String name, int value) {
+        add(Opcode.EQUIV_IMM, null, null, null, value, name, null);
+    }
+
+    @Override
+    public void emitLocalLabel(Label label, String comment) {
+        add(Opcode.LOCAL_LABEL, null, null, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitGlobalLabel(Label label) {
+        if (segmentHandler != null && size > 0
+            && getOpcode(size - 1) != Opcode.J) {
+            segmentHandler.accept(this);
+        }
+        add(Opcode.GLOBAL_LABEL, null, null, null, 0, label, null);
+    }
+
+    @Override
+    public void emitWordLiteral(Integer value, String comment) {
+        add(Opcode.WORD, null, null, null, value, null, comment);
+    }
+
+    @Override
+    public void emitWordAddress(Label addr, String comment) {
+        if (addr == null) {
+            emitWordLiteral(0, comment);
+        } else {
+            add(Opcode.WORD_ADDR, null, null, null, 0, addr, comment);
+        }
+    }
+
+    @Override
+    public void emitString(String value, String comment) {
+        add(Opcode.STRING, null, null, null, 0, value, comment);
+    }
+
+    @Override
+    public void startData() {
+        add(Opcode.DATA, null, null, null, 0, null, null);
+    }
+
+    @Override
+    public void startCode() {
+        add(Opcode.TEXT_SECTION, null, null, null, 0, null, null);
+    }
+
+    @Override
+    public void alignNext(int pow) {
+        add(Opcode.ALIGN, null, null, null, pow, null, null);
+    }
+
+    @Override
+    public void emitEcall(String comment) {
+        add(Opcode.ECALL, null, null, null, 0, null, comment);
+    }
+
+    @Override
+    public void emitLA(Register rd, Label label, String comment) {
+        add(Opcode.LA, rd, null, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitLI(Register rd, Integer imm, String comment) {
+        add(Opcode.LI, rd, null, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitLUI(Register rd, Integer imm, String comment) {
+        add(Opcode.LUI, rd, null, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitMV(Register rd, Register rs, String comment) {
+        add(Opcode.MV, rd, rs, null, 0, null, comment);
+    }
+
+    @Override
+    public void emitJR(Register rs, String comment) {
+        add(Opcode.JR, null, rs, null, 0, null, comment);
+    }
+
+    @Override
+    public void emitJ(Label label, String comment) {
+        add(Opcode.J, null, null, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitJAL(Label label, String comment) {
+        add(Opcode.JAL, null, null, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitJALR(Register rs, String comment) {
+        add(Opcode.JALR, null, rs, null, 0, null, comment);
+    }
+
+    @Override
+    public void emitADDI(Register rd, Register rs, Integer imm,
+                         String comment) {
+        add(Opcode.ADDI, rd, rs, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitADDI(Register rd, Register rs, String imm,
+                         String comment) {
+        add(Opcode.ADDI_SYM, rd, rs, null, 0, imm, comment);
+    }
+
+    @Override
+    public void emitADD(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.ADD, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitSUB(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.SUB, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitMUL(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.MUL, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitDIV(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.DIV, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitREM(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.REM, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitXOR(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.XOR, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitXORI(Register rd, Register rs, Integer imm,
+                         String comment) {
+        add(Opcode.XORI, rd, rs, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitAND(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.AND, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitANDI(Register rd, Register rs, Integer imm,
+                         String comment) {
+        add(Opcode.ANDI, rd, rs, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitOR(Register rd, Register rs1, Register rs2,
+                       String comment) {
+        add(Opcode.OR, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitORI(Register rd, Register rs, Integer imm,
+                        String comment) {
+        add(Opcode.ORI, rd, rs, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitSLL(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.SLL, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitSLLI(Register rd, Register rs, Integer imm,
+                         String comment) {
+        add(Opcode.SLLI, rd, rs, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitSRL(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.SRL, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitSRLI(Register rd, Register rs, Integer imm,
+                         String comment) {
+        add(Opcode.SRLI, rd, rs, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitSRA(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.SRA, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitSRAI(Register rd, Register rs, Integer imm,
+                         String comment) {
+        add(Opcode.SRAI, rd, rs, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitLW(Register rd, Register rs, Integer imm,
+                       String comment) {
+        add(Opcode.LW, rd, rs, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitLW(Register rd, Register rs, String imm,
+                       String comment) {
+        add(Opcode.LW_SYM, rd, rs, null, 0, imm, comment);
+    }
+
+    @Override
+    public void emitSW(Register rs2, Register rs1, Integer imm,
+                       String comment) {
+        add(Opcode.SW, null, rs1, rs2, imm, null, comment);
+    }
+
+    @Override
+    public void emitSW(Register rs2, Register rs1, String imm,
+                       String comment) {
+        add(Opcode.SW_SYM, null, rs1, rs2, 0, imm, comment);
+    }
+
+    @Override
+    public void emitLW(Register rd, Label label, String comment) {
+        add(Opcode.LW_GLOBAL, rd, null, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitSW(Register rs, Label label, Register tmp,
+                       String comment) {
+        add(Opcode.SW_GLOBAL, null, tmp, rs, 0, label, comment);
+    }
+
+    @Override
+    public void emitLB(Register rd, Register rs, Integer imm,
+                       String comment) {
+        add(Opcode.LB, rd, rs, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitLBU(Register rd, Register rs, Integer imm,
+                        String comment) {
+        add(Opcode.LBU, rd, rs, null, imm, null, comment);
+    }
+
+    @Override
+    public void emitSB(Register rs2, Register rs1, Integer imm,
+                       String comment) {
+        add(Opcode.SB, null, rs1, rs2, imm, null, comment);
+    }
+
+    @Override
+    public void emitBEQ(Register rs1, Register rs2, Label label,
+                        String comment) {
+        add(Opcode.BEQ, null, rs1, rs2, 0, label, comment);
+    }
+
+    @Override
+    public void emitBNE(Register rs1, Register rs2, Label label,
+                        String comment) {
+        add(Opcode.BNE, null, rs1, rs2, 0, label, comment);
+    }
+
+    @Override
+    public void emitBGE(Register rs1, Register rs2, Label label,
+                        String comment) {
+        add(Opcode.BGE, null, rs1, rs2, 0, label, comment);
+    }
+
+    @Override
+    public void emitBGEU(Register rs1, Register rs2, Label label,
+                         String comment) {
+        add(Opcode.BGEU, null, rs1, rs2, 0, label, comment);
+    }
+
+    @Override
+    public void emitBLT(Register rs1, Register rs2, Label label,
+                        String comment) {
+        add(Opcode.BLT, null, rs1, rs2, 0, label, comment);
+    }
+
+    @Override
+    public void emitBLTU(Register rs1, Register rs2, Label label,
+                         String comment) {
+        add(Opcode.BLTU, null, rs1, rs2, 0, label, comment);
+    }
+
+    @Override
+    public void emitBEQZ(Register rs, Label label, String comment) {
+        add(Opcode.BEQZ, null, rs, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitBNEZ(Register rs, Label label, String comment) {
+        add(Opcode.BNEZ, null, rs, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitBLTZ(Register rs, Label label, String comment) {
+        add(Opcode.BLTZ, null, rs, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitBGTZ(Register rs, Label label, String comment) {
+        add(Opcode.BGTZ, null, rs, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitBLEZ(Register rs, Label label, String comment) {
+        add(Opcode.BLEZ, null, rs, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitBGEZ(Register rs, Label label, String comment) {
+        add(Opcode.BGEZ, null, rs, null, 0, label, comment);
+    }
+
+    @Override
+    public void emitSLT(Register rd, Register rs1, Register rs2,
+                        String comment) {
+        add(Opcode.SLT, rd, rs1, rs2, 0, null, comment);
+    }
+
+    @Override
+    public void emitSEQZ(Register rd, Register rs, String comment) {
+        add(Opcode.SEQZ, rd, rs, null, 0, null, comment);
+    }
+
+    @Override
+    public void emitSNEZ(Register rd, Register rs, String comment) {
+        add(Opcode.SNEZ, rd, rs, null, 0, null, comment);
+    }
+}
@@ -0,0 +1,503 @@
+package common.codegen;
+
+import common.codegen.InsnBuffer.Opcode;
+import common.codegen.RiscVBackend.Register;
+
+import static common.codegen.RiscVBackend.Register.FP;
+import static common.codegen.RiscVBackend.Register.SP;
+import static common.codegen.RiscVBackend.Register.ZERO;
+
+/**
+ * A peephole optimizer that rewrites the straight-line code in an
+ * InsnBuffer, removing the redundancy left by simple-minded code
+ * generation:
+ *
+ *   - A load from a memory slot just stored to becomes a move from the
+ *     stored register (or disappears, if the registers are the same).
+ *     When the stored register is overwritten before the load, the store
+ *     becomes a move to the loading register and is delayed until the
+ *     load, whose register then already holds the value.
+ *   - A store to a stack slot that is popped before anything can read it
+ *     disappears.
+ *   - Adjustments "addi r, r, k" to the same register are combined when
+ *     nothing between them uses that register.
+ *   - Moves of a register to itself disappear, as does a move "mv y, x"
+ *     that follows "mv x, y" while both registers are unchanged, such as
+ *     that of a call's result back to A0 to return it.
+ *   - A move or constant load into a register that the next instruction
+ *     overwrites without reading disappears, such as the copy of a call's
+ *     result whose value is not used.
+ *   - A "beqz" or "bnez" testing a register just loaded with a constant
+ *     becomes a "j" if it is taken and disappears if not, as do the
+ *     division checks of constant divisors.
+ *   - Instructions that follow a "j" or "jr" before the next label can
+ *     never run and disappear, as does a jump to a label that
+ *     immediately follows it.
+ *
+ * The rewrites never look across labels, branches, calls or verbatim
+ * text, so they rely only on the code between two such points.  They
+ * assume that stack memory is addressed only relative to SP or FP, and
+ * that nothing reads memory below SP without first writing it.  They are
+ * repeated until none applies.
+ */
+public class PeepholeOptimizer {
+
+    /** Maximum number of entries searched forward from any instruction. */
+    private static final int WINDOW = 32;
+
+    /** Maximum number of times all rewrites are applied. */
+    private static final int MAX_ROUNDS = 8;
+
+    /** The code being optimized. */
+    private final InsnBuffer insns;
+
+    /** Number of instructions removed so far. */
+    private int removed;
+
+    /** An optimizer for INSNS. */
+    public PeepholeOptimizer(InsnBuffer insns) {
+        this.insns = insns;
+    }
+
+    /** Optimize INSNS in place, returning the number of instructions
+     *  removed. */
+    public static int optimize(InsnBuffer insns) {
+        return new PeepholeOptimizer(insns).optimize();
+    }
+
+    /** Optimize my instructions in place, returning the number
+     *  removed. */
+    public int optimize() {
+        for (int round = 0; round < MAX_ROUNDS; round += 1) {
+            int before = removed;
+            boolean changed = false;
+            for (int i = 0; i < insns.size(); i += 1) {
+                changed |= rewrite(i);
+            }
+            insns.compact();
+            if (!changed && removed == before) {
+                break;
+            }
+        }
+        return removed;
+    }
+
+    /** Apply whichever rewrite fits the instruction at I, returning true
+     *  iff anything changed. */
+    private boolean rewrite(int i) {
+        switch (insns.getOpcode(i)) {
+        case MV:
+            if (insns.getRd(i) == insns.getRs1(i)) {
+                delete(i);
+                return true;
+            }
+            return removeDeadWrite(i) || removeMoveBack(i);
+        case LI:
+            return foldConstantBranch(i) || removeDeadWrite(i);
+        case LA: case LUI:
+            return removeDeadWrite(i);
+        case ADD:
+            return simplifyAdd(i);
+        case ADDI:
+            if (insns.getRd(i) == insns.getRs1(i)) {
+                return insns.getImm(i) == 0 ? delete(i) : foldAdjustment(i);
+            }
+            return false;
+        case SW:
+            return (forwardStore(i) || sinkStore(i)) | removeDeadPush(i);
+        case J:
+            return removeUnreachable(i) | removeJumpToNext(i);
+        case JR:
+            return removeUnreachable(i);
+        default:
+            return false;
+        }
+    }
+
+    /** Rewrite "add rd, rs, zero" (or "add rd, zero, rs") at I as a move,
+     *  or delete it if RD and RS are the same.  Return true iff changed. */
+    private boolean simplifyAdd(int i) {
+        Register rd = insns.getRd(i), rs;
+        if (insns.getRs2(i) == ZERO) {
+            rs = insns.getRs1(i);
+        } else if (insns.getRs1(i) == ZERO) {
+            rs = insns.getRs2(i);
+        } else {
+            return false;
+        }
+        if (rd == rs) {
+            return delete(i);
+        }
+        insns.set(i, Opcode.MV, rd, rs, null, 0, null, insns.getComment(i));
+        return true;
+    }
+
+    /** Combine the adjustment "addi r, r, k" at I with the next
+     *  adjustment of the same register, provided no instruction between
+     *  them refers to the register.  Return true iff changed. */
+    private boolean foldAdjustment(int i) {
+        Register reg = insns.getRd(i);
+        for (int j = i + 1; j < insns.size() && j <= i + WINDOW; j += 1) {
+            Opcode op = insns.getOpcode(j);
+            if (op == Opcode.NOP) {
+                continue;
+            }
+            if (op == Opcode.ADDI && insns.getRd(j) == reg
+                && insns.getRs1(j) == reg) {
+                int sum = insns.getImm(i) + insns.getImm(j);
+                if (sum < -2048 || sum > 2047) {
+                    return false;
+                }
+                delete(i);
+                if (sum == 0) {
+                    delete(j);
+                } else {
+                    insns.setImm(j, sum);
+                }
+                return true;
+            }
+            if (isBarrier(op) || mentions(j, reg)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** Replace loads from the slot stored to by the "sw" at I with moves
+     *  from the stored register, for as long as both the slot and that
+     *  register are known to be unchanged.  Return true iff changed. */
+    private boolean forwardStore(int i) {
+        Register value = insns.getRs2(i), base = insns.getRs1(i);
+        int offset = insns.getImm(i);
+        boolean changed = false;
+        for (int j = i + 1; j < insns.size() && j <= i + WINDOW; j += 1) {
+            Opcode op = insns.getOpcode(j);
+            if (op == Opcode.NOP) {
+                continue;
+            }
+            if (isBarrier(op)) {
+                break;
+            }
+            Register rd = insns.getRd(j);
+            if (op == Opcode.LW && insns.getRs1(j) == base
+                && insns.getImm(j) == offset) {
+                if (rd == value) {
+                    delete(j);
+                } else {
+                    insns.set(j, Opcode.MV, rd, value, null, 0, null,
+                              insns.getComment(j));
+                }
+                changed = true;
+                if (rd == base) {
+                    break;
+                }
+                continue;
+            }
+            if (op == Opcode.ADDI && rd == base && insns.getRs1(j) == base
+                && value != base) {
+                offset -= insns.getImm(j);
+                continue;
+            }
+            if (isStore(op) && mayAlias(j, base, offset)) {
+                break;
+            }
+            if (writes(j, value) || writes(j, base)) {
+                break;
+            }
+        }
+        return changed;
+    }
+
+    /** Where the "sw x, off(b)" at I is followed by a load "lw y, off(b)"
+     *  of the same slot, replace the store with "mv y, x" and the load
+     *  with "sw y, off(b)", provided nothing between them refers to Y or
+     *  accesses the slot.  This moves the value through a register when
+     *  X itself does not survive until the load.  Return true iff
+     *  changed. */
+    private boolean sinkStore(int i) {
+        Register value = insns.getRs2(i), base = insns.getRs1(i);
+        int offset = insns.getImm(i);
+        for (int j = i + 1; j < insns.size() && j <= i + WINDOW; j += 1) {
+            Opcode op = insns.getOpcode(j);
+            if (op == Opcode.NOP) {
+                continue;
+            }
+            if (isBarrier(op)) {
+                return false;
+            }
+            if (op == Opcode.LW && insns.getRs1(j) == base
+                && insns.getImm(j) == offset) {
+                Register target = insns.getRd(j);
+                if (target == base || target == value
+                    || mentionedBetween(i, j, target)) {
+                    return false;
+                }
+                String comment = insns.getComment(i);
+                insns.set(i, Opcode.MV, target, value, null, 0, null,
+                          insns.getComment(j));
+                insns.set(j, Opcode.SW, null, base, target, offset, null,
+                          comment);
+                return true;
+            }
+            if (op == Opcode.ADDI && insns.getRd(j) == base
+                && insns.getRs1(j) == base) {
+                offset -= insns.getImm(j);
+                continue;
+            }
+            if ((isLoad(op) || isStore(op)) && mayAlias(j, base, offset)) {
+                return false;
+            }
+            if (writes(j, base)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** Delete the store at I if it is to a stack slot that is below the
+     *  stack pointer, or is popped, before anything can read it.  Nothing
+     *  reads memory below the stack pointer without first writing it.
+     *  Return true iff changed. */
+    private boolean removeDeadPush(int i) {
+        if (insns.getOpcode(i) != Opcode.SW || insns.getRs1(i) != SP) {
+            return false;
+        }
+        int offset = insns.getImm(i);
+        for (int j = i + 1; j < insns.size() && j <= i + WINDOW; j += 1) {
+            Opcode op = insns.getOpcode(j);
+            if (op == Opcode.NOP) {
+                continue;
+            }
+            if (isBarrier(op)) {
+                return offset + 4 <= 0 && delete(i);
+            }
+            if (op == Opcode.ADDI && insns.getRd(j) == SP
+                && insns.getRs1(j) == SP) {
+                offset -= insns.getImm(j);
+                continue;
+            }
+            if (writes(j, SP)) {
+                return false;
+            }
+            if (isLoad(op) && mayAlias(j, SP, offset)) {
+                return false;
+            }
+            if ((op == Opcode.SW || op == Opcode.SB) && insns.getRs1(j) == SP
+                && insns.getImm(j) <= offset
+                && insns.getImm(j) + size(op) >= offset + 4) {
+                return delete(i);
+            }
+        }
+        return false;
+    }
+
+    /** Delete each "mv y, x" following the "mv x, y" at I, for as long as
+     *  neither X nor Y is known to have changed.  Return true iff
+     *  changed. */
+    private boolean removeMoveBack(int i) {
+        Register x = insns.getRd(i), y = insns.getRs1(i);
+        boolean changed = false;
+        for (int j = i + 1; j < insns.size() && j <= i + WINDOW; j += 1) {
+            Opcode op = insns.getOpcode(j);
+            if (op == Opcode.NOP) {
+                continue;
+            }
+            if (isBarrier(op)) {
+                break;
+            }
+            if (op == Opcode.MV && insns.getRd(j) == y
+                && insns.getRs1(j) == x) {
+                changed = delete(j);
+                continue;
+            }
+            if (writes(j, x) || writes(j, y)) {
+                break;
+            }
+        }
+        return changed;
+    }
+
+    /** Delete the instruction at I, which only sets its destination
+     *  register, if the next instruction sets that register without
+     *  reading it.  Return true iff changed. */
+    private boolean removeDeadWrite(int i) {
+        Register reg = insns.getRd(i);
+        if (reg == ZERO) {
+            return false;
+        }
+        int j = next(i);
+        if (j == insns.size() || isBarrier(insns.getOpcode(j))
+            || insns.getRs1(j) == reg || insns.getRs2(j) == reg) {
+            return false;
+        }
+        return writes(j, reg) && delete(i);
+    }
+
+    /** Where the "li r, k" at I is followed by "beqz r, L" or "bnez r, L",
+     *  replace the branch with "j L" if it is always taken, and otherwise
+     *  delete it.  Return true iff changed. */
+    private boolean foldConstantBranch(int i) {
+        int j = next(i);
+        if (j == insns.size()) {
+            return false;
+        }
+        Opcode op = insns.getOpcode(j);
+        if ((op != Opcode.BEQZ && op != Opcode.BNEZ)
+            || insns.getRs1(j) != insns.getRd(i)) {
+            return false;
+        }
+        if ((insns.getImm(i) == 0) == (op == Opcode.BEQZ)) {
+            insns.set(j, Opcode.J, null, null, null, 0, insns.getSym(j),
+                      insns.getComment(j));
+            return true;
+        }
+        return delete(j);
+    }
+
+    /** Delete the instructions that follow the "j" or "jr" at I up to the
+     *  next label, which nothing can reach.  Labels, directives and
+     *  verbatim text end the search.  Return true iff changed. */
+    private boolean removeUnreachable(int i) {
+        boolean changed = false;
+        for (int j = i + 1; j < insns.size(); j += 1) {
+            Opcode op = insns.getOpcode(j);
+            if (op == Opcode.NOP) {
+                continue;
+            }
+            if (!isInstruction(op)) {
+                break;
+            }
+            changed = delete(j);
+        }
+        return changed;
+    }
+
+    /** Return the index of the first entry after I that is not deleted,
+     *  or the number of entries if there is none. */
+    private int next(int i) {
+        int j = i + 1;
+        while (j < insns.size() && insns.getOpcode(j) == Opcode.NOP) {
+            j += 1;
+        }
+        return j;
+    }
+
+    /** Delete the "j" at I if its target label follows it with only other
+     *  labels in between.  Return true iff changed. */
+    private boolean removeJumpToNext(int i) {
+        Object target = insns.getSym(i);
+        for (int j = i + 1; j < insns.size(); j += 1) {
+            Opcode op = insns.getOpcode(j);
+            if (op == Opcode.NOP) {
+                continue;
+            }
+            if (op != Opcode.LOCAL_LABEL && op != Opcode.GLOBAL_LABEL) {
+                return false;
+            }
+            if (target.equals(insns.getSym(j))) {
+                return delete(i);
+            }
+        }
+        return false;
+    }
+
+    /** Delete the instruction at I, returning true. */
+    private boolean delete(int i) {
+        insns.delete(i);
+        removed += 1;
+        return true;
+    }
+
+    /** Return true iff the load or store at J may access any byte of the
+     *  word at OFFSET from BASE. */
+    private boolean mayAlias(int j, Register base, int offset) {
+        Opcode op = insns.getOpcode(j);
+        boolean stack = base == SP || base == FP;
+        if (op == Opcode.LW_GLOBAL || op == Opcode.SW_GLOBAL) {
+            return !stack;
+        }
+        Register other = insns.getRs1(j);
+        if (other == base) {
+            if (op == Opcode.LW_SYM || op == Opcode.SW_SYM) {
+                return true;
+            }
+            int start = insns.getImm(j);
+            return start < offset + 4 && offset < start + size(op);
+        }
+        return !stack || other == SP || other == FP;
+    }
+
+    /** Return true iff entry J refers to REG. */
+    private boolean mentions(int j, Register reg) {
+        return insns.getRd(j) == reg || insns.getRs1(j) == reg
+            || insns.getRs2(j) == reg;
+    }
+
+    /** Return true iff any entry strictly between I and J refers to
+     *  REG. */
+    private boolean mentionedBetween(int i, int j, Register reg) {
+        for (int k = i + 1; k < j; k += 1) {
+            if (insns.getOpcode(k) != Opcode.NOP && mentions(k, reg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff the instruction at J may change REG. */
+    private boolean writes(int j, Register reg) {
+        Opcode op = insns.getOpcode(j);
+        if (op == Opcode.SW_GLOBAL) {
+            return insns.getRs1(j) == reg;
+        }
+        return !isStore(op) && insns.getRd(j) == reg;
+    }
+
+    /** Return true iff code may not be moved or rewritten across an entry
+     *  with opcode OP: labels, control transfers, system calls, and
+     *  anything given as text. */
+    private static boolean isBarrier(Opcode op) {
+        switch (op) {
+        case LA: case LI: case LUI: case MV:
+        case ADDI: case ADDI_SYM: case ADD: case SUB: case MUL: case DIV:
+        case REM: case XOR: case XORI: case AND: case ANDI: case OR:
+        case ORI: case SLL: case SLLI: case SRL: case SRLI: case SRA:
+        case SRAI: case SLT: case SEQZ: case SNEZ:
+        case LW: case LW_SYM: case LW_GLOBAL: case LB: case LBU:
+        case SW: case SW_SYM: case SW_GLOBAL: case SB:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    /** Return true iff OP is a machine instruction, rather than a label,
+     *  a directive, or text. */
+    private static boolean isInstruction(Opcode op) {
+        switch (op) {
+        case NOP: case TEXT: case INSN: case EQUIV: case EQUIV_IMM:
+        case LOCAL_LABEL: case GLOBAL_LABEL: case WORD: case WORD_ADDR:
+        case STRING: case DATA: case TEXT_SECTION: case ALIGN:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    /** Return true iff OP loads from memory. */
+    private static boolean isLoad(Opcode op) {
+        return op == Opcode.LW || op == Opcode.LW_SYM
+            || op == Opcode.LW_GLOBAL || op == Opcode.LB || op == Opcode.LBU;
+    }
+
+    /** Return true iff OP stores to memory. */
+    private static boolean isStore(Opcode op) {
+        return op == Opcode.SW || op == Opcode.SW_SYM
+            || op == Opcode.SW_GLOBAL || op == Opcode.SB;
+    }
+
+    /** Return the number of bytes accessed by load or store opcode OP. */
+    private static int size(Opcode op) {
+        return op == Opcode.SB || op == Opcode.LB || op == Opcode.LBU ? 1 : 4;
+    }
+}
@@ -1,20 +1,63 @@
 package common.codegen;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
 
 /** RISC V assembly-language generation utilities. */
 public class RiscVBackend {
 
-    /** Accumulator for assembly code output. */
-    protected final StringWriter asmText = new StringWriter();
+    /** Size in characters of the buffer used when streaming output. */
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    /** Accumulator for assembly code output, or null if the output is
+     *  streamed to a Writer instead. */
+    protected final StringWriter asmText;
 
     /** Allows print, println, and printf of assmebly code. */
-    private final PrintWriter out = new PrintWriter(asmText);
+    private final PrintWriter out;
+
+    /** A backend that accumulates its output, which is then available
+     *  from toString(). */
+    public RiscVBackend() {
+        asmText = new StringWriter();
+        out = new PrintWriter(asmText);
+    }
+
+    /** A backend that streams its output to SINK through a buffer, so that
+     *  the assembly code is never held in memory as a whole.  The output
+     *  is complete only after flush(). */
+    public RiscVBackend(Writer sink) {
+        asmText = null;
+        out = new PrintWriter(sink instanceof BufferedWriter ? sink
+                              : new BufferedWriter(sink, STREAM_BUFFER_SIZE));
+    }
 
     /** The word size in bytes for RISC-V 32-bit. */
     protected static final int WORD_SIZE = 4;
 
+    /** Column at which one-line comments start, unless the text before
+     *  them extends past it. */
+    private static final int COMMENT_COLUMN = 42;
+
+    /** True iff one-line comments are emitted. */
+    private boolean emitComments = true;
+
+    /** The line being formatted.  Lines are assembled here and written
+     *  directly to OUT, so that emitting an instruction allocates
+     *  nothing. */
+    private char[] line = new char[128];
+
+    /** Number of characters in LINE. */
+    private int lineLength;
+
+    /** True iff no operand has yet been added to the instruction in
+     *  LINE. */
+    private boolean firstOperand;
+
     /** The RISC-V registers. */
     public enum Register {
 
@@ -40,11 +83,36 @@ public class RiscVBackend {
 
     }
 
+    /** Return the assembly code emitted so far.  Not available when the
+     *  output is streamed. */
     @Override
     public String toString() {
+        if (asmText == null) {
+            throw new IllegalStateException("assembly output was streamed");
+        }
         return asmText.toString();
     }
 
+    /** Write any buffered output through to the underlying Writer.  Throws
+     *  IOException if any write to it has failed. */
+    public void flush() throws IOException {
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("error writing assembly output");
+        }
+    }
+
+
+    /** Emit one-line comments iff EMITCOMMENTS.  They are emitted by
+     *  default. */
+    public void setEmitComments(boolean emitComments) {
+        this.emitComments = emitComments;
+    }
+
+    /** Return true iff one-line comments are emitted. */
+    public boolean getEmitComments() {
+        return emitComments;
+    }
 
     /** Define @NAME to have the value VALUE.  Here, NAME is assumed to be
      *  an identifier consisting of letters, digits, underscores, and any of
@@ -52,18 +120,18 @@ public class RiscVBackend {
      *  may be a numeral or another symbol.
      */
     public void defineSym(String name, String value) {
-        if (name.startsWith("@")) {
-            emitInsn(String.format(".equiv %s, %s", name, value), null);
-        } else {
-            emitInsn(String.format(".equiv @%s, %s", name, value), null);
-        }
+        startEquiv(name);
+        operand(value);
+        endLine(null);
     }
 
     /** Define @NAME to have the value VALUE, where value is converted to
      *  a string.  See {@link #defineSym(java.lang.String, java.lang.String)}.
      */
     public void defineSym(String name, int value) {
-        defineSym(name, Integer.toString(value));
+        startEquiv(name);
+        operand(value);
+        endLine(null);
     }
 
     /**
@@ -90,18 +158,15 @@ public class RiscVBackend {
      * comment, if non-null.
      */
     public void emitInsn(String insn, String comment) {
-        if (comment != null) {
-            emit(String.format("  %-40s # %s", insn, comment));
-        } else {
-            emitInsn(insn);
-        }
+        startInsn(insn);
+        endLine(comment);
     }
 
     /**
      * Emit instruction or directive INSN without a comment.
      */
     protected void emitInsn(String insn) {
-        emit(String.format("  %s", insn));
+        emitInsn(insn, null);
     }
 
     /**
@@ -109,11 +174,10 @@ public class RiscVBackend {
      * if missing).  Invoke only once per unique label.
      */
     public void emitLocalLabel(Label label, String comment) {
-        if (comment != null) {
-            emit(String.format("%-42s # %s", label + ":", comment));
-        } else {
-            emit(String.format("%s:", label + ":"));
-        }
+        lineLength = 0;
+        append(label.toString());
+        append(':');
+        endLine(comment);
     }
 
     /**
@@ -121,8 +185,13 @@ public class RiscVBackend {
      * unique label.
      */
     public void emitGlobalLabel(Label label) {
-        emit(String.format("\n.globl %s", label));
-        emit(String.format("%s:", label));
+        lineLength = 0;
+        append("\n.globl ");
+        append(label.toString());
+        endLine(null);
+        append(label.toString());
+        append(':');
+        endLine(null);
     }
 
     /**
@@ -130,7 +199,9 @@ public class RiscVBackend {
      * a emitted as a one-line comment, if non-null.
      */
     public void emitWordLiteral(Integer value, String comment) {
-        emitInsn(String.format(".word %s", value), comment);
+        startInsn(".word");
+        operand(value);
+        endLine(comment);
     }
 
     /**
@@ -141,7 +212,9 @@ public class RiscVBackend {
         if (addr == null) {
             emitWordLiteral(0, comment);
         } else {
-            emitInsn(String.format(".word %s", addr), comment);
+            startInsn(".word");
+            operand(addr);
+            endLine(comment);
         }
     }
 
@@ -151,12 +224,30 @@ public class RiscVBackend {
      * COMMENT as its one-line comment, if non-null.
      */
     public void emitString(String value, String comment) {
-        String quoted = value
-                .replace("\\", "\\\\")
-                .replace("\n", "\\n")
-                .replace("\t", "\\t")
-                .replace("\"", "\\\"");
-        emitInsn(String.format(".string \"%s\"", quoted), comment);
+        startInsn(".string");
+        append(" \"");
+        for (int i = 0; i < value.length(); i += 1) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '\\':
+                append("\\\\");
+                break;
+            case '\n':
+                append("\\n");
+                break;
+            case '\t':
+                append("\\t");
+                break;
+            case '"':
+                append("\\\"");
+                break;
+            default:
+                append(c);
+                break;
+            }
+        }
+        append('"');
+        endLine(comment);
     }
 
     /**
@@ -178,7 +269,9 @@ public class RiscVBackend {
      * a multiple of 2**POW bytes.
      */
     public void alignNext(int pow) {
-        emitInsn(String.format(".align %d", pow));
+        startInsn(".align");
+        operand(pow);
+        endLine(null);
     }
 
     /**
@@ -194,7 +287,10 @@ public class RiscVBackend {
      * LABEL.  COMMENT is an optional one-line comment (null if missing).
      */
     public void emitLA(Register rd, Label label, String comment) {
-        emitInsn(String.format("la %s, %s", rd, label), comment);
+        startInsn("la");
+        operand(rd);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -202,7 +298,10 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitLI(Register rd, Integer imm, String comment) {
-        emitInsn(String.format("li %s, %d", rd, imm), comment);
+        startInsn("li");
+        operand(rd);
+        operand(imm);
+        endLine(comment);
     }
 
     /**
@@ -211,7 +310,10 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitLUI(Register rd, Integer imm, String comment) {
-        emitInsn(String.format("lui %s, %d", rd, imm), comment);
+        startInsn("lui");
+        operand(rd);
+        operand(imm);
+        endLine(comment);
     }
 
     /**
@@ -219,7 +321,10 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitMV(Register rd, Register rs, String comment) {
-        emitInsn(String.format("mv %s, %s", rd, rs), comment);
+        startInsn("mv");
+        operand(rd);
+        operand(rs);
+        endLine(comment);
     }
 
     /**
@@ -227,7 +332,9 @@ public class RiscVBackend {
      * RS.  COMMENT is an optional one-line comment (null if missing).
      */
     public void emitJR(Register rs, String comment) {
-        emitInsn(String.format("jr %s", rs), comment);
+        startInsn("jr");
+        operand(rs);
+        endLine(comment);
     }
 
     /**
@@ -235,7 +342,9 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitJ(Label label, String comment) {
-        emitInsn(String.format("j %s", label), comment);
+        startInsn("j");
+        operand(label);
+        endLine(comment);
     }
 
 
@@ -244,7 +353,9 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitJAL(Label label, String comment) {
-        emitInsn(String.format("jal %s", label), comment);
+        startInsn("jal");
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -252,7 +363,9 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitJALR(Register rs, String comment) {
-        emitInsn(String.format("jalr %s", rs), comment);
+        startInsn("jalr");
+        operand(rs);
+        endLine(comment);
     }
 
     /**
@@ -262,7 +375,11 @@ public class RiscVBackend {
      */
     public void emitADDI(Register rd, Register rs, Integer imm,
                          String comment) {
-        emitInsn(String.format("addi %s, %s, %d", rd, rs, imm), comment);
+        startInsn("addi");
+        operand(rd);
+        operand(rs);
+        operand(imm);
+        endLine(comment);
     }
 
     /**
@@ -274,7 +391,11 @@ public class RiscVBackend {
      */
     public void emitADDI(Register rd, Register rs, String imm,
                          String comment) {
-        emitInsn(String.format("addi %s, %s, %s", rd, rs, imm), comment);
+        startInsn("addi");
+        operand(rd);
+        operand(rs);
+        operand(imm);
+        endLine(comment);
     }
 
     /**
@@ -283,7 +404,11 @@ public class RiscVBackend {
      */
     public void emitADD(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("add %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("add");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -292,7 +417,11 @@ public class RiscVBackend {
      */
     public void emitSUB(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("sub %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("sub");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -301,7 +430,11 @@ public class RiscVBackend {
      */
     public void emitMUL(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("mul %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("mul");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -313,7 +446,11 @@ public class RiscVBackend {
      */
     public void emitDIV(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("div %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("div");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -323,7 +460,11 @@ public class RiscVBackend {
      */
     public void emitREM(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("rem %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("rem");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -332,7 +473,11 @@ public class RiscVBackend {
      */
     public void emitXOR(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("xor %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("xor");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -342,7 +487,11 @@ public class RiscVBackend {
      */
     public void emitXORI(Register rd, Register rs, Integer imm,
                          String comment) {
-        emitInsn(String.format("xori %s, %s, %d", rd, rs, imm), comment);
+        startInsn("xori");
+        operand(rd);
+        operand(rs);
+        operand(imm);
+        endLine(comment);
     }
 
     /**
@@ -351,7 +500,11 @@ public class RiscVBackend {
      */
     public void emitAND(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("and %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("and");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -361,7 +514,11 @@ public class RiscVBackend {
      */
     public void emitANDI(Register rd, Register rs, Integer imm,
                          String comment) {
-        emitInsn(String.format("andi %s, %s, %d", rd, rs, imm), comment);
+        startInsn("andi");
+        operand(rd);
+        operand(rs);
+        operand(imm);
+        endLine(comment);
     }
 
     /**
@@ -370,7 +527,11 @@ public class RiscVBackend {
      */
     public void emitOR(Register rd, Register rs1, Register rs2,
                        String comment) {
-        emitInsn(String.format("or %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("or");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -380,7 +541,11 @@ public class RiscVBackend {
      */
     public void emitORI(Register rd, Register rs, Integer imm,
                         String comment) {
-        emitInsn(String.format("ori %s, %s, %d", rd, rs, imm), comment);
+        startInsn("ori");
+        operand(rd);
+        operand(rs);
+        operand(imm);
+        endLine(comment);
     }
 
     /**
@@ -389,7 +554,11 @@ public class RiscVBackend {
      */
     public void emitSLL(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("sll %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("sll");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -398,7 +567,11 @@ public class RiscVBackend {
      */
     public void emitSLLI(Register rd, Register rs, Integer imm,
                         String comment) {
-        emitInsn(String.format("slli %s, %s, %d", rd, rs, imm), comment);
+        startInsn("slli");
+        operand(rd);
+        operand(rs);
+        operand(imm);
+        endLine(comment);
     }
 
     /**
@@ -407,7 +580,11 @@ public class RiscVBackend {
      */
     public void emitSRL(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("srl %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("srl");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -416,7 +593,11 @@ public class RiscVBackend {
      */
     public void emitSRLI(Register rd, Register rs, Integer imm,
                         String comment) {
-        emitInsn(String.format("srli %s, %s, %d", rd, rs, imm), comment);
+        startInsn("srli");
+        operand(rd);
+        operand(rs);
+        operand(imm);
+        endLine(comment);
     }
 
     /**
@@ -425,7 +606,11 @@ public class RiscVBackend {
      */
     public void emitSRA(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("sra %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("sra");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -434,7 +619,11 @@ public class RiscVBackend {
      */
     public void emitSRAI(Register rd, Register rs, Integer imm,
                         String comment) {
-        emitInsn(String.format("srai %s, %s, %d", rd, rs, imm), comment);
+        startInsn("srai");
+        operand(rd);
+        operand(rs);
+        operand(imm);
+        endLine(comment);
     }
 
     /**
@@ -444,7 +633,10 @@ public class RiscVBackend {
      */
     public void emitLW(Register rd, Register rs, Integer imm,
                        String comment) {
-        emitInsn(String.format("lw %s, %d(%s)", rd, imm, rs), comment);
+        startInsn("lw");
+        operand(rd);
+        address(imm, rs);
+        endLine(comment);
     }
 
     /**
@@ -455,7 +647,10 @@ public class RiscVBackend {
      */
     public void emitLW(Register rd, Register rs, String imm,
                        String comment) {
-        emitInsn(String.format("lw %s, %s(%s)", rd, imm, rs), comment);
+        startInsn("lw");
+        operand(rd);
+        address(imm, rs);
+        endLine(comment);
     }
 
     /**
@@ -465,7 +660,10 @@ public class RiscVBackend {
      */
     public void emitSW(Register rs2, Register rs1, Integer imm,
                        String comment) {
-        emitInsn(String.format("sw %s, %d(%s)", rs2, imm, rs1), comment);
+        startInsn("sw");
+        operand(rs2);
+        address(imm, rs1);
+        endLine(comment);
     }
 
     /**
@@ -476,7 +674,10 @@ public class RiscVBackend {
      */
     public void emitSW(Register rs2, Register rs1, String imm,
                        String comment) {
-        emitInsn(String.format("sw %s, %s(%s)", rs2, imm, rs1), comment);
+        startInsn("sw");
+        operand(rs2);
+        address(imm, rs1);
+        endLine(comment);
     }
 
     /**
@@ -484,7 +685,10 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitLW(Register rd, Label label, String comment) {
-        emitInsn(String.format("lw %s, %s", rd, label), comment);
+        startInsn("lw");
+        operand(rd);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -494,7 +698,11 @@ public class RiscVBackend {
      */
     public void emitSW(Register rs, Label label, Register tmp,
                        String comment) {
-        emitInsn(String.format("sw %s, %s, %s", rs, label, tmp), comment);
+        startInsn("sw");
+        operand(rs);
+        operand(label);
+        operand(tmp);
+        endLine(comment);
     }
 
     /**
@@ -504,7 +712,10 @@ public class RiscVBackend {
      */
     public void emitLB(Register rd, Register rs, Integer imm,
                        String comment) {
-        emitInsn(String.format("lb %s, %d(%s)", rd, imm, rs), comment);
+        startInsn("lb");
+        operand(rd);
+        address(imm, rs);
+        endLine(comment);
     }
 
     /**
@@ -514,7 +725,10 @@ public class RiscVBackend {
      */
     public void emitLBU(Register rd, Register rs, Integer imm,
                         String comment) {
-        emitInsn(String.format("lbu %s, %d(%s)", rd, imm, rs), comment);
+        startInsn("lbu");
+        operand(rd);
+        address(imm, rs);
+        endLine(comment);
     }
 
     /**
@@ -524,7 +738,10 @@ public class RiscVBackend {
      */
     public void emitSB(Register rs2, Register rs1, Integer imm,
                        String comment) {
-        emitInsn(String.format("sb %s, %d(%s)", rs2, imm, rs1), comment);
+        startInsn("sb");
+        operand(rs2);
+        address(imm, rs1);
+        endLine(comment);
     }
 
     /**
@@ -533,7 +750,11 @@ public class RiscVBackend {
      */
     public void emitBEQ(Register rs1, Register rs2, Label label,
                         String comment) {
-        emitInsn(String.format("beq %s, %s, %s", rs1, rs2, label), comment);
+        startInsn("beq");
+        operand(rs1);
+        operand(rs2);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -542,7 +763,11 @@ public class RiscVBackend {
      */
     public void emitBNE(Register rs1, Register rs2, Label label,
                         String comment) {
-        emitInsn(String.format("bne %s, %s, %s", rs1, rs2, label), comment);
+        startInsn("bne");
+        operand(rs1);
+        operand(rs2);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -552,7 +777,11 @@ public class RiscVBackend {
      */
     public void emitBGE(Register rs1, Register rs2, Label label,
                          String comment) {
-        emitInsn(String.format("bge %s, %s, %s", rs1, rs2, label), comment);
+        startInsn("bge");
+        operand(rs1);
+        operand(rs2);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -562,7 +791,11 @@ public class RiscVBackend {
      */
     public void emitBGEU(Register rs1, Register rs2, Label label,
                          String comment) {
-        emitInsn(String.format("bgeu %s, %s, %s", rs1, rs2, label), comment);
+        startInsn("bgeu");
+        operand(rs1);
+        operand(rs2);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -572,7 +805,11 @@ public class RiscVBackend {
      */
     public void emitBLT(Register rs1, Register rs2, Label label,
                          String comment) {
-        emitInsn(String.format("blt %s, %s, %s", rs1, rs2, label), comment);
+        startInsn("blt");
+        operand(rs1);
+        operand(rs2);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -582,7 +819,11 @@ public class RiscVBackend {
      */
     public void emitBLTU(Register rs1, Register rs2, Label label,
                          String comment) {
-        emitInsn(String.format("bltu %s, %s, %s", rs1, rs2, label), comment);
+        startInsn("bltu");
+        operand(rs1);
+        operand(rs2);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -590,7 +831,10 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitBEQZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("beqz %s, %s", rs, label), comment);
+        startInsn("beqz");
+        operand(rs);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -598,7 +842,10 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitBNEZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("bnez %s, %s", rs, label), comment);
+        startInsn("bnez");
+        operand(rs);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -606,7 +853,10 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitBLTZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("bltz %s, %s", rs, label), comment);
+        startInsn("bltz");
+        operand(rs);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -614,7 +864,10 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitBGTZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("bgtz %s, %s", rs, label), comment);
+        startInsn("bgtz");
+        operand(rs);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -623,7 +876,10 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitBLEZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("blez %s, %s", rs, label), comment);
+        startInsn("blez");
+        operand(rs);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -632,7 +888,10 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitBGEZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("bgez %s, %s", rs, label), comment);
+        startInsn("bgez");
+        operand(rs);
+        operand(label);
+        endLine(comment);
     }
 
     /**
@@ -641,7 +900,11 @@ public class RiscVBackend {
      */
     public void emitSLT(Register rd, Register rs1, Register rs2,
                         String comment) {
-        emitInsn(String.format("slt %s, %s, %s", rd, rs1, rs2), comment);
+        startInsn("slt");
+        operand(rd);
+        operand(rs1);
+        operand(rs2);
+        endLine(comment);
     }
 
     /**
@@ -649,7 +912,10 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitSEQZ(Register rd, Register rs, String comment) {
-        emitInsn(String.format("seqz %s, %s", rd, rs), comment);
+        startInsn("seqz");
+        operand(rd);
+        operand(rs);
+        endLine(comment);
     }
 
     /**
@@ -657,7 +923,149 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitSNEZ(Register rd, Register rs, String comment) {
-        emitInsn(String.format("snez %s, %s", rd, rs), comment);
+        startInsn("snez");
+        operand(rd);
+        operand(rs);
+        endLine(comment);
+    }
+
+    /** Start a new line holding instruction or directive MNEMONIC, to be
+     *  followed by its operands and then endLine. */
+    private void startInsn(String mnemonic) {
+        lineLength = 0;
+        append("  ");
+        append(mnemonic);
+        firstOperand = true;
+    }
+
+    /** Start a new line defining the symbol @NAME (NAME may already start
+     *  with '@'), to be followed by its value and then endLine. */
+    private void startEquiv(String name) {
+        startInsn(".equiv");
+        nextOperand();
+        if (!name.startsWith("@")) {
+            append('@');
+        }
+        append(name);
+    }
+
+    /** Append the separator preceding the next operand. */
+    private void nextOperand() {
+        append(firstOperand ? " " : ", ");
+        firstOperand = false;
+    }
+
+    /** Append register REG as the next operand. */
+    private void operand(Register reg) {
+        nextOperand();
+        append(reg.name);
     }
 
+    /** Append LABEL as the next operand. */
+    private void operand(Label label) {
+        nextOperand();
+        append(String.valueOf(label));
+    }
+
+    /** Append TEXT, a symbolic operand, as the next operand. */
+    private void operand(String text) {
+        nextOperand();
+        append(text);
+    }
+
+    /** Append VALUE as the next operand. */
+    private void operand(Integer value) {
+        nextOperand();
+        if (value == null) {
+            append("null");
+        } else {
+            appendInt(value);
+        }
+    }
+
+    /** Append VALUE as the next operand. */
+    private void operand(int value) {
+        nextOperand();
+        appendInt(value);
+    }
+
+    /** Append the memory operand IMM(BASE) as the next operand. */
+    private void address(Integer imm, Register base) {
+        operand(imm);
+        append('(');
+        append(base.name);
+        append(')');
+    }
+
+    /** Append the memory operand IMM(BASE), where IMM is symbolic, as the
+     *  next operand. */
+    private void address(String imm, Register base) {
+        operand(imm);
+        append('(');
+        append(base.name);
+        append(')');
+    }
+
+    /** Finish the current line with one-line comment COMMENT, if non-null
+     *  and comments are on, and write it out. */
+    private void endLine(String comment) {
+        if (comment != null && emitComments) {
+            while (lineLength < COMMENT_COLUMN) {
+                append(' ');
+            }
+            append(" # ");
+            append(comment);
+        }
+        out.write(line, 0, lineLength);
+        out.println();
+        lineLength = 0;
+    }
+
+    /** Append TEXT (or "null") to the current line. */
+    private void append(String text) {
+        if (text == null) {
+            text = "null";
+        }
+        int n = text.length();
+        reserve(n);
+        text.getChars(0, n, line, lineLength);
+        lineLength += n;
+    }
+
+    /** Append C to the current line. */
+    private void append(char c) {
+        reserve(1);
+        line[lineLength] = c;
+        lineLength += 1;
+    }
+
+    /** Append the decimal numeral for VALUE to the current line. */
+    private void appendInt(int value) {
+        if (value == Integer.MIN_VALUE) {
+            append("-2147483648");
+            return;
+        }
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits += 1;
+        }
+        reserve(digits);
+        for (int i = lineLength + digits - 1; i >= lineLength; i -= 1) {
+            line[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        lineLength += digits;
+    }
+
+    /** Ensure that LINE has room for N more characters. */
+    private void reserve(int n) {
+        if (lineLength + n > line.length) {
+            line = Arrays.copyOf(line, Math.max(2 * line.length,
+                                                lineLength + n));
+        }
+    }
 }
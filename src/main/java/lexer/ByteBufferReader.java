@@ -0,0 +1,122 @@
+package lexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Reader of the UTF-8 text in a ByteBuffer, typically the contents of
+ * a source file (see map), that decodes it in place.
+ *
+ * PyLang source is ASCII but for comments, so each byte below 0x80 is
+ * copied straight to the character it encodes; only the other bytes go
+ * through a UTF-8 decoder, one sequence at a time.  Malformed sequences
+ * become U+FFFD.
+ */
+public class ByteBufferReader extends Reader {
+
+    /** Size in bytes from which map memory-maps a file rather than
+     *  reading it.  A mapping is only released when its buffer is
+     *  garbage-collected, so the ordinary sources are read instead. */
+    public static final long MAP_THRESHOLD =
+        Long.getLong("pylang.map.threshold", 1 << 20);
+
+    /** The text not yet read. */
+    private final ByteBuffer bytes;
+    /** Characters decoded from a multi-byte sequence and not yet read,
+     *  from PENDINGSTART to the end. */
+    private char[] pending = new char[0];
+    private int pendingStart;
+
+    /** A reader of the text from the position of BYTES to its limit,
+     *  which consumes BYTES. */
+    public ByteBufferReader(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    /** Return a reader of the UTF-8 text of FILE, as given by map. */
+    public static ByteBufferReader open(Path file) throws IOException {
+        return new ByteBufferReader(map(file));
+    }
+
+    /** Return the contents of FILE, memory-mapped if it is at least
+     *  MAP_THRESHOLD bytes long and read into the heap otherwise. */
+    public static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel =
+                 FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            if (size >= MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+            }
+            bytes.flip();
+            return bytes;
+        }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        while (n < len && pendingStart < pending.length) {
+            cbuf[off + n] = pending[pendingStart];
+            pendingStart += 1;
+            n += 1;
+        }
+        int pos = bytes.position(), limit = bytes.limit();
+        while (n < len && pos < limit) {
+            byte b = bytes.get(pos);
+            if (b < 0) {
+                if (n > 0) {
+                    break;
+                }
+                bytes.position(pos);
+                decodeSequence();
+                pos = bytes.position();
+                while (n < len && pendingStart < pending.length) {
+                    cbuf[off + n] = pending[pendingStart];
+                    pendingStart += 1;
+                    n += 1;
+                }
+                continue;
+            }
+            cbuf[off + n] = (char) b;
+            n += 1;
+            pos += 1;
+        }
+        bytes.position(pos);
+        return n == 0 ? -1 : n;
+    }
+
+    /** Decode the multi-byte sequence at the position of BYTES into
+     *  PENDING, consuming it. */
+    private void decodeSequence() {
+        int start = bytes.position();
+        int lead = bytes.get(start) & 0xff;
+        int length = lead >= 0xf0 ? 4 : lead >= 0xe0 ? 3 : lead >= 0xc0 ? 2 : 1;
+        int end = start + 1;
+        while (end < start + length && end < bytes.limit()
+               && (bytes.get(end) & 0xc0) == 0x80) {
+            end += 1;
+        }
+        byte[] sequence = new byte[end - start];
+        bytes.get(sequence);
+        pending = new String(sequence, StandardCharsets.UTF_8).toCharArray();
+        pendingStart = 0;
+    }
+
+    @Override
+    public void close() {
+    }
+}
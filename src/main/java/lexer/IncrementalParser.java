@@ -0,0 +1,371 @@
+package lexer;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import java_cup.runtime.ComplexSymbolFactory.Location;
+
+import common.astnodes.Declaration;
+import common.astnodes.Node;
+import common.astnodes.Program;
+import common.astnodes.Stmt;
+
+/**
+ * A parser that keeps the AST of a text up to date as the text is
+ * edited, reparsing only what an edit touches.
+ *
+ * The text is divided into chunks, each a top-level construct: a line
+ * starting in column 1 (neither blank, nor a comment, nor an else or
+ * elif continuing the construct before it), together with the indented,
+ * blank and comment lines that follow it.  The lexer's indentation stack
+ * is empty at the start of each chunk, and PyLang has no bracketed or
+ * continued lines, so each chunk lexes and parses on its own exactly as
+ * it does within the whole text, and the Program is the concatenation of
+ * the chunks' declarations and statements.  An edit re-lexes and
+ * reparses from the start of the chunk it begins in to the first chunk
+ * boundary past its end that survives it; the chunks after that are
+ * reused, their nodes moved down or up if the edit changed the number
+ * of lines.
+ *
+ * When a chunk has syntax errors, or a declaration follows a statement
+ * (a pass statement included, though it leaves no node), the
+ * concatenation would not be what the parser makes of the whole text,
+ * error recovery included, so the whole text is parsed instead.  As for
+ * the web interface, a final newline is assumed if missing.  An edit
+ * whose parse throws, as for an integer literal too large, leaves the
+ * text and its AST as they were.
+ *
+ * Successive Programs share the nodes of the chunks they have in common.
+ * Analysis decorates the nodes it is given, so these Programs must not
+ * be analyzed; analyze a fresh parse instead.
+ */
+public class IncrementalParser {
+
+    /** A top-level chunk of a text and its parse.  A chunk may also
+     *  hold a run of consecutive top-level constructs. */
+    static class Chunk {
+        /** Offset of its first character in the text. */
+        int offset;
+        /** Number of its first line. */
+        int line;
+        /** Number of line breaks in it. */
+        final int lines;
+        /** The parse of the chunk alone, with its nodes moved to LINE. */
+        final Program program;
+        /** True iff the parse has statements, which may all be pass
+         *  statements and so absent from PROGRAM. */
+        final boolean statements;
+        /** The location of PROGRAM as parsed, relative to the chunk. */
+        final int[] location;
+
+        /** The chunk at OFFSET holding LINES line breaks, starting on line
+         *  LINE, whose text SOURCE is parsed on its own.  The nodes of the
+         *  parse are moved to LINE. */
+        Chunk(int offset, int lines, Reader source, int line) {
+            PyLangParser parser = Parser.parser(source);
+            this.offset = offset;
+            this.lines = lines;
+            program = parser.parseProgram(false);
+            statements = parser.hasStatements;
+            location = program.getLocation().clone();
+            this.line = 1;
+            moveTo(line);
+        }
+
+        /** Move the nodes of the chunk so that it starts on line LINE. */
+        void moveTo(int line) {
+            if (line != this.line) {
+                program.dispatch(new LocationShifter(line - this.line));
+                this.line = line;
+            }
+        }
+    }
+
+    /** The text. */
+    private String text;
+    /** Its chunks, in order. */
+    private List<Chunk> chunks = new ArrayList<>();
+    /** Its AST. */
+    private Program program;
+    /** Number of chunks parsed by the last edit. */
+    private int reparsed;
+
+    /** A parser of TEXT, which is parsed in full. */
+    public IncrementalParser(String text) {
+        this.text = text;
+        split(text, 0, 1, 0, 0, new ArrayList<>(), chunks);
+        reparsed = chunks.size();
+        program = stitch(chunks, () -> parseWhole(text));
+    }
+
+    /** Return the current text. */
+    public String getText() {
+        return text;
+    }
+
+    /** Return the AST of the current text. */
+    public Program getProgram() {
+        return program;
+    }
+
+    /** Return the number of chunks parsed by the last edit (or by the
+     *  construction of this parser). */
+    public int getReparsed() {
+        return reparsed;
+    }
+
+    /** Replace the characters of the text from offset START up to END
+     *  with REPLACEMENT, and return the AST of the result.  If parsing
+     *  throws, the text and AST are left unchanged. */
+    public Program edit(int start, int end, String replacement) {
+        if (start < 0 || start > end || end > text.length()) {
+            throw new IndexOutOfBoundsException(
+                String.format("edit [%d, %d) of text of length %d",
+                              start, end, text.length()));
+        }
+        String edited = text.substring(0, start) + replacement + text.substring(end);
+        int delta = replacement.length() - (end - start);
+
+        /* The first chunk affected is the one holding the character
+         * before the edit, since the edit may join its first line to
+         * that chunk; step back further while its start no longer begins
+         * a chunk, as when "e" becomes "else". */
+        int first = 0;
+        while (first + 1 < chunks.size()
+               && chunks.get(first + 1).offset < start) {
+            first += 1;
+        }
+        while (first > 0 && !isBoundary(edited, chunks.get(first).offset)) {
+            first -= 1;
+        }
+
+        /* Nothing is changed until all the parsing is done. */
+        Chunk from = chunks.get(first);
+        List<Chunk> old = chunks.subList(first, chunks.size());
+        List<Chunk> parsed = new ArrayList<>();
+        int reused = split(edited, from.offset, from.line, end, delta, old,
+                           parsed);
+        List<Chunk> result = new ArrayList<>(chunks.subList(0, first));
+        result.addAll(parsed);
+
+        List<Chunk> moved = new ArrayList<>(old.subList(reused, old.size()));
+        int[] lines = new int[moved.size()];
+        int line = from.line;
+        for (Chunk chunk : parsed) {
+            line += chunk.lines;
+        }
+        for (int i = 0; i < moved.size(); i += 1) {
+            Chunk chunk = moved.get(i);
+            lines[i] = chunk.line;
+            chunk.offset += delta;
+            chunk.moveTo(line);
+            line += chunk.lines;
+        }
+        result.addAll(moved);
+
+        Program stitched;
+        try {
+            stitched = stitch(result, () -> parseWhole(edited));
+        } catch (RuntimeException e) {
+            for (int i = 0; i < moved.size(); i += 1) {
+                moved.get(i).offset -= delta;
+                moved.get(i).moveTo(lines[i]);
+            }
+            throw e;
+        }
+        text = edited;
+        chunks = result;
+        program = stitched;
+        reparsed = parsed.size();
+        return program;
+    }
+
+    /** Split TEXT from OFFSET, which starts line LINE, into chunks,
+     *  parsing each, and append them to PARSED.  The characters of the
+     *  text before the last edit from END on have moved by DELTA, and
+     *  OLD holds the chunks of that text from OFFSET on.  Once a chunk
+     *  boundary is found at the new position of the start of one of the
+     *  OLD chunks that began at or after END, that chunk and those after
+     *  it can be reused rather than parsed again.  Returns the index in
+     *  OLD of the first chunk that can be reused, or the size of OLD if
+     *  none can.  Neither OLD nor its chunks are changed. */
+    private static int split(String text, int offset, int line, int end,
+                             int delta, List<Chunk> old, List<Chunk> parsed) {
+        int next = 0;
+        int start = offset;
+        int pos = offset;
+        while (true) {
+            pos = nextLine(text, pos);
+            while (pos < text.length() && !isBoundary(text, pos)) {
+                pos = nextLine(text, pos);
+            }
+            while (next < old.size()
+                   && (old.get(next).offset < end
+                       || old.get(next).offset + delta < pos)) {
+                next += 1;
+            }
+            boolean resync = next < old.size()
+                && old.get(next).offset + delta == pos;
+            /* The empty text is a single empty chunk. */
+            if (start < text.length() || start == 0) {
+                Chunk chunk = parse(text, start, pos, line);
+                parsed.add(chunk);
+                line += chunk.lines;
+            }
+            if (resync) {
+                return next;
+            }
+            if (pos >= text.length()) {
+                return old.size();
+            }
+            start = pos;
+        }
+    }
+
+    /** Return the chunk of TEXT from START up to END, which starts on
+     *  line LINE, parsed. */
+    private static Chunk parse(String text, int start, int end, int line) {
+        String source = text.substring(start, end);
+        if (!source.isEmpty() && !endsLine(source)) {
+            source += "\n";
+        }
+        return new Chunk(start, countLines(text, start, end),
+                         new StringReader(source), line);
+    }
+
+    /** Return the Program made of the declarations and statements of
+     *  CHUNKS, which make up a text, or the parse of the whole text,
+     *  got from WHOLE, if that would differ. */
+    static Program stitch(List<Chunk> chunks, Supplier<Program> whole) {
+        List<Declaration> declarations = new ArrayList<>();
+        List<Stmt> statements = new ArrayList<>();
+        boolean hasStatements = false;
+        for (Chunk chunk : chunks) {
+            if (chunk.program.hasErrors()
+                || (hasStatements && !chunk.program.declarations.isEmpty())
+                || (!chunk.statements && !chunk.program.statements.isEmpty())) {
+                return whole.get();
+            }
+            declarations.addAll(chunk.program.declarations);
+            statements.addAll(chunk.program.statements);
+            hasStatements |= chunk.statements;
+        }
+        if (declarations.isEmpty() && statements.isEmpty()) {
+            return whole.get();
+        }
+
+        /* The program spans from its first node to the end of the last
+         * statement, pass statements included, which is in the last
+         * chunk.  The parser gives a program of declarations alone a
+         * right end that does not depend on the text, so that is copied
+         * as it is. */
+        Node first = declarations.isEmpty() ? statements.get(0)
+            : declarations.get(0);
+        Chunk last = chunks.get(chunks.size() - 1);
+        Location left = new Location(first.getLocation()[0],
+                                     first.getLocation()[1]);
+        Location right = last.statements
+            ? new Location(last.location[2] + last.line - 1,
+                           last.location[3])
+            : new Location(last.location[2], last.location[3]);
+        return new Program(left, right, declarations, statements, null);
+    }
+
+    /** Return the parse of all of TEXT, with a final newline. */
+    private static Program parseWhole(String text) {
+        return Parser.process(endsLine(text) ? text : text + "\n", false);
+    }
+
+    /** Return true iff a chunk starts at offset POS of TEXT: POS starts a
+     *  line whose first character is not blank and does not start a
+     *  comment, and which is not an else or elif clause. */
+    static boolean isBoundary(CharSequence text, int pos) {
+        if (pos == 0) {
+            return true;
+        }
+        if (pos >= text.length()) {
+            return false;
+        }
+        char prev = text.charAt(pos - 1), c = text.charAt(pos);
+        if ((prev != '\n' && prev != '\r') || (prev == '\r' && c == '\n')) {
+            return false;
+        }
+        if (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '#') {
+            return false;
+        }
+        return !startsWord(text, pos, "else") && !startsWord(text, pos, "elif");
+    }
+
+    /** Return true iff the identifier at POS of TEXT is WORD. */
+    private static boolean startsWord(CharSequence text, int pos, String word) {
+        int end = pos + word.length();
+        if (end > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i += 1) {
+            if (text.charAt(pos + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        if (end == text.length()) {
+            return true;
+        }
+        char c = text.charAt(end);
+        return !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                 || (c >= '0' && c <= '9') || c == '_');
+    }
+
+    /** Return the offset of the start of the line after the one holding
+     *  POS in TEXT, or the length of TEXT if there is none.  Lines end
+     *  as for the lexer's NEWLINE: \n, \r, or \r\n. */
+    static int nextLine(CharSequence text, int pos) {
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            pos += 1;
+            if (c == '\n') {
+                return pos;
+            } else if (c == '\r') {
+                return pos < text.length() && text.charAt(pos) == '\n'
+                    ? pos + 1 : pos;
+            }
+        }
+        return pos;
+    }
+
+    /** Return the number of lines the lexer counts in TEXT from START up
+     *  to END.  Besides \n, \r and \r\n, JFlex counts vertical tab, form
+     *  feed, NEL and the Unicode line and paragraph separators, which may
+     *  appear in comments. */
+    static int countLines(CharSequence text, int start, int end) {
+        int lines = 0;
+        for (int pos = start; pos < end; pos += 1) {
+            switch (text.charAt(pos)) {
+            case '\r':
+                if (pos + 1 < end && text.charAt(pos + 1) == '\n') {
+                    pos += 1;
+                }
+                lines += 1;
+                break;
+            case '\n':
+            case '\u000B':
+            case '\u000C':
+            case '\u0085':
+            case '\u2028':
+            case '\u2029':
+                lines += 1;
+                break;
+            default:
+                break;
+            }
+        }
+        return lines;
+    }
+
+    /** Return true iff TEXT ends with a line break. */
+    static boolean endsLine(String text) {
+        return text.endsWith("\n") || text.endsWith("\r");
+    }
+}
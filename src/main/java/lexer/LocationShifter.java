@@ -0,0 +1,209 @@
+package lexer;
+
+import java.util.List;
+
+import common.analysis.AbstractNodeAnalyzer;
+import common.astnodes.*;
+
+/** Moves the nodes of an AST down a number of lines, as when the source
+ *  text they were parsed from is moved.  Unknown locations (line 0) stay
+ *  as they are. */
+class LocationShifter extends AbstractNodeAnalyzer<Void> {
+
+    /** Number of lines to move by. */
+    private final int lines;
+
+    LocationShifter(int lines) {
+        this.lines = lines;
+    }
+
+    /** Shift each of NODES. */
+    private void shift(List<? extends Node> nodes) {
+        for (Node node : nodes) {
+            node.dispatch(this);
+        }
+    }
+
+    /** Shift NODE alone, not its children. */
+    @Override
+    public Void defaultAction(Node node) {
+        int[] location = node.getLocation();
+        if (location[0] != 0) {
+            location[0] += lines;
+        }
+        if (location[2] != 0) {
+            location[2] += lines;
+        }
+        return null;
+    }
+
+    @Override
+    public Void analyze(Program program) {
+        defaultAction(program);
+        shift(program.declarations);
+        shift(program.statements);
+        return program.errors.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(Errors errors) {
+        defaultAction(errors);
+        shift(errors.errors);
+        return null;
+    }
+
+    @Override
+    public Void analyze(ClassDef classDef) {
+        defaultAction(classDef);
+        classDef.name.dispatch(this);
+        classDef.superClass.dispatch(this);
+        shift(classDef.declarations);
+        return null;
+    }
+
+    @Override
+    public Void analyze(FuncDef funcDef) {
+        defaultAction(funcDef);
+        funcDef.name.dispatch(this);
+        shift(funcDef.params);
+        funcDef.returnType.dispatch(this);
+        shift(funcDef.declarations);
+        shift(funcDef.statements);
+        return null;
+    }
+
+    @Override
+    public Void analyze(VarDef varDef) {
+        defaultAction(varDef);
+        varDef.var.dispatch(this);
+        return varDef.value.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(TypedVar typedVar) {
+        defaultAction(typedVar);
+        typedVar.identifier.dispatch(this);
+        return typedVar.type.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(ListType type) {
+        defaultAction(type);
+        return type.elementType.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(GlobalDecl decl) {
+        defaultAction(decl);
+        return decl.variable.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(NonLocalDecl decl) {
+        defaultAction(decl);
+        return decl.variable.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(ExprStmt stmt) {
+        defaultAction(stmt);
+        return stmt.expr.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(AssignStmt stmt) {
+        defaultAction(stmt);
+        shift(stmt.targets);
+        return stmt.value.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(ReturnStmt stmt) {
+        defaultAction(stmt);
+        return stmt.value == null ? null : stmt.value.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(IfStmt stmt) {
+        defaultAction(stmt);
+        stmt.condition.dispatch(this);
+        shift(stmt.thenBody);
+        shift(stmt.elseBody);
+        return null;
+    }
+
+    @Override
+    public Void analyze(WhileStmt stmt) {
+        defaultAction(stmt);
+        stmt.condition.dispatch(this);
+        shift(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void analyze(ForStmt stmt) {
+        defaultAction(stmt);
+        stmt.identifier.dispatch(this);
+        stmt.iterable.dispatch(this);
+        shift(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void analyze(BinaryExpr expr) {
+        defaultAction(expr);
+        expr.left.dispatch(this);
+        return expr.right.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(UnaryExpr expr) {
+        defaultAction(expr);
+        return expr.operand.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(IfExpr expr) {
+        defaultAction(expr);
+        expr.condition.dispatch(this);
+        expr.thenExpr.dispatch(this);
+        return expr.elseExpr.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(CallExpr expr) {
+        defaultAction(expr);
+        expr.function.dispatch(this);
+        shift(expr.args);
+        return null;
+    }
+
+    @Override
+    public Void analyze(MethodCallExpr expr) {
+        defaultAction(expr);
+        expr.method.dispatch(this);
+        shift(expr.args);
+        return null;
+    }
+
+    @Override
+    public Void analyze(MemberExpr expr) {
+        defaultAction(expr);
+        expr.object.dispatch(this);
+        return expr.member.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(IndexExpr expr) {
+        defaultAction(expr);
+        expr.list.dispatch(this);
+        return expr.index.dispatch(this);
+    }
+
+    @Override
+    public Void analyze(ListExpr expr) {
+        defaultAction(expr);
+        shift(expr.elements);
+        return null;
+    }
+}
@@ -0,0 +1,84 @@
+package lexer;
+
+/**
+ * The table of names seen by one lexer, used to intern identifiers.
+ *
+ * A name is looked up by the characters it spans in the lexer's buffer,
+ * so an identifier that has been seen before costs no allocation: the
+ * lexer gets back the String it was given the first time.  The table is
+ * open-addressed with linear probing and grows when half full.
+ */
+public class NameTable {
+
+    /** The names, at the slots their hashes select. */
+    private String[] names = new String[256];
+    /** Number of names in NAMES. */
+    private int size;
+
+    /** Return the name spelled by the LEN characters of BUFFER starting
+     *  at START, the same String each time it is asked for. */
+    public String intern(char[] buffer, int start, int len) {
+        int hash = 0;
+        for (int i = 0; i < len; i += 1) {
+            hash = 31 * hash + buffer[start + i];
+        }
+        int mask = names.length - 1;
+        int slot = spread(hash) & mask;
+        for (String name = names[slot]; name != null;
+             name = names[slot]) {
+            if (matches(name, buffer, start, len)) {
+                return name;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String name = new String(buffer, start, len);
+        names[slot] = name;
+        size += 1;
+        if (2 * size > names.length) {
+            grow();
+        }
+        return name;
+    }
+
+    /** Return the number of distinct names interned. */
+    public int size() {
+        return size;
+    }
+
+    /** Return true iff NAME is spelled by the LEN characters of BUFFER
+     *  starting at START. */
+    private static boolean matches(String name, char[] buffer, int start,
+                                   int len) {
+        if (name.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i += 1) {
+            if (name.charAt(i) != buffer[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Double the size of NAMES, rehashing its contents. */
+    private void grow() {
+        String[] old = names;
+        names = new String[2 * old.length];
+        int mask = names.length - 1;
+        for (String name : old) {
+            if (name != null) {
+                int slot = spread(name.hashCode()) & mask;
+                while (names[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                names[slot] = name;
+            }
+        }
+    }
+
+    /** Return HASH with its high bits folded into its low ones, which
+     *  select the slot. */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
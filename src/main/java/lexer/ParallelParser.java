@@ -0,0 +1,172 @@
+package lexer;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import common.astnodes.Program;
+
+import lexer.IncrementalParser.Chunk;
+
+/**
+ * Parses a large text in pieces on a fork-join pool.
+ *
+ * A PyLang program is a flat sequence of top-level declarations and
+ * statements, each starting in column 1 with the lexer's indentation
+ * stack empty (see IncrementalParser).  The text is cut at such
+ * boundaries into pieces of similar size, a few per worker of the pool,
+ * each piece is lexed and parsed on its own, and the pieces'
+ * declarations and statements are concatenated, their nodes moved to
+ * the lines the pieces start on.  When a piece has syntax errors, or a
+ * declaration follows a statement (a pass statement included), the
+ * result could differ from the parse of the whole text, so the whole
+ * text is parsed sequentially instead.
+ */
+class ParallelParser {
+
+    /** Smallest number of characters worth parsing as a separate piece. */
+    static final int MIN_PIECE = 1 << 16;
+
+    /** Number of pieces to give each worker of the pool, so that pieces
+     *  that parse slowly do not hold up the rest. */
+    private static final int PIECES_PER_WORKER = 4;
+
+    /** Return the Program AST resulting from parsing TEXT. */
+    static Program process(String text) {
+        return process(text, MIN_PIECE);
+    }
+
+    /** Return the Program AST resulting from parsing TEXT in pieces of at
+     *  least MINPIECE characters. */
+    static Program process(String text, int minPiece) {
+        return process(text, minPiece,
+                       (start, end) -> new StringReader(text.substring(start, end)),
+                       () -> Parser.process(new StringReader(text), false));
+    }
+
+    /** Return the Program AST resulting from parsing the UTF-8 text from
+     *  the position of BYTES to its limit, each piece being decoded in
+     *  place.  BYTES is not consumed. */
+    static Program process(ByteBuffer bytes) {
+        return process(new ByteView(bytes), MIN_PIECE,
+                       (start, end) -> new ByteBufferReader(slice(bytes, start, end)),
+                       () -> Parser.process(new ByteBufferReader(bytes.duplicate()),
+                                            false));
+    }
+
+    /** Return the Program AST resulting from parsing TEXT in pieces of at
+     *  least MINPIECE characters, where READER returns a reader of the
+     *  characters of TEXT from START up to END, and WHOLE the sequential
+     *  parse. */
+    private static Program process(CharSequence text, int minPiece,
+                                   BiFunction<Integer, Integer, Reader> reader,
+                                   Supplier<Program> whole) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int length = text.length();
+        int target = Math.max(minPiece,
+                              length / (PIECES_PER_WORKER * pool.getParallelism()));
+
+        List<ForkJoinTask<Chunk>> pieces = new ArrayList<>();
+        int start = 0, line = 1;
+        while (start < length) {
+            int end = start + target >= length ? length
+                : IncrementalParser.nextLine(text, start + target - 1);
+            while (end < length && !IncrementalParser.isBoundary(text, end)) {
+                end = IncrementalParser.nextLine(text, end);
+            }
+            int from = start, to = end, first = line;
+            int lines = IncrementalParser.countLines(text, from, to);
+            pieces.add(pool.submit(() -> new Chunk(from, lines,
+                                                   reader.apply(from, to), first)));
+            start = end;
+            line += lines;
+        }
+        if (pieces.isEmpty()) {
+            return whole.get();
+        } else if (pieces.size() == 1) {
+            return pieces.get(0).join().program;
+        }
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (ForkJoinTask<Chunk> piece : pieces) {
+            chunks.add(piece.join());
+        }
+        return IncrementalParser.stitch(chunks, whole);
+    }
+
+    /** Return the bytes of BYTES from its position plus START up to its
+     *  position plus END, as a buffer of their own. */
+    private static ByteBuffer slice(ByteBuffer bytes, int start, int end) {
+        ByteBuffer result = bytes.duplicate();
+        result.limit(bytes.position() + end);
+        result.position(bytes.position() + start);
+        return result;
+    }
+
+    /**
+     * The UTF-8 text of a buffer as a sequence of bytes, enough to find
+     * the top-level boundaries and count the lines of the text.  ASCII
+     * bytes stand for themselves.  The lead byte of an encoded NEL, line
+     * separator or paragraph separator stands for that character, so
+     * that lines count as the lexer counts them; every other byte of a
+     * multi-byte sequence stands for U+FFFD.
+     */
+    private static class ByteView implements CharSequence {
+        /** The text, from its position to its limit. */
+        private final ByteBuffer bytes;
+        /** Position of BYTES. */
+        private final int base;
+
+        ByteView(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.base = bytes.position();
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit() - base;
+        }
+
+        @Override
+        public char charAt(int index) {
+            int b = bytes.get(base + index) & 0xff;
+            if (b < 0x80) {
+                return (char) b;
+            }
+            int next = base + index + 1 < bytes.limit()
+                ? bytes.get(base + index + 1) & 0xff : 0;
+            if (b == 0xc2 && next == 0x85) {
+                return '\u0085';
+            }
+            if (b == 0xe2 && next == 0x80 && base + index + 2 < bytes.limit()) {
+                int last = bytes.get(base + index + 2) & 0xff;
+                if (last == 0xa8) {
+                    return '\u2028';
+                } else if (last == 0xa9) {
+                    return '\u2029';
+                }
+            }
+            return '\uFFFD';
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new ByteView(slice(bytes, start, end));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder(length());
+            for (int i = 0; i < length(); i += 1) {
+                result.append(charAt(i));
+            }
+            return result.toString();
+        }
+    }
+}
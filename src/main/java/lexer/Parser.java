@@ -1,22 +1,102 @@
 package lexer;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 
-import java_cup.runtime.ComplexSymbolFactory;
-
+import common.CompilerStats;
 import common.astnodes.Program;
 
 /** Interface between driver and parser. */
 public class Parser {
 
+    /** Inputs of at least this many characters (or bytes, for files)
+     *  are parsed in parallel (see ParallelParser), unless debugging.
+     *  Set by the system property pylang.parallel.threshold. */
+    public static final int PARALLEL_THRESHOLD =
+        Integer.getInteger("pylang.parallel.threshold", 1 << 20);
+
     /** Return the Program AST resulting from parsing INPUT.  Turn on
      *  parser debugging iff DEBUG. */
     public static Program process(String input, boolean debug) {
-        PyLangLexer lexer = new PyLangLexer(new StringReader(input));
-        PyLangParser parser =
-            new PyLangParser(lexer, new ComplexSymbolFactory());
-        return parser.parseProgram(debug);
+        if (!debug && input.length() >= PARALLEL_THRESHOLD) {
+            return ParallelParser.process(input);
+        }
+        return process(new StringReader(input), debug);
     }
-}
 
+    /** As for process(INPUT, DEBUG), additionally recording the cost of
+     *  lexing and parsing in STATS under "parse". */
+    public static Program process(String input, boolean debug,
+                                  CompilerStats stats) {
+        try (CompilerStats.Timer timer = stats.time("parse")) {
+            return process(input, debug);
+        }
+    }
+
+    /** Return the Program AST resulting from parsing INPUT sequentially,
+     *  whatever its length. */
+    public static Program processSequentially(String input) {
+        return process(new StringReader(input), false);
+    }
 
+    /** Return the Program AST resulting from parsing INPUT in parallel,
+     *  whatever its length, in pieces of at least MINPIECE characters
+     *  (see ParallelParser).  Small pieces exercise the joining of pieces
+     *  on small inputs. */
+    public static Program processInPieces(String input, int minPiece) {
+        return ParallelParser.process(input, minPiece);
+    }
+
+    /** Return the Program AST resulting from parsing the UTF-8 text of
+     *  FILE.  The file is read as by ByteBufferReader.map and lexed in
+     *  place, so that its contents are never copied into a String.  Turn on parser
+     *  debugging iff DEBUG. */
+    public static Program process(Path file, boolean debug)
+        throws IOException {
+        return process(ByteBufferReader.map(file), debug);
+    }
+
+    /** Return the Program AST resulting from parsing the UTF-8 text from
+     *  the position of BYTES, typically a mapping of a file, to its
+     *  limit, which is lexed in place.  BYTES is consumed.  Turn on
+     *  parser debugging iff DEBUG. */
+    public static Program process(ByteBuffer bytes, boolean debug) {
+        if (!debug && bytes.remaining() >= PARALLEL_THRESHOLD) {
+            return ParallelParser.process(bytes);
+        }
+        return process(new ByteBufferReader(bytes), debug);
+    }
+
+    /** As for process(BYTES, DEBUG), additionally recording the cost of
+     *  lexing and parsing in STATS under "parse". */
+    public static Program process(ByteBuffer bytes, boolean debug,
+                                  CompilerStats stats) {
+        try (CompilerStats.Timer timer = stats.time("parse")) {
+            return process(bytes, debug);
+        }
+    }
+
+    /** As for process(FILE, DEBUG), additionally recording the cost of
+     *  lexing and parsing in STATS under "parse". */
+    public static Program process(Path file, boolean debug,
+                                  CompilerStats stats) throws IOException {
+        try (CompilerStats.Timer timer = stats.time("parse")) {
+            return process(file, debug);
+        }
+    }
+
+    /** Return the Program AST resulting from parsing the text read from
+     *  INPUT, sequentially.  Turn on parser debugging iff DEBUG. */
+    static Program process(Reader input, boolean debug) {
+        return parser(input).parseProgram(debug);
+    }
+
+    /** Return a parser of the text read from INPUT. */
+    static PyLangParser parser(Reader input) {
+        PyLangLexer lexer = new PyLangLexer(input);
+        return new PyLangParser(lexer, lexer.symbolFactory);
+    }
+}
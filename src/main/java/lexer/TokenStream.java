@@ -0,0 +1,106 @@
+package lexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Path;
+
+/**
+ * The tokens of PyLang source, straight from the lexer, for clients
+ * such as syntax highlighters that need no AST.
+ *
+ * A stream is a cursor: next() advances it to the following token, whose
+ * kind, position and value are then available from the accessors.  No
+ * symbol or Location objects are created along the way, positions being
+ * packed into ints (see PyLangLexer.pack), and the values of keywords,
+ * operators and repeated identifiers are shared, so lexing this way
+ * allocates next to nothing.  Like the parser, a stream sees INDENT,
+ * DEDENT and NEWLINE tokens; it ends before the EOF token.
+ */
+public class TokenStream {
+
+    /** The lexer, set not to build symbols. */
+    private final PyLangLexer lexer;
+    /** Number of tokens returned so far. */
+    private long count;
+    /** True once EOF has been reached. */
+    private boolean done;
+
+    /** A stream of the tokens of the text read from INPUT. */
+    public TokenStream(Reader input) {
+        lexer = new PyLangLexer(input);
+        lexer.symbols = false;
+    }
+
+    /** A stream of the tokens of INPUT. */
+    public TokenStream(String input) {
+        this(new StringReader(input));
+    }
+
+    /** Return a stream of the tokens of the UTF-8 text of FILE, which is
+     *  read as by ByteBufferReader.map and lexed in place. */
+    public static TokenStream open(Path file) throws IOException {
+        return new TokenStream(ByteBufferReader.open(file));
+    }
+
+    /** Advance to the next token, returning false if there is none. */
+    public boolean next() throws IOException {
+        if (done) {
+            return false;
+        }
+        lexer.next_token();
+        if (lexer.tokenKind == PyLangTokens.EOF) {
+            done = true;
+            return false;
+        }
+        count += 1;
+        return true;
+    }
+
+    /** Return the syntactic category of the current token, one of the
+     *  constants of PyLangTokens. */
+    public int kind() {
+        return lexer.tokenKind;
+    }
+
+    /** Return the name of the category of the current token, as in
+     *  "IDENTIFIER". */
+    public String kindName() {
+        return PyLangTokens.terminalNames[lexer.tokenKind];
+    }
+
+    /** Return the packed position of the first character of the current
+     *  token.  Its line and column are given by line and column. */
+    public int start() {
+        return lexer.tokenStart;
+    }
+
+    /** Return the packed position of the last character of the current
+     *  token, as for start(). */
+    public int end() {
+        return lexer.tokenEnd;
+    }
+
+    /** Return the line of POSITION, a packed position returned by start()
+     *  or end() for this or any earlier token. */
+    public int line(int position) {
+        return lexer.line(position);
+    }
+
+    /** Return the column of POSITION, as for line(POSITION). */
+    public int column(int position) {
+        return lexer.column(position);
+    }
+
+    /** Return the semantic value of the current token: an Integer for an
+     *  INTEGER, the contents of a STRING or IDSTRING, and otherwise its
+     *  text. */
+    public Object value() {
+        return lexer.tokenValue;
+    }
+
+    /** Return the number of tokens returned so far. */
+    public long count() {
+        return count;
+    }
+}
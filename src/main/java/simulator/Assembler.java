@@ -0,0 +1,866 @@
+package simulator;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static simulator.Executable.*;
+
+/**
+ * An assembler for the subset of RISC-V assembly language produced by
+ * the code generator and the runtime routines in src/main/asm.
+ *
+ * An Assembler is a Writer: assembly text written to it is assembled a
+ * line at a time, so a RiscVBackend can stream a program straight into it
+ * without the text ever being held in memory as a whole.  Once all text
+ * has been written, finish() resolves label references and returns the
+ * program.  Supported are the directives .data, .text, .globl, .word,
+ * .string, .align and .equiv; the RV32IM instructions used by the code
+ * generator; and the usual pseudo-instructions (li, la, mv, j, jr, beqz,
+ * and so on), including the two-operand forms of lw and sw for globals.
+ * Pseudo-instructions expand into as many instructions as on the
+ * hardware (la, for instance, into lui and addi), so that instruction
+ * counts and code addresses match, and immediates and branch offsets
+ * must fit their fields.
+ */
+public class Assembler extends Writer {
+
+    /** Register numbers by name. */
+    private static final Map<String, Integer> REGISTERS = new HashMap<>();
+
+    static {
+        String[] names = {
+            "zero", "ra", "sp", "gp", "tp", "t0", "t1", "t2", "fp", "s1",
+            "a0", "a1", "a2", "a3", "a4", "a5", "a6", "a7",
+            "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9", "s10", "s11",
+            "t3", "t4", "t5", "t6"
+        };
+        for (int i = 0; i < names.length; i += 1) {
+            REGISTERS.put(names[i], i);
+            REGISTERS.put("x" + i, i);
+        }
+        REGISTERS.put("s0", 8);
+    }
+
+    /** Register numbers of zero and ra. */
+    private static final int ZERO = 0, RA = 1;
+
+    /** Kinds of reference to be resolved once all labels are known: the
+     *  value of an expression, the index of the instruction at a code
+     *  label, and the upper 20 and lower 12 bits of the value of an
+     *  expression, as split between a lui and the instruction after it. */
+    private static final int VALUE = 0, TARGET = 1, HI = 2, LO = 3;
+
+    /** A reference to an expression whose value is not yet known. */
+    private static class Fixup {
+        /** Index of the instruction, or byte offset of the data word, that
+         *  receives the value. */
+        final int where;
+        /** Kind of value (VALUE or TARGET). */
+        final int kind;
+        /** The expression. */
+        final String expr;
+        /** Source line, for errors. */
+        final int line;
+
+        Fixup(int where, int kind, String expr, int line) {
+            this.where = where;
+            this.kind = kind;
+            this.expr = expr;
+            this.line = line;
+        }
+    }
+
+    /** Decoded instructions, immediates and source lines so far. */
+    private int[] insns = new int[1024], imms = new int[1024],
+        lines = new int[1024];
+    /** Number of instructions so far. */
+    private int size;
+
+    /** Data segment so far. */
+    private byte[] data = new byte[4096];
+    /** Number of bytes in DATA. */
+    private int dataSize;
+
+    /** True iff assembling into the data segment. */
+    private boolean inData;
+
+    /** Addresses of labels, by name. */
+    private final Map<String, Integer> labels = new HashMap<>();
+    /** Definitions of .equiv symbols, by name (including the '@'). */
+    private final Map<String, String> equivs = new HashMap<>();
+    /** Values of .equiv symbols evaluated so far. */
+    private final Map<String, Integer> equivValues = new HashMap<>();
+
+    /** Unresolved references from instructions and from data. */
+    private final List<Fixup> codeFixups = new ArrayList<>(),
+        dataFixups = new ArrayList<>();
+
+    /** Text of the current, incomplete line. */
+    private final StringBuilder pending = new StringBuilder();
+    /** Number of the current line. */
+    private int lineNumber = 1;
+
+    /** Return the program in TEXT. */
+    public static Executable assemble(String text) {
+        Assembler assembler = new Assembler();
+        assembler.write(text, 0, text.length());
+        return assembler.finish();
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+        for (int i = off; i < off + len; i += 1) {
+            char c = buf[i];
+            if (c == '\n') {
+                line(pending);
+                pending.setLength(0);
+                lineNumber += 1;
+            } else if (c != '\r') {
+                pending.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        for (int i = off; i < off + len; i += 1) {
+            char c = str.charAt(i);
+            if (c == '\n') {
+                line(pending);
+                pending.setLength(0);
+                lineNumber += 1;
+            } else if (c != '\r') {
+                pending.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /** Assemble any final unterminated line, resolve all references, and
+     *  return the program.  Throws IllegalArgumentException if a label is
+     *  undefined. */
+    public Executable finish() {
+        if (pending.length() > 0) {
+            line(pending);
+            pending.setLength(0);
+        }
+        for (Fixup fixup : codeFixups) {
+            imms[fixup.where] = resolve(fixup);
+            checkRange(fixup.where);
+        }
+        for (Fixup fixup : dataFixups) {
+            int value = resolve(fixup);
+            for (int k = 0; k < 4; k += 1) {
+                data[fixup.where + k] = (byte) (value >> (8 * k));
+            }
+        }
+
+        int[] words = new int[(dataSize + 3) / 4];
+        for (int i = 0; i < dataSize; i += 1) {
+            words[i >> 2] |= (data[i] & 0xff) << (8 * (i & 3));
+        }
+        Integer main = labels.get("main");
+        int entry = main == null ? 0 : (main - TEXT_BASE) >> 2;
+        return new Executable(Arrays.copyOf(insns, size),
+                              Arrays.copyOf(imms, size),
+                              Arrays.copyOf(lines, size),
+                              words, dataSize, entry, labels);
+    }
+
+    /** Assemble the source line TEXT. */
+    private void line(CharSequence text) {
+        String line = stripComment(text).trim();
+        if (line.isEmpty()) {
+            return;
+        }
+
+        int colon = labelEnd(line);
+        if (colon > 0) {
+            defineLabel(line.substring(0, colon).trim());
+            line = line.substring(colon + 1).trim();
+            if (line.isEmpty()) {
+                return;
+            }
+        }
+
+        int space = 0;
+        while (space < line.length()
+               && !Character.isWhitespace(line.charAt(space))) {
+            space += 1;
+        }
+        String op = line.substring(0, space);
+        String rest = line.substring(space).trim();
+
+        if (op.startsWith(".")) {
+            directive(op, rest);
+        } else {
+            if (inData) {
+                throw error("instruction in data segment");
+            }
+            instruction(op, rest.isEmpty() ? new String[0]
+                        : rest.split("\\s*,\\s*"));
+        }
+    }
+
+    /** Return TEXT without any comment, taking care not to mistake a '#'
+     *  in a string literal for the start of a comment. */
+    private static String stripComment(CharSequence text) {
+        boolean inString = false;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (inString && c == '\\') {
+                i += 1;
+            } else if (c == '"') {
+                inString = !inString;
+            } else if (c == '#' && !inString) {
+                return text.subSequence(0, i).toString();
+            }
+        }
+        return text.toString();
+    }
+
+    /** Return the index of the ':' ending a label at the start of LINE,
+     *  or -1 if LINE does not start with a label. */
+    private static int labelEnd(String line) {
+        int i = 0;
+        while (i < line.length() && isSymbolChar(line.charAt(i))) {
+            i += 1;
+        }
+        if (i == 0 || i == line.length() || line.charAt(i) != ':') {
+            return -1;
+        }
+        return i;
+    }
+
+    /** Return true iff C may appear in a symbol. */
+    private static boolean isSymbolChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.'
+            || c == '$' || c == '@';
+    }
+
+    /** Define label NAME at the current position. */
+    private void defineLabel(String name) {
+        if (labels.containsKey(name)) {
+            throw error("duplicate label " + name);
+        }
+        labels.put(name, inData ? DATA_BASE + dataSize : TEXT_BASE + 4 * size);
+    }
+
+    /** Assemble directive OP with operands REST. */
+    private void directive(String op, String rest) {
+        switch (op) {
+        case ".data":
+            inData = true;
+            break;
+        case ".text":
+            inData = false;
+            break;
+        case ".globl":
+            break;
+        case ".align":
+            if (inData) {
+                int alignment = 1 << parseInt(rest);
+                while (dataSize % alignment != 0) {
+                    addData((byte) 0);
+                }
+            }
+            break;
+        case ".word":
+            requireData(op);
+            for (String value : rest.split("\\s*,\\s*")) {
+                if (isNumber(value)) {
+                    addWord(parseInt(value));
+                } else {
+                    dataFixups.add(new Fixup(dataSize, VALUE, value,
+                                             lineNumber));
+                    addWord(0);
+                }
+            }
+            break;
+        case ".string":
+        case ".asciiz":
+            requireData(op);
+            for (byte b : unquote(rest).getBytes(StandardCharsets.UTF_8)) {
+                addData(b);
+            }
+            addData((byte) 0);
+            break;
+        case ".equiv":
+        case ".equ":
+        case ".set": {
+            String[] parts = rest.split("\\s*,\\s*", 2);
+            if (parts.length != 2) {
+                throw error("malformed " + op);
+            }
+            equivs.put(parts[0], parts[1]);
+            break;
+        }
+        default:
+            throw error("unknown directive " + op);
+        }
+    }
+
+    /** Assemble instruction OP with operands ARGS. */
+    private void instruction(String op, String[] args) {
+        switch (op) {
+        case "add": case "sub": case "mul": case "div": case "divu":
+        case "rem": case "remu": case "and": case "or": case "xor":
+        case "sll": case "srl": case "sra": case "slt": case "sltu":
+        case "mulh": case "mulhu": case "mulhsu":
+            arity(args, 3);
+            emit(registerOp(op), reg(args[0]), reg(args[1]), reg(args[2]),
+                 0);
+            break;
+        case "addi": case "andi": case "ori": case "xori": case "slli":
+        case "srli": case "srai": case "slti": case "sltiu":
+            arity(args, 3);
+            emit(immediateOp(op), reg(args[0]), reg(args[1]), ZERO,
+                 args[2], VALUE);
+            break;
+        case "lui":
+            arity(args, 2);
+            emit(LUI, reg(args[0]), ZERO, ZERO, args[1], VALUE);
+            break;
+        case "li": {
+            arity(args, 2);
+            Integer value = constant(args[1]);
+            if (value == null) {
+                emitAbsolute(ADDI, reg(args[0]), reg(args[0]), ZERO, args[1]);
+            } else if (value >= -2048 && value < 2048) {
+                emit(ADDI, reg(args[0]), ZERO, ZERO, value);
+            } else {
+                emit(LUI, reg(args[0]), ZERO, ZERO, hi(value));
+                emit(ADDI, reg(args[0]), reg(args[0]), ZERO, lo(value));
+            }
+            break;
+        }
+        case "la":
+            arity(args, 2);
+            emitAbsolute(ADDI, reg(args[0]), reg(args[0]), ZERO, args[1]);
+            break;
+        case "mv":
+            arity(args, 2);
+            emit(ADDI, reg(args[0]), reg(args[1]), ZERO, 0);
+            break;
+        case "neg":
+            arity(args, 2);
+            emit(SUB, reg(args[0]), ZERO, reg(args[1]), 0);
+            break;
+        case "not":
+            arity(args, 2);
+            emit(XORI, reg(args[0]), reg(args[1]), ZERO, -1);
+            break;
+        case "seqz":
+            arity(args, 2);
+            emit(SLTIU, reg(args[0]), reg(args[1]), ZERO, 1);
+            break;
+        case "snez":
+            arity(args, 2);
+            emit(SLTU, reg(args[0]), ZERO, reg(args[1]), 0);
+            break;
+        case "nop":
+            emit(ADDI, ZERO, ZERO, ZERO, 0);
+            break;
+        case "lw": case "lb": case "lbu": case "lh": case "lhu":
+            arity(args, 2);
+            if (args[1].endsWith(")")) {
+                memory(loadOp(op), reg(args[0]), ZERO, args[1]);
+            } else {
+                emitAbsolute(loadOp(op), reg(args[0]), reg(args[0]), ZERO,
+                             args[1]);
+            }
+            break;
+        case "sw": case "sb": case "sh":
+            if (args.length == 3) {
+                emitAbsolute(storeOp(op), ZERO, reg(args[2]), reg(args[0]),
+                             args[1]);
+            } else {
+                arity(args, 2);
+                memory(storeOp(op), ZERO, reg(args[0]), args[1]);
+            }
+            break;
+        case "beq": case "bne": case "blt": case "bge": case "bltu":
+        case "bgeu":
+            arity(args, 3);
+            emit(branchOp(op), ZERO, reg(args[0]), reg(args[1]), args[2],
+                 TARGET);
+            break;
+        case "bgt": case "ble": case "bgtu": case "bleu":
+            arity(args, 3);
+            emit(branchOp(op), ZERO, reg(args[1]), reg(args[0]), args[2],
+                 TARGET);
+            break;
+        case "beqz":
+            arity(args, 2);
+            emit(BEQ, ZERO, reg(args[0]), ZERO, args[1], TARGET);
+            break;
+        case "bnez":
+            arity(args, 2);
+            emit(BNE, ZERO, reg(args[0]), ZERO, args[1], TARGET);
+            break;
+        case "bltz":
+            arity(args, 2);
+            emit(BLT, ZERO, reg(args[0]), ZERO, args[1], TARGET);
+            break;
+        case "bgez":
+            arity(args, 2);
+            emit(BGE, ZERO, reg(args[0]), ZERO, args[1], TARGET);
+            break;
+        case "bgtz":
+            arity(args, 2);
+            emit(BLT, ZERO, ZERO, reg(args[0]), args[1], TARGET);
+            break;
+        case "blez":
+            arity(args, 2);
+            emit(BGE, ZERO, ZERO, reg(args[0]), args[1], TARGET);
+            break;
+        case "j":
+            arity(args, 1);
+            emit(JAL, ZERO, ZERO, ZERO, args[0], TARGET);
+            break;
+        case "jal":
+            if (args.length == 1) {
+                emit(JAL, RA, ZERO, ZERO, args[0], TARGET);
+            } else {
+                arity(args, 2);
+                emit(JAL, reg(args[0]), ZERO, ZERO, args[1], TARGET);
+            }
+            break;
+        case "jr":
+            arity(args, 1);
+            emit(JALR, ZERO, reg(args[0]), ZERO, 0);
+            break;
+        case "ret":
+            emit(JALR, ZERO, RA, ZERO, 0);
+            break;
+        case "jalr":
+            if (args.length == 1) {
+                emit(JALR, RA, reg(args[0]), ZERO, 0);
+            } else if (args.length == 2) {
+                memory(JALR, reg(args[0]), ZERO, args[1]);
+            } else {
+                arity(args, 3);
+                emit(JALR, reg(args[0]), reg(args[1]), ZERO, args[2],
+                     VALUE);
+            }
+            break;
+        case "ecall":
+            emit(ECALL, ZERO, ZERO, ZERO, 0);
+            break;
+        default:
+            throw error("unknown instruction " + op);
+        }
+    }
+
+    /** Emit OP with register RD or RS2 and the memory operand OPERAND, of
+     *  the form OFFSET(BASE). */
+    private void memory(int op, int rd, int rs2, String operand) {
+        int open = operand.lastIndexOf('(');
+        if (open < 0 || !operand.endsWith(")")) {
+            throw error("malformed memory operand " + operand);
+        }
+        String offset = operand.substring(0, open).trim();
+        int base = reg(operand.substring(open + 1, operand.length() - 1));
+        emit(op, rd, base, rs2, offset.isEmpty() ? "0" : offset, VALUE);
+    }
+
+    /** Emit instruction OP with registers RD, RS1, RS2 and the immediate
+     *  expression EXPR, whose value is resolved as KIND. */
+    private void emit(int op, int rd, int rs1, int rs2, String expr,
+                      int kind) {
+        if (kind == VALUE && isNumber(expr)) {
+            emit(op, rd, rs1, rs2, parseInt(expr));
+        } else {
+            codeFixups.add(new Fixup(size, kind, expr, lineNumber));
+            add(op, rd, rs1, rs2, 0);
+        }
+    }
+
+    /** Emit a lui of the upper bits of the value of EXPR into register
+     *  BASE, followed by instruction OP with registers RD, BASE and RS2
+     *  and the lower bits as its immediate, so that OP uses the address
+     *  EXPR. */
+    private void emitAbsolute(int op, int rd, int base, int rs2,
+                              String expr) {
+        emit(LUI, base, ZERO, ZERO, expr, HI);
+        emit(op, rd, base, rs2, expr, LO);
+    }
+
+    /** Emit instruction OP with registers RD, RS1, RS2 and immediate
+     *  IMM.  Throws IllegalArgumentException if IMM does not fit. */
+    private void emit(int op, int rd, int rs1, int rs2, int imm) {
+        add(op, rd, rs1, rs2, imm);
+        checkRange(size - 1);
+    }
+
+    /** Append instruction OP with registers RD, RS1, RS2 and immediate
+     *  IMM. */
+    private void add(int op, int rd, int rs1, int rs2, int imm) {
+        if (size == insns.length) {
+            insns = Arrays.copyOf(insns, 2 * size);
+            imms = Arrays.copyOf(imms, 2 * size);
+            lines = Arrays.copyOf(lines, 2 * size);
+        }
+        insns[size] = pack(op, rd, rs1, rs2);
+        imms[size] = imm;
+        lines[size] = lineNumber;
+        size += 1;
+    }
+
+    /** Check that the immediate of the instruction at index I fits its
+     *  field: 12 bits for most, 20 for lui, and the offset to the target
+     *  of a branch or jump within 13 or 21 bits. */
+    private void checkRange(int i) {
+        int op = insns[i] & 0xff;
+        int imm = imms[i];
+        long low, high;
+        switch (op) {
+        case SLLI: case SRLI: case SRAI:
+            low = 0;
+            high = 31;
+            break;
+        case LUI:
+            low = 0;
+            high = 0xfffff;
+            break;
+        case BEQ: case BNE: case BLT: case BGE: case BLTU: case BGEU:
+            imm = 4 * (imm - i);
+            low = -4096;
+            high = 4094;
+            break;
+        case JAL:
+            imm = 4 * (imm - i);
+            low = -(1 << 20);
+            high = (1 << 20) - 2;
+            break;
+        case ADDI: case ANDI: case ORI: case XORI: case SLTI: case SLTIU:
+        case LW: case LB: case LBU: case LH: case LHU:
+        case SW: case SB: case SH: case JALR:
+            low = -2048;
+            high = 2047;
+            break;
+        default:
+            return;
+        }
+        if (imm < low || imm > high) {
+            int saved = lineNumber;
+            lineNumber = lines[i];
+            try {
+                throw error((op == JAL || op >= BEQ && op <= BGEU
+                             ? "offset " : "immediate ")
+                            + imm + " out of range " + low + ".." + high);
+            } finally {
+                lineNumber = saved;
+            }
+        }
+    }
+
+    /** Return the upper 20 bits of VALUE, as loaded by a lui that is
+     *  followed by an instruction adding lo(VALUE). */
+    private static int hi(int value) {
+        return ((value + 0x800) >>> 12) & 0xfffff;
+    }
+
+    /** Return the sign-extended lower 12 bits of VALUE. */
+    private static int lo(int value) {
+        return (value << 20) >> 20;
+    }
+
+    /** Return the value FIXUP refers to. */
+    private int resolve(Fixup fixup) {
+        int saved = lineNumber;
+        lineNumber = fixup.line;
+        try {
+            switch (fixup.kind) {
+            case TARGET: {
+                Integer address = labels.get(fixup.expr);
+                if (address == null || address < TEXT_BASE
+                    || address >= TEXT_BASE + 4 * size + 4) {
+                    throw error("undefined code label " + fixup.expr);
+                }
+                return (address - TEXT_BASE) >> 2;
+            }
+            case HI:
+                return hi(evaluate(fixup.expr, new ArrayList<>()));
+            case LO:
+                return lo(evaluate(fixup.expr, new ArrayList<>()));
+            default:
+                return evaluate(fixup.expr, new ArrayList<>());
+            }
+        } finally {
+            lineNumber = saved;
+        }
+    }
+
+    /** Return the value of EXPR if it is made of numbers and .equiv
+     *  symbols whose values are already known, or null if it needs a
+     *  label or a symbol not yet defined. */
+    private Integer constant(String expr) {
+        for (String term : expr.split("[-+]")) {
+            term = term.trim();
+            if (term.isEmpty() || isNumber(term)) {
+                continue;
+            }
+            if (!term.startsWith("@") || !knownSymbol(term, new ArrayList<>())) {
+                return null;
+            }
+        }
+        return evaluate(expr, new ArrayList<>());
+    }
+
+    /** Return true iff .equiv symbol SYMBOL is defined, in terms of
+     *  numbers and other such symbols.  ACTIVE holds the symbols being
+     *  checked, to stop at circular definitions. */
+    private boolean knownSymbol(String symbol, List<String> active) {
+        if (equivValues.containsKey(symbol)) {
+            return true;
+        }
+        String definition = equivs.get(symbol);
+        if (definition == null || active.contains(symbol)) {
+            return false;
+        }
+        active.add(symbol);
+        for (String term : definition.split("[-+]")) {
+            term = term.trim();
+            if (!term.isEmpty() && !isNumber(term)
+                && (!term.startsWith("@") || !knownSymbol(term, active))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the value of EXPR: a sum or difference of numbers, labels
+     *  and .equiv symbols.  ACTIVE holds the symbols being evaluated, to
+     *  detect circular definitions. */
+    private int evaluate(String expr, List<String> active) {
+        int result = 0;
+        int sign = 1;
+        int start = 0;
+        expr = expr.trim();
+        for (int i = 1; i <= expr.length(); i += 1) {
+            if (i == expr.length() || expr.charAt(i) == '+'
+                || expr.charAt(i) == '-') {
+                String term = expr.substring(start, i).trim();
+                if (term.startsWith("-") || term.startsWith("+")) {
+                    term = term.substring(1).trim();
+                    if (expr.charAt(start) == '-') {
+                        sign = -sign;
+                    }
+                }
+                result += sign * term(term, active);
+                if (i < expr.length()) {
+                    sign = expr.charAt(i) == '-' ? -1 : 1;
+                    start = i + 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the value of TERM, a number, label or .equiv symbol. */
+    private int term(String term, List<String> active) {
+        if (isNumber(term)) {
+            return parseInt(term);
+        }
+        if (term.startsWith("@")) {
+            Integer value = equivValues.get(term);
+            if (value != null) {
+                return value;
+            }
+            String definition = equivs.get(term);
+            if (definition == null) {
+                throw error("undefined symbol " + term);
+            }
+            if (active.contains(term)) {
+                throw error("circular definition of " + term);
+            }
+            active.add(term);
+            value = evaluate(definition, active);
+            active.remove(term);
+            equivValues.put(term, value);
+            return value;
+        }
+        Integer address = labels.get(term);
+        if (address == null) {
+            throw error("undefined label " + term);
+        }
+        return address;
+    }
+
+    /** Return true iff TEXT is an integer numeral. */
+    private static boolean isNumber(String text) {
+        int i = text.startsWith("-") || text.startsWith("+") ? 1 : 0;
+        return i < text.length() && Character.isDigit(text.charAt(i));
+    }
+
+    /** Return the value of the decimal or hexadecimal numeral TEXT. */
+    private int parseInt(String text) {
+        try {
+            String digits = text.trim();
+            boolean negative = digits.startsWith("-");
+            if (negative || digits.startsWith("+")) {
+                digits = digits.substring(1);
+            }
+            long value = digits.startsWith("0x") || digits.startsWith("0X")
+                ? Long.parseLong(digits.substring(2), 16)
+                : Long.parseLong(digits);
+            return (int) (negative ? -value : value);
+        } catch (NumberFormatException e) {
+            throw error("malformed number " + text);
+        }
+    }
+
+    /** Return the contents of the string literal TEXT. */
+    private String unquote(String text) {
+        if (text.length() < 2 || !text.startsWith("\"")
+            || !text.endsWith("\"")) {
+            throw error("malformed string " + text);
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 1; i < text.length() - 1; i += 1) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length() - 1) {
+                i += 1;
+                switch (text.charAt(i)) {
+                case 'n': c = '\n'; break;
+                case 't': c = '\t'; break;
+                case 'r': c = '\r'; break;
+                case '0': c = '\0'; break;
+                default: c = text.charAt(i); break;
+                }
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    /** Return the number of register NAME. */
+    private int reg(String name) {
+        Integer result = REGISTERS.get(name.trim());
+        if (result == null) {
+            throw error("unknown register " + name);
+        }
+        return result;
+    }
+
+    /** Check that there are N operands in ARGS. */
+    private void arity(String[] args, int n) {
+        if (args.length != n) {
+            throw error("expected " + n + " operands");
+        }
+    }
+
+    /** Check that directive OP is in the data segment. */
+    private void requireData(String op) {
+        if (!inData) {
+            throw error(op + " outside data segment");
+        }
+    }
+
+    /** Append the little-endian word VALUE to the data segment. */
+    private void addWord(int value) {
+        for (int k = 0; k < 4; k += 1) {
+            addData((byte) (value >> (8 * k)));
+        }
+    }
+
+    /** Append B to the data segment. */
+    private void addData(byte b) {
+        if (dataSize == data.length) {
+            data = Arrays.copyOf(data, 2 * dataSize);
+        }
+        data[dataSize] = b;
+        dataSize += 1;
+    }
+
+    /** Return an exception reporting MESSAGE at the current line. */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("line " + lineNumber + ": "
+                                            + message);
+    }
+
+    /** Return the opcode of register-register instruction OP. */
+    private static int registerOp(String op) {
+        switch (op) {
+        case "add": return ADD;
+        case "sub": return SUB;
+        case "mul": return MUL;
+        case "div": return DIV;
+        case "divu": return DIVU;
+        case "rem": return REM;
+        case "remu": return REMU;
+        case "and": return AND;
+        case "or": return OR;
+        case "xor": return XOR;
+        case "sll": return SLL;
+        case "srl": return SRL;
+        case "sra": return SRA;
+        case "slt": return SLT;
+        case "sltu": return SLTU;
+        case "mulh": return MULH;
+        case "mulhu": return MULHU;
+        default: return MULHSU;
+        }
+    }
+
+    /** Return the opcode of register-immediate instruction OP. */
+    private static int immediateOp(String op) {
+        switch (op) {
+        case "addi": return ADDI;
+        case "andi": return ANDI;
+        case "ori": return ORI;
+        case "xori": return XORI;
+        case "slli": return SLLI;
+        case "srli": return SRLI;
+        case "srai": return SRAI;
+        case "slti": return SLTI;
+        default: return SLTIU;
+        }
+    }
+
+    /** Return the opcode of load instruction OP. */
+    private static int loadOp(String op) {
+        switch (op) {
+        case "lw": return LW;
+        case "lb": return LB;
+        case "lbu": return LBU;
+        case "lh": return LH;
+        default: return LHU;
+        }
+    }
+
+    /** Return the opcode of store instruction OP. */
+    private static int storeOp(String op) {
+        switch (op) {
+        case "sw": return SW;
+        case "sb": return SB;
+        default: return SH;
+        }
+    }
+
+    /** Return the opcode of branch instruction OP, taking the operand
+     *  swap of bgt, ble, bgtu and bleu into account. */
+    private static int branchOp(String op) {
+        switch (op) {
+        case "beq": return BEQ;
+        case "bne": return BNE;
+        case "blt": case "bgt": return BLT;
+        case "bge": case "ble": return BGE;
+        case "bltu": case "bgtu": return BLTU;
+        default: return BGEU;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package simulator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An assembled RISC-V program, ready to run in an Interpreter.
+ *
+ * Instructions are pre-decoded into two parallel int arrays.  Each entry
+ * of INSNS packs an opcode (one of the constants below) in its low byte
+ * and the numbers of the destination and two source registers in the
+ * following bytes; IMMS holds the immediate operand, which for branches
+ * and jumps is the index of the target instruction.  Pseudo-instructions
+ * are expanded into the basic operations when assembled, so that the
+ * interpreter handles only these.
+ */
+public class Executable {
+
+    /** Opcodes of decoded instructions. */
+    public static final int
+        ADD = 0, SUB = 1, MUL = 2, DIV = 3, DIVU = 4, REM = 5, REMU = 6,
+        AND = 7, OR = 8, XOR = 9, SLL = 10, SRL = 11, SRA = 12, SLT = 13,
+        SLTU = 14, MULH = 15, MULHU = 16, MULHSU = 17,
+        ADDI = 20, ANDI = 21, ORI = 22, XORI = 23, SLLI = 24, SRLI = 25,
+        SRAI = 26, SLTI = 27, SLTIU = 28, LUI = 29,
+        LW = 30, LB = 31, LBU = 32, LH = 33, LHU = 34,
+        SW = 35, SB = 36, SH = 37,
+        BEQ = 40, BNE = 41, BLT = 42, BGE = 43, BLTU = 44, BGEU = 45,
+        JAL = 46, JALR = 47, ECALL = 48;
+
+    /** Number of opcodes. */
+    public static final int OPCODES = 49;
+
+    /** Mnemonics of the opcodes, for diagnostics. */
+    private static final String[] MNEMONICS = new String[OPCODES];
+
+    static {
+        String[] names = {
+            "add", "sub", "mul", "div", "divu", "rem", "remu", "and", "or",
+            "xor", "sll", "srl", "sra", "slt", "sltu", "mulh", "mulhu",
+            "mulhsu"
+        };
+        System.arraycopy(names, 0, MNEMONICS, 0, names.length);
+        names = new String[] {
+            "addi", "andi", "ori", "xori", "slli", "srli", "srai", "slti",
+            "sltiu", "lui", "lw", "lb", "lbu", "lh", "lhu", "sw", "sb", "sh"
+        };
+        System.arraycopy(names, 0, MNEMONICS, ADDI, names.length);
+        names = new String[] {
+            "beq", "bne", "blt", "bge", "bltu", "bgeu", "jal", "jalr",
+            "ecall"
+        };
+        System.arraycopy(names, 0, MNEMONICS, BEQ, names.length);
+    }
+
+    /** Address of the first instruction. */
+    public static final int TEXT_BASE = 0x00400000;
+
+    /** Address of the start of the data segment. */
+    public static final int DATA_BASE = 0x10000000;
+
+    /** Decoded instructions, as described above. */
+    final int[] insns;
+    /** Immediate operands of INSNS. */
+    final int[] imms;
+    /** Source line number of each instruction. */
+    final int[] lines;
+    /** Initial contents of the data segment, in little-endian words. */
+    final int[] data;
+    /** Size of the data segment in bytes. */
+    final int dataSize;
+    /** Index of the first instruction to execute. */
+    final int entry;
+    /** Addresses of all labels, by name. */
+    private final Map<String, Integer> labels;
+
+    Executable(int[] insns, int[] imms, int[] lines, int[] data,
+               int dataSize, int entry, Map<String, Integer> labels) {
+        this.insns = insns;
+        this.imms = imms;
+        this.lines = lines;
+        this.data = data;
+        this.dataSize = dataSize;
+        this.entry = entry;
+        this.labels = Collections.unmodifiableMap(labels);
+    }
+
+    /** Return the number of instructions. */
+    public int size() {
+        return insns.length;
+    }
+
+    /** Return the size of the initialized data segment, in bytes. */
+    public int getDataSize() {
+        return dataSize;
+    }
+
+    /** Return the addresses of all labels, by name. */
+    public Map<String, Integer> getLabels() {
+        return labels;
+    }
+
+    /** Return the source line of the instruction at ADDRESS, or -1 if
+     *  ADDRESS is not that of an instruction. */
+    public int getLine(int address) {
+        int index = (address - TEXT_BASE) >> 2;
+        if (index < 0 || index >= lines.length) {
+            return -1;
+        }
+        return lines[index];
+    }
+
+    /** Return the instruction at index I in readable form. */
+    public String describe(int i) {
+        int insn = insns[i];
+        return String.format("%s x%d, x%d, x%d, %d",
+                             MNEMONICS[insn & 0xff], (insn >> 8) & 0xff,
+                             (insn >> 16) & 0xff, insn >>> 24, imms[i]);
+    }
+
+    /** Return a copy of the initial data segment, with room for at least
+     *  WORDS words. */
+    int[] copyData(int words) {
+        return Arrays.copyOf(data, Math.max(words, data.length));
+    }
+
+    /** Return the packed form of an instruction with opcode OP and
+     *  registers RD, RS1 and RS2. */
+    static int pack(int op, int rd, int rs1, int rs2) {
+        return op | rd << 8 | rs1 << 16 | rs2 << 24;
+    }
+}
@@ -0,0 +1,460 @@
+package simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import static simulator.Executable.*;
+
+/**
+ * An interpreter for assembled RISC-V programs.
+ *
+ * Memory is modelled as two flat word arrays: one for the data segment
+ * and the heap above it, which grows as the program calls sbrk, and one
+ * for the stack, which ends at the conventional initial stack pointer.
+ * Accesses outside them, or misaligned word accesses, are faults.  The
+ * environment calls used by the runtime (print_int, print_string,
+ * print_char, sbrk, exit, exit2, fill_line_buffer and read_string) are
+ * supported, with the same numbering as the Venus simulator.
+ */
+public class Interpreter {
+
+    /** An error in the simulated program, such as a bad memory access. */
+    public static class Fault extends RuntimeException {
+        Fault(String message) {
+            super(message);
+        }
+    }
+
+    /** Initial value of the stack pointer. */
+    public static final int STACK_TOP = 0x7ffffff0;
+
+    /** Default size of the stack and largest default heap, in bytes. */
+    public static final int DEFAULT_STACK_SIZE = 8 << 20,
+        DEFAULT_MEMORY_LIMIT = 1 << 30;
+
+    /** Register numbers with special roles. */
+    private static final int SP = 2, A0 = 10, A1 = 11, A2 = 12;
+
+    /** Ecall numbers (in a0). */
+    private static final int PRINT_INT = 1, PRINT_STRING = 4,
+        READ_STRING = 8, SBRK = 9, EXIT = 10, PRINT_CHAR = 11, EXIT2 = 17,
+        FILL_LINE_BUFFER = 18;
+
+    /** The program. */
+    private final Executable program;
+    /** Source of input and destination of output of the program. */
+    private final InputStream in;
+    private final OutputStream out;
+
+    /** Registers. */
+    private final int[] regs = new int[32];
+    /** Data segment and heap, from DATA_BASE. */
+    private int[] heap;
+    /** Current end of the heap, as an offset from DATA_BASE. */
+    private int brk;
+    /** Largest permitted value of BRK. */
+    private final int memoryLimit;
+    /** The stack, ending at STACK_TOP. */
+    private final int[] stack;
+    /** Address of the first byte of STACK. */
+    private final int stackBase;
+
+    /** Index of the next instruction. */
+    private int pc;
+    /** Number of instructions executed. */
+    private long instructions;
+    /** The exit code, once the program has exited. */
+    private int exitCode;
+    /** Number of times each instruction has executed, or null if not
+     *  counted. */
+    private long[] counts;
+
+    /** Output not yet written to OUT. */
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    /** The line read by the most recent fill_line_buffer, and the number
+     *  of its bytes already consumed by read_string. */
+    private byte[] lineBuffer = new byte[0];
+    private int linePosition;
+
+    /** An interpreter for PROGRAM reading from IN and writing to OUT, with
+     *  the default stack size and memory limit. */
+    public Interpreter(Executable program, InputStream in, OutputStream out) {
+        this(program, in, out, DEFAULT_STACK_SIZE, DEFAULT_MEMORY_LIMIT);
+    }
+
+    /** An interpreter for PROGRAM reading from IN and writing to OUT, with
+     *  a stack of STACKSIZE bytes and at most MEMORYLIMIT bytes of data
+     *  and heap. */
+    public Interpreter(Executable program, InputStream in, OutputStream out,
+                       int stackSize, int memoryLimit) {
+        this.program = program;
+        this.in = in;
+        this.out = out;
+        this.memoryLimit = memoryLimit;
+        this.brk = (program.dataSize + 3) & ~3;
+        this.heap = program.copyData(brk / 4);
+        this.stack = new int[stackSize / 4];
+        this.stackBase = STACK_TOP - stackSize;
+        this.pc = program.entry;
+        regs[SP] = STACK_TOP;
+    }
+
+    /** Return the number of instructions executed so far. */
+    public long getInstructionCount() {
+        return instructions;
+    }
+
+    /** Return the exit code of the program, once it has exited. */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /** Count the executions of each instruction from now on iff
+     *  COUNT.  Counting slows the interpreter down somewhat. */
+    public void setCounting(boolean count) {
+        counts = count ? new long[program.insns.length] : null;
+    }
+
+    /** Return the number of times each instruction has executed, indexed
+     *  as the program's instructions, or null if not counting. */
+    public long[] getInstructionCounts() {
+        return counts;
+    }
+
+    /** Return the word at ADDRESS in the program's memory.  Throws Fault
+     *  if there is none. */
+    public int readWord(int address) {
+        return loadWord(address);
+    }
+
+    /** Return the current size of the data segment and heap, in bytes. */
+    public int getMemorySize() {
+        return brk;
+    }
+
+    /** Run the program until it exits or has executed LIMIT instructions
+     *  in all.  Returns true iff it exited.  Throws Fault if the program
+     *  does something illegal. */
+    public boolean run(long limit) {
+        final int[] insns = program.insns, imms = program.imms;
+        final int[] r = regs;
+        final long[] counts = this.counts;
+        int pc = this.pc;
+        long count = instructions;
+        try {
+            while (count < limit) {
+                if (pc >= insns.length) {
+                    throw new Fault("program counter out of range: "
+                                    + Integer.toHexString(TEXT_BASE + 4 * pc));
+                }
+                int insn = insns[pc];
+                int imm = imms[pc];
+                int rd = (insn >> 8) & 0xff, rs1 = (insn >> 16) & 0xff,
+                    rs2 = insn >>> 24;
+                count += 1;
+                if (counts != null) {
+                    counts[pc] += 1;
+                }
+                switch (insn & 0xff) {
+                case ADD: r[rd] = r[rs1] + r[rs2]; break;
+                case SUB: r[rd] = r[rs1] - r[rs2]; break;
+                case MUL: r[rd] = r[rs1] * r[rs2]; break;
+                case DIV: r[rd] = r[rs2] == 0 ? -1 : r[rs1] / r[rs2]; break;
+                case DIVU:
+                    r[rd] = r[rs2] == 0 ? -1
+                        : Integer.divideUnsigned(r[rs1], r[rs2]);
+                    break;
+                case REM: r[rd] = r[rs2] == 0 ? r[rs1] : r[rs1] % r[rs2]; break;
+                case REMU:
+                    r[rd] = r[rs2] == 0 ? r[rs1]
+                        : Integer.remainderUnsigned(r[rs1], r[rs2]);
+                    break;
+                case AND: r[rd] = r[rs1] & r[rs2]; break;
+                case OR: r[rd] = r[rs1] | r[rs2]; break;
+                case XOR: r[rd] = r[rs1] ^ r[rs2]; break;
+                case SLL: r[rd] = r[rs1] << r[rs2]; break;
+                case SRL: r[rd] = r[rs1] >>> r[rs2]; break;
+                case SRA: r[rd] = r[rs1] >> r[rs2]; break;
+                case SLT: r[rd] = r[rs1] < r[rs2] ? 1 : 0; break;
+                case SLTU:
+                    r[rd] = Integer.compareUnsigned(r[rs1], r[rs2]) < 0 ? 1 : 0;
+                    break;
+                case MULH:
+                    r[rd] = (int) (((long) r[rs1] * r[rs2]) >> 32);
+                    break;
+                case MULHU:
+                    r[rd] = (int) (((r[rs1] & 0xffffffffL)
+                                    * (r[rs2] & 0xffffffffL)) >>> 32);
+                    break;
+                case MULHSU:
+                    r[rd] = (int) (((long) r[rs1] * (r[rs2] & 0xffffffffL))
+                                   >> 32);
+                    break;
+                case ADDI: r[rd] = r[rs1] + imm; break;
+                case ANDI: r[rd] = r[rs1] & imm; break;
+                case ORI: r[rd] = r[rs1] | imm; break;
+                case XORI: r[rd] = r[rs1] ^ imm; break;
+                case SLLI: r[rd] = r[rs1] << imm; break;
+                case SRLI: r[rd] = r[rs1] >>> imm; break;
+                case SRAI: r[rd] = r[rs1] >> imm; break;
+                case SLTI: r[rd] = r[rs1] < imm ? 1 : 0; break;
+                case SLTIU:
+                    r[rd] = Integer.compareUnsigned(r[rs1], imm) < 0 ? 1 : 0;
+                    break;
+                case LUI: r[rd] = imm << 12; break;
+                case LW: r[rd] = loadWord(r[rs1] + imm); break;
+                case LB: r[rd] = (byte) loadByte(r[rs1] + imm); break;
+                case LBU: r[rd] = loadByte(r[rs1] + imm); break;
+                case LH: r[rd] = (short) loadHalf(r[rs1] + imm); break;
+                case LHU: r[rd] = loadHalf(r[rs1] + imm); break;
+                case SW: storeWord(r[rs1] + imm, r[rs2]); break;
+                case SB: storeByte(r[rs1] + imm, r[rs2]); break;
+                case SH:
+                    storeByte(r[rs1] + imm, r[rs2]);
+                    storeByte(r[rs1] + imm + 1, r[rs2] >> 8);
+                    break;
+                case BEQ: if (r[rs1] == r[rs2]) { pc = imm; continue; } break;
+                case BNE: if (r[rs1] != r[rs2]) { pc = imm; continue; } break;
+                case BLT: if (r[rs1] < r[rs2]) { pc = imm; continue; } break;
+                case BGE: if (r[rs1] >= r[rs2]) { pc = imm; continue; } break;
+                case BLTU:
+                    if (Integer.compareUnsigned(r[rs1], r[rs2]) < 0) {
+                        pc = imm;
+                        continue;
+                    }
+                    break;
+                case BGEU:
+                    if (Integer.compareUnsigned(r[rs1], r[rs2]) >= 0) {
+                        pc = imm;
+                        continue;
+                    }
+                    break;
+                case JAL:
+                    r[rd] = TEXT_BASE + 4 * (pc + 1);
+                    r[0] = 0;
+                    pc = imm;
+                    continue;
+                case JALR: {
+                    int target = r[rs1] + imm;
+                    r[rd] = TEXT_BASE + 4 * (pc + 1);
+                    r[0] = 0;
+                    pc = codeIndex(target);
+                    continue;
+                }
+                case ECALL:
+                    this.pc = pc;
+                    if (ecall()) {
+                        instructions = count;
+                        return true;
+                    }
+                    break;
+                default:
+                    throw new Fault("illegal instruction");
+                }
+                r[0] = 0;
+                pc += 1;
+            }
+            this.pc = pc;
+            instructions = count;
+            flushOutput();
+            return false;
+        } catch (Fault e) {
+            this.pc = pc;
+            instructions = count;
+            flushOutput();
+            if (pc >= insns.length) {
+                throw e;
+            }
+            throw new Fault(e.getMessage() + " at line " + program.lines[pc]);
+        }
+    }
+
+    /** Return the index of the instruction at ADDRESS. */
+    private int codeIndex(int address) {
+        int index = (address - TEXT_BASE) >> 2;
+        if ((address & 3) != 0 || index < 0 || index >= program.insns.length) {
+            throw new Fault("jump to invalid address 0x"
+                            + Integer.toHexString(address));
+        }
+        return index;
+    }
+
+    /** Return the word at ADDRESS. */
+    private int loadWord(int address) {
+        if ((address & 3) != 0) {
+            throw misaligned(address);
+        }
+        int offset = address - DATA_BASE;
+        if (offset >= 0 && offset < brk) {
+            return heap[offset >> 2];
+        }
+        offset = address - stackBase;
+        if (offset >= 0 && offset < STACK_TOP - stackBase) {
+            return stack[offset >> 2];
+        }
+        throw invalid(address);
+    }
+
+    /** Set the word at ADDRESS to VALUE. */
+    private void storeWord(int address, int value) {
+        if ((address & 3) != 0) {
+            throw misaligned(address);
+        }
+        int offset = address - DATA_BASE;
+        if (offset >= 0 && offset < brk) {
+            heap[offset >> 2] = value;
+            return;
+        }
+        offset = address - stackBase;
+        if (offset >= 0 && offset < STACK_TOP - stackBase) {
+            stack[offset >> 2] = value;
+            return;
+        }
+        throw invalid(address);
+    }
+
+    /** Return the unsigned byte at ADDRESS. */
+    private int loadByte(int address) {
+        int word = loadWord(address & ~3);
+        return (word >>> (8 * (address & 3))) & 0xff;
+    }
+
+    /** Return the unsigned halfword at ADDRESS. */
+    private int loadHalf(int address) {
+        return loadByte(address) | loadByte(address + 1) << 8;
+    }
+
+    /** Set the byte at ADDRESS to the low byte of VALUE. */
+    private void storeByte(int address, int value) {
+        int shift = 8 * (address & 3);
+        int word = loadWord(address & ~3);
+        word = (word & ~(0xff << shift)) | (value & 0xff) << shift;
+        storeWord(address & ~3, word);
+    }
+
+    /** Perform the environment call requested in a0.  Returns true iff
+     *  the program exits. */
+    private boolean ecall() {
+        int[] r = regs;
+        switch (r[A0]) {
+        case PRINT_INT: {
+            String text = Integer.toString(r[A1]);
+            for (int i = 0; i < text.length(); i += 1) {
+                output.write(text.charAt(i));
+            }
+            break;
+        }
+        case PRINT_STRING:
+            for (int address = r[A1]; ; address += 1) {
+                int b = loadByte(address);
+                if (b == 0) {
+                    break;
+                }
+                output.write(b);
+            }
+            break;
+        case PRINT_CHAR:
+            output.write(r[A1]);
+            break;
+        case SBRK:
+            r[A0] = DATA_BASE + brk;
+            sbrk(r[A1]);
+            break;
+        case EXIT:
+            exitCode = 0;
+            flushOutput();
+            return true;
+        case EXIT2:
+            exitCode = r[A1];
+            flushOutput();
+            return true;
+        case FILL_LINE_BUFFER:
+            r[A0] = fillLineBuffer();
+            break;
+        case READ_STRING: {
+            int n = Math.min(r[A2], lineBuffer.length - linePosition);
+            for (int i = 0; i < n; i += 1) {
+                storeByte(r[A1] + i, lineBuffer[linePosition + i]);
+            }
+            linePosition += n;
+            r[A0] = n;
+            break;
+        }
+        default:
+            throw new Fault("unknown ecall " + r[A0]);
+        }
+        if (output.size() >= 8192) {
+            flushOutput();
+        }
+        return false;
+    }
+
+    /** Extend the heap by BYTES bytes (rounded up to a word). */
+    private void sbrk(int bytes) {
+        long size = (long) brk + ((bytes + 3) & ~3);
+        if (bytes < 0 || size > memoryLimit
+            || DATA_BASE + size > stackBase) {
+            throw new Fault("out of memory: cannot extend heap by "
+                            + bytes + " bytes");
+        }
+        int words = (int) (size / 4);
+        if (words > heap.length) {
+            heap = Arrays.copyOf(heap, (int) Math.min(Math.max(words, 2L * heap.length),
+                                                      memoryLimit / 4));
+        }
+        brk = (int) size;
+    }
+
+    /** Read the next input line, without its line terminator, into the
+     *  line buffer, returning its length, or -1 at end of input. */
+    private int fillLineBuffer() {
+        flushOutput();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try {
+            int c = in.read();
+            if (c < 0) {
+                lineBuffer = new byte[0];
+                linePosition = 0;
+                return -1;
+            }
+            while (c >= 0 && c != '\n') {
+                if (c != '\r') {
+                    line.write(c);
+                }
+                c = in.read();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        lineBuffer = line.toByteArray();
+        linePosition = 0;
+        return lineBuffer.length;
+    }
+
+    /** Write any pending output to OUT. */
+    private void flushOutput() {
+        try {
+            output.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        output.reset();
+    }
+
+    /** Return a fault for a misaligned access to ADDRESS. */
+    private static Fault misaligned(int address) {
+        return new Fault("misaligned access to address 0x"
+                         + Integer.toHexString(address));
+    }
+
+    /** Return a fault for an access to unmapped ADDRESS. */
+    private static Fault invalid(int address) {
+        return new Fault("invalid access to address 0x"
+                         + Integer.toHexString(address));
+    }
+}
@@ -0,0 +1,133 @@
+package simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import common.codegen.CodeGenBase;
+
+import static simulator.Executable.*;
+
+/**
+ * A flat profile of a run of a program compiled with profiling on.
+ *
+ * The counts of calls, allocations and loop iterations of each routine
+ * are those its code keeps in the profile table (see
+ * CodeGenBase.emitProfileTable).  The instructions executed by a routine
+ * are those the interpreter counted within its code, which runs from its
+ * entry point to that of the next routine in the table, so they exclude
+ * the instructions of the routines it calls.
+ */
+public class Profile {
+
+    /** Name of the label of the profile table. */
+    public static final String TABLE = "profile.table";
+
+    /** The profile of one routine. */
+    public static class Entry {
+        /** Name of the routine. */
+        public final String name;
+        /** Index of its first instruction. */
+        final int start;
+        /** Its counters. */
+        public final long calls, allocations, loops;
+        /** Number of instructions it executed. */
+        public long instructions;
+
+        Entry(String name, int start, long calls, long allocations,
+              long loops) {
+            this.name = name;
+            this.start = start;
+            this.calls = calls;
+            this.allocations = allocations;
+            this.loops = loops;
+        }
+    }
+
+    /** The routines, in order of decreasing instruction count. */
+    private final List<Entry> entries = new ArrayList<>();
+    /** Total number of instructions executed. */
+    private final long total;
+
+    /** The profile of the run of PROGRAM by INTERPRETER, which must have
+     *  been counting instructions since the run started.  Throws
+     *  IllegalArgumentException if PROGRAM has no profile table. */
+    public Profile(Executable program, Interpreter interpreter) {
+        Integer table = program.getLabels().get(TABLE);
+        long[] counts = interpreter.getInstructionCounts();
+        if (table == null || counts == null) {
+            throw new IllegalArgumentException("program was not profiled");
+        }
+        int n = interpreter.readWord(table);
+        int words = CodeGenBase.PROFILE_ENTRY_WORDS;
+        for (int i = 0; i < n; i += 1) {
+            int entry = table + 4 + 4 * words * i;
+            entries.add(new Entry(readStr(interpreter, interpreter.readWord(entry)),
+                                  (interpreter.readWord(entry + 4) - TEXT_BASE) >> 2,
+                                  readCount(interpreter, entry + CodeGenBase.PROFILE_CALLS),
+                                  readCount(interpreter, entry + CodeGenBase.PROFILE_ALLOCS),
+                                  readCount(interpreter, entry + CodeGenBase.PROFILE_LOOPS)));
+        }
+
+        Entry[] byStart = entries.toArray(new Entry[0]);
+        Arrays.sort(byStart, (a, b) -> Integer.compare(a.start, b.start));
+        long sum = 0;
+        int e = -1;
+        for (int pc = 0; pc < counts.length; pc += 1) {
+            while (e + 1 < byStart.length && byStart[e + 1].start <= pc) {
+                e += 1;
+            }
+            if (e >= 0) {
+                byStart[e].instructions += counts[pc];
+            }
+            sum += counts[pc];
+        }
+        total = sum;
+        entries.sort((a, b) -> Long.compare(b.instructions, a.instructions));
+    }
+
+    /** Return the routines in order of decreasing instruction count. */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /** Return the unsigned counter at ADDRESS in the memory of
+     *  INTERPRETER. */
+    private static long readCount(Interpreter interpreter, int address) {
+        return interpreter.readWord(address) & 0xffffffffL;
+    }
+
+    /** Return the contents of the str object at ADDRESS in the memory of
+     *  INTERPRETER. */
+    private static String readStr(Interpreter interpreter, int address) {
+        int length = interpreter.readWord(address + 4 * CodeGenBase.HEADER_SIZE);
+        int chars = address + 4 * CodeGenBase.HEADER_SIZE + 4;
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < length; i += 1) {
+            int word = interpreter.readWord((chars + i) & ~3);
+            result.append((char) ((word >>> (8 * ((chars + i) & 3))) & 0xff));
+        }
+        return result.toString();
+    }
+
+    /** Return the profile as a table, one line per routine that executed
+     *  any instruction, busiest first. */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%7s %12s %10s %10s %12s  %s%n",
+                                    "% insns", "Insns", "Calls", "Allocs",
+                                    "Loops", "Routine"));
+        for (Entry entry : entries) {
+            if (entry.instructions == 0) {
+                continue;
+            }
+            result.append(String.format("%6.2f%% %12d %10d %10d %12d  %s%n",
+                                        100.0 * entry.instructions / total,
+                                        entry.instructions, entry.calls,
+                                        entry.allocations, entry.loops,
+                                        entry.name));
+        }
+        return result.toString();
+    }
+}
@@ -1,18 +1,71 @@
 package web;
 
+import lexer.IncrementalParser;
 import lexer.Parser;
+import lexer.TokenStream;
 import analyzer.Analysis;
 import codegen.CodeGen;
+import common.CompilationCache;
+import common.CompilerStats;
 import common.astnodes.Program;
+import common.codegen.CodeGenOptions;
 
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
 @RestController
 @RequestMapping("/api")
 public class CompilerController {
+
+    /** Outputs of earlier requests.  The editor re-posts identical code
+     *  often, so repeated requests skip all phases.  The system
+     *  properties pylang.cache.size and pylang.cache.bytes bound the
+     *  entries and bytes kept in memory; set pylang.cache.dir to also
+     *  keep results on disk. */
+    private final CompilationCache cache = new CompilationCache(
+        Integer.getInteger("pylang.cache.size", CompilationCache.DEFAULT_CAPACITY),
+        Long.getLong("pylang.cache.bytes", CompilationCache.DEFAULT_MAX_BYTES),
+        System.getProperty("pylang.cache.dir") == null
+            ? null : Paths.get(System.getProperty("pylang.cache.dir")));
+
+    /** Costs of the compiler phases run for all requests so far. */
+    private final CompilerStats stats = new CompilerStats();
+
+    /** Maximum number of documents being edited whose parses are kept. */
+    private static final int MAX_DOCUMENTS =
+        Integer.getInteger("pylang.documents", 64);
+
+    /** Maximum length, in characters, of a document being edited. */
+    private static final int MAX_DOCUMENT_LENGTH =
+        Integer.getInteger("pylang.document.length", 1 << 20);
+
+    /** Source of the ids issued to documents being edited. */
+    private final SecureRandom ids = new SecureRandom();
+
+    /** Incremental parsers of the documents being edited, by document
+     *  id, least recently used first. */
+    private final Map<String, IncrementalParser> documents =
+        Collections.synchronizedMap(
+            new LinkedHashMap<String, IncrementalParser>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                    Map.Entry<String, IncrementalParser> eldest) {
+                    return size() > MAX_DOCUMENTS;
+                }
+            });
     
     @PostMapping("/compile")
     public ResponseEntity<Map<String, Object>> compile(@RequestBody CompileRequest request) {
@@ -32,45 +85,245 @@ public class CompilerController {
                 return ResponseEntity.badRequest().body(response);
             }
             
-            // Phase 1: Parser
-            Program program = Parser.process(code, false);
-            
+            String phaseName;
             if ("parser".equals(phase)) {
-                response.put("result", program.toJSON());
-                response.put("phase", "Parser");
-                return ResponseEntity.ok(response);
-            }
-            
-            // Phase 2: Semantic Analysis
-            program = Analysis.process(program, false);
-            
-            if ("analyzer".equals(phase)) {
-                response.put("result", program.toJSON());
-                response.put("phase", "Semantic Analyzer");
-                return ResponseEntity.ok(response);
+                phaseName = "Parser";
+            } else if ("analyzer".equals(phase)) {
+                phaseName = "Semantic Analyzer";
+            } else if ("codegen".equals(phase)) {
+                phaseName = "Code Generator";
+            } else {
+                response.put("error", "Invalid phase: " + phase);
+                return ResponseEntity.badRequest().body(response);
             }
-            
-            // Phase 3: Code Generation
-            if ("codegen".equals(phase)) {
-                String assembly = CodeGen.process(program, false);
-                if (assembly == null) {
+
+            String result = cache.get(code, phase);
+            if (result == null) {
+                result = compile(code, phase);
+                if (result == null) {
                     response.put("error", "Code generation failed");
                     return ResponseEntity.badRequest().body(response);
                 }
-                response.put("result", assembly);
-                response.put("phase", "Code Generator");
-                return ResponseEntity.ok(response);
+                cache.put(code, phase, result);
             }
+            response.put("result", result);
+            response.put("phase", phaseName);
+            return ResponseEntity.ok(response);
             
-            response.put("error", "Invalid phase: " + phase);
+        } catch (Exception e) {
+            response.put("error", "Compilation error: " + e.getMessage());
             return ResponseEntity.badRequest().body(response);
-            
+        }
+    }
+
+    /** Compile the code in REQUEST to assembly, streaming the result as
+     *  plain text while it is generated instead of building it in memory.
+     *  Failures during code generation truncate the response. */
+    @PostMapping("/compile/stream")
+    public ResponseEntity<StreamingResponseBody> compileStream(@RequestBody CompileRequest request) {
+        String code = request.getCode();
+        if (code == null || code.trim().isEmpty()) {
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                .body(out -> out.write("No code provided\n".getBytes(StandardCharsets.UTF_8)));
+        }
+        if (!code.endsWith("\n")) {
+            code = code + "\n";
+        }
+
+        Program program;
+        try {
+            program = Analysis.process(Parser.process(code, false, stats), false, stats);
+        } catch (Exception e) {
+            String message = "Compilation error: " + e.getMessage() + "\n";
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                .body(out -> out.write(message.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            CodeGen.process(program, new CodeGenOptions(), writer, false, stats,
+                            System.err);
+            writer.flush();
+        });
+    }
+
+    /** Return the tokens of the code in REQUEST, for syntax
+     *  highlighting, without parsing it.  Each token is a list of its
+     *  kind and the line and column of its first and last characters. */
+    @PostMapping("/tokens")
+    public ResponseEntity<Map<String, Object>> tokens(@RequestBody CompileRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        String code = request.getCode();
+        if (code == null) {
+            response.put("error", "No code provided");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        List<List<Object>> tokens = new ArrayList<>();
+        try (CompilerStats.Timer timer = stats.time("lex")) {
+            TokenStream stream = new TokenStream(code);
+            while (stream.next()) {
+                List<Object> token = new ArrayList<>(5);
+                token.add(stream.kindName());
+                token.add(stream.line(stream.start()));
+                token.add(stream.column(stream.start()));
+                token.add(stream.line(stream.end()));
+                token.add(stream.column(stream.end()));
+                tokens.add(token);
+            }
+        } catch (Exception e) {
+            response.put("error", "Lexing error: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+        response.put("tokens", tokens);
+        return ResponseEntity.ok(response);
+    }
+
+    /** Return the AST of a document being edited, as for the "parser"
+     *  phase of /compile.  A REQUEST with code starts the document with
+     *  that text, under a new id given in the response, or restarts the
+     *  document it names; otherwise it replaces the characters of the
+     *  document it names from offset start up to end with text, and only
+     *  the top-level declarations and statements the edit touches are
+     *  reparsed (see IncrementalParser).  The response also gives the
+     *  number of them reparsed.  Ids are only ever issued here, and no
+     *  document may grow past MAX_DOCUMENT_LENGTH characters. */
+    @PostMapping("/parse/edit")
+    public ResponseEntity<Map<String, Object>> parseEdit(@RequestBody EditRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        String id = request.getDocument();
+        String code = request.getCode();
+        if (id == null && code == null) {
+            response.put("error", "No document given");
+            return ResponseEntity.badRequest().body(response);
+        }
+        if (code != null && code.length() > MAX_DOCUMENT_LENGTH) {
+            response.put("error", "Document longer than "
+                         + MAX_DOCUMENT_LENGTH + " characters");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        try (CompilerStats.Timer timer = stats.time("parse/incremental")) {
+            IncrementalParser parser;
+            if (code != null) {
+                if (id == null || !documents.containsKey(id)) {
+                    id = newDocumentId();
+                }
+                parser = new IncrementalParser(code);
+                documents.put(id, parser);
+            } else {
+                parser = documents.get(id);
+                if (parser == null) {
+                    response.put("error", "Unknown document: " + id);
+                    return ResponseEntity.badRequest().body(response);
+                }
+                if (request.getStart() == null || request.getEnd() == null
+                    || request.getText() == null) {
+                    response.put("error", "Edit needs start, end and text");
+                    return ResponseEntity.badRequest().body(response);
+                }
+            }
+            /* Edits move the nodes they reuse, so serialize under the
+             * same lock. */
+            synchronized (parser) {
+                Program program;
+                if (code != null) {
+                    program = parser.getProgram();
+                } else {
+                    int start = request.getStart(), end = request.getEnd();
+                    long length = (long) parser.getText().length()
+                        - (end - start) + request.getText().length();
+                    if (length > MAX_DOCUMENT_LENGTH) {
+                        response.put("error", "Document longer than "
+                                     + MAX_DOCUMENT_LENGTH + " characters");
+                        return ResponseEntity.badRequest().body(response);
+                    }
+                    program = parser.edit(start, end, request.getText());
+                }
+                response.put("result", toJSON(program));
+                response.put("reparsed", parser.getReparsed());
+            }
+            response.put("document", id);
+            response.put("phase", "Parser");
+            return ResponseEntity.ok(response);
         } catch (Exception e) {
             response.put("error", "Compilation error: " + e.getMessage());
             return ResponseEntity.badRequest().body(response);
         }
     }
+
+    /** Return a fresh, unguessable id for a document being edited. */
+    private String newDocumentId() {
+        byte[] bytes = new byte[16];
+        StringBuilder id = new StringBuilder();
+        do {
+            ids.nextBytes(bytes);
+            id.setLength(0);
+            for (byte b : bytes) {
+                id.append(String.format("%02x", b));
+            }
+        } while (documents.containsKey(id.toString()));
+        return id.toString();
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("phases", stats.toJsonList());
+        return ResponseEntity.ok(response);
+    }
+
+    /** Return the output of compiling CODE through PHASE ("parser",
+     *  "analyzer" or "codegen"), or null if code generation fails. */
+    private String compile(String code, String phase) throws Exception {
+        // Phase 1: Parser
+        Program program = Parser.process(code, false, stats);
+        
+        if ("parser".equals(phase)) {
+            return toJSON(program);
+        }
+        
+        // Phase 2: Semantic Analysis
+        program = Analysis.process(program, false, stats);
+        
+        if ("analyzer".equals(phase)) {
+            return toJSON(program);
+        }
+        
+        // Phase 3: Code Generation
+        return CodeGen.process(program, false, stats);
+    }
+
+    /** Return PROGRAM in JSON form, recording the cost in STATS. */
+    private String toJSON(Program program) throws Exception {
+        try (CompilerStats.Timer timer = stats.time("json")) {
+            return program.toJSON();
+        }
+    }
     
+    public static class EditRequest {
+        private String document;
+        private String code;
+        private Integer start;
+        private Integer end;
+        private String text;
+
+        public String getDocument() { return document; }
+        public void setDocument(String document) { this.document = document; }
+
+        public String getCode() { return code; }
+        public void setCode(String code) { this.code = code; }
+
+        public Integer getStart() { return start; }
+        public void setStart(Integer start) { this.start = start; }
+
+        public Integer getEnd() { return end; }
+        public void setEnd(Integer end) { this.end = end; }
+
+        public String getText() { return text; }
+        public void setText(String text) { this.text = text; }
+    }
+
     public static class CompileRequest {
         private String code;
         private String phase;
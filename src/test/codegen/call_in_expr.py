@@ -0,0 +1,43 @@
+calls: int = 0
+
+class Box(object):
+    n: int = 0
+    def get(self: "Box") -> int:
+        return self.n
+    def add(self: "Box", k: int) -> "Box":
+        self.n = self.n + k
+        return self
+
+def trace(x: int) -> int:
+    global calls
+    calls = calls + 1
+    print(x)
+    return x
+
+def sq(x: int) -> int:
+    return x * x
+
+def pair(x: int, y: int) -> int:
+    return x * 100 + y
+
+def name(x: int) -> str:
+    if x == 1:
+        return "one"
+    return "many"
+
+b: Box = None
+xs: [int] = None
+
+print(trace(1) + trace(2) * trace(3))
+print(sq(trace(4)) - pair(trace(5), sq(trace(6)) + 1))
+print(pair(sq(2) + sq(3), pair(1, 2) // sq(3)) + sq(sq(2)))
+xs = [sq(1), sq(2) + trace(7), pair(sq(1), sq(2))]
+print(xs[sq(1)] + xs[trace(2)] - len(xs) * sq(len(xs)))
+b = Box()
+print(b.add(trace(8)).add(sq(3)).get() + b.add(1).get() * trace(2))
+print(name(sq(1)) + " " + name(trace(3)))
+if sq(trace(3)) > pair(0, 8) and not sq(2) == trace(5):
+    print(calls)
+while trace(calls) < 20 and sq(calls) < 400:
+    calls = calls + sq(1) + 1
+print(calls)
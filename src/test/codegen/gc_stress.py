@@ -0,0 +1,64 @@
+# Allocates many times the heap while keeping linked lists, lists of
+# objects and strings live: nodes held only by the stack while build
+# recurses, a list of more distinct nodes than the mark stack holds, and
+# garbage of many sizes to coalesce and hand back to the bump pointer.
+class Node(object):
+    value: int = 0
+    next: "Node" = None
+
+def cons(value: int, next: Node) -> Node:
+    node: Node = None
+    node = Node()
+    node.value = value
+    node.next = next
+    return node
+
+def build(n: int) -> Node:
+    if n == 0:
+        return None
+    return cons(n, build(n - 1))
+
+def nodes(lo: int, hi: int) -> [Node]:
+    mid: int = 0
+    if hi - lo == 1:
+        return [cons(lo, None)]
+    mid = (lo + hi) // 2
+    return nodes(lo, mid) + nodes(mid, hi)
+
+def total(node: Node) -> int:
+    sum: int = 0
+    while not (node is None):
+        sum = sum + node.value
+        node = node.next
+    return sum
+
+def total_all(table: [Node]) -> int:
+    sum: int = 0
+    node: Node = None
+    for node in table:
+        sum = sum + total(node)
+    return sum
+
+keep: Node = None
+table: [Node] = None
+wide: [Node] = None
+word: str = ""
+round: int = 0
+
+keep = build(100)
+table = nodes(0, 50)
+while round < 6000:
+    table[round % 50] = build(round % 50 + 1)
+    build(100)
+    word = word + "ab"
+    if len(word) > 200:
+        word = "x"
+    round = round + 1
+    if round % 500 == 0:
+        wide = nodes(0, 5000)
+        print(total(keep) + total_all(table))
+
+print(len(word))
+print(total(keep))
+print(total_all(table))
+print(total_all(wide))
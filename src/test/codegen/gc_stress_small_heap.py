@@ -0,0 +1,53 @@
+# Runs in a 16KB heap that grows 4KB at a time (see
+# gc_stress_small_heap.py.options).  Keeps every other node allocated
+# live, so that collection leaves the heap riddled with node-sized holes,
+# then allocates strings too large for any hole, up to twice the
+# starting heap in one object, and finally drops the nodes so that their
+# holes coalesce and are reused.
+class Node(object):
+    value: int = 0
+    next: "Node" = None
+
+def cons(value: int, next: Node) -> Node:
+    node: Node = None
+    node = Node()
+    node.value = value
+    node.next = next
+    return node
+
+def total(node: Node) -> int:
+    sum: int = 0
+    while not (node is None):
+        sum = sum + node.value
+        node = node.next
+    return sum
+
+def double(s: str, n: int) -> str:
+    while len(s) < n:
+        s = s + s
+    return s
+
+keep: Node = None
+word: str = ""
+round: int = 0
+i: int = 0
+
+while i < 2000:
+    keep = cons(i, keep)
+    cons(i, None)
+    i = i + 1
+print(total(keep))
+
+while round < 5:
+    word = double("xy", 4096 * (round + 1))
+    print(len(word))
+    print(total(keep))
+    round = round + 1
+print(word[len(word) - 1])
+
+keep = None
+i = 0
+while i < 4000:
+    keep = cons(2 * i, keep)
+    i = i + 1
+print(total(keep))
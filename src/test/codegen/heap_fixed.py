@@ -0,0 +1,38 @@
+# Allocates far more than its 16KB heap, which may not grow (see
+# heap_fixed.py.options), while keeping at most 100 nodes live, so that
+# collection alone must make room; then keeps every node live, and runs
+# out of memory.
+class Node(object):
+    value: int = 0
+    next: "Node" = None
+
+def cons(value: int, next: Node) -> Node:
+    node: Node = None
+    node = Node()
+    node.value = value
+    node.next = next
+    return node
+
+def total(node: Node) -> int:
+    sum: int = 0
+    while not (node is None):
+        sum = sum + node.value
+        node = node.next
+    return sum
+
+head: Node = None
+i: int = 0
+
+while i < 20000:
+    head = cons(i, head)
+    if i % 5000 == 4999:
+        print(total(head))
+    if i % 100 == 99:
+        head = None
+    i = i + 1
+
+i = 0
+while i < 20000:
+    head = cons(i, head)
+    i = i + 1
+print(total(head))
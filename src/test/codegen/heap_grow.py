@@ -0,0 +1,46 @@
+# Starts with a 16KB heap that grows 4KB at a time (see
+# heap_grow.py.options).  Keeps 20000 nodes live, far more than fit at
+# first, so that the heap must grow many times, then builds a string of
+# 32768 characters: one object twice the size of the starting heap and
+# many times the growth step.
+class Node(object):
+    value: int = 0
+    next: "Node" = None
+
+def cons(value: int, next: Node) -> Node:
+    node: Node = None
+    node = Node()
+    node.value = value
+    node.next = next
+    return node
+
+def count(node: Node) -> int:
+    n: int = 0
+    while not (node is None):
+        n = n + 1
+        node = node.next
+    return n
+
+def total(node: Node) -> int:
+    sum: int = 0
+    while not (node is None):
+        sum = sum + node.value
+        node = node.next
+    return sum
+
+head: Node = None
+word: str = "ab"
+i: int = 0
+
+while i < 20000:
+    head = cons(i, head)
+    cons(i, None)
+    i = i + 1
+
+print(count(head))
+print(total(head))
+
+while len(word) < 32768:
+    word = word + word
+print(len(word))
+print(word[32767])
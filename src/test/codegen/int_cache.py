@@ -0,0 +1,15 @@
+# Boxes ints at both ends of the default int cache, -128..1023, and one
+# past each: only the cached ones are the same object every time.
+def box(n: int) -> object:
+    return n
+
+def same(n: int) -> bool:
+    return box(n) is box(n)
+
+values: [int] = None
+v: int = 0
+
+values = [-129, -128, -127, 0, 1022, 1023, 1024]
+for v in values:
+    print(box(v))
+    print(same(v))
@@ -0,0 +1,15 @@
+# Boxes ints at both ends of a cache that starts beyond the reach of an
+# immediate (see int_cache_high.py.options), and one past each.
+def box(n: int) -> object:
+    return n
+
+def same(n: int) -> bool:
+    return box(n) is box(n)
+
+values: [int] = None
+v: int = 0
+
+values = [4999, 5000, 5001, 5002, 5003]
+for v in values:
+    print(box(v))
+    print(same(v))
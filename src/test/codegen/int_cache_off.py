@@ -0,0 +1,15 @@
+# With the int cache disabled (see int_cache_off.py.options), every int
+# is boxed afresh.
+def box(n: int) -> object:
+    return n
+
+def same(n: int) -> bool:
+    return box(n) is box(n)
+
+values: [int] = None
+v: int = 0
+
+values = [-1, 0, 1]
+for v in values:
+    print(box(v))
+    print(same(v))
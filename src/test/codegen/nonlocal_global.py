@@ -0,0 +1,52 @@
+count: int = 0
+label: str = "g"
+log: [int] = None
+
+def outer(n: int) -> int:
+    total: int = 0
+    step: int = 1
+    def bump(k: int) -> int:
+        nonlocal total
+        global count
+        total = total + k * step
+        count = count + 1
+        return total
+    def middle(m: int) -> int:
+        depth: int = 10
+        def inner(j: int) -> int:
+            nonlocal depth
+            global label
+            depth = depth + j
+            label = label + "i"
+            return bump(depth) + step
+        def peek() -> int:
+            return total + depth + n + count
+        inner(m)
+        inner(m + 1)
+        return peek()
+    def setstep(s: int) -> object:
+        nonlocal step
+        step = s
+    bump(n)
+    setstep(2)
+    bump(n)
+    return middle(n) + total * step
+
+def record(x: int) -> object:
+    global log
+    log = log + [x]
+
+log = []
+print(outer(1))
+print(count)
+print(label)
+print(outer(3))
+print(count)
+print(label)
+record(count)
+record(outer(0))
+record(count)
+print(log[0])
+print(log[1])
+print(log[2])
+print(len(log))
@@ -0,0 +1,26 @@
+a: int = 3
+b: int = 5
+c: int = 7
+
+def deep(p: int, q: int, r: int, s: int, t: int, u: int, v: int, w: int) -> int:
+    x: int = 2
+    y: int = 11
+    return p + (q * (r - (s + (t * (u - (v + (w * (x - (y + (p * (q - (r + s))))))))))))
+
+def wide(p: int, q: int, r: int, s: int, t: int, u: int, v: int, w: int) -> int:
+    return (p * q + r * s) * (t * u - v * w) + (p - q) * (r - s) * (t + u) * (v + w) - ((p + q + r) * (s + t + u) - (v * w * p)) // (1 + q * q) + (p * (q * (r * (s * (t * (u * (v * w))))))) % 1000003
+
+def mixed(n: int) -> int:
+    i: int = 0
+    total: int = 0
+    while i < n:
+        total = total + ((i * a + b) * (i * b + c) - (i * c + a) * (i + 1)) % 97 + (a + (b + (c + (i + (a * (b + (c * (i + 1)))))))) // (i + 1)
+        i = i + 1
+    return total
+
+print(deep(1, 2, 3, 4, 5, 6, 7, 8))
+print(deep(a, b, c, a, b, c, a, b))
+print(wide(1, 2, 3, 4, 5, 6, 7, 8))
+print(wide(c, b, a, c, b, a, c, b))
+print(mixed(10))
+print(deep(1, 2, 3, 4, 5, 6, 7, 8) + wide(1, 2, 3, 4, 5, 6, 7, 8) * (mixed(3) - deep(a, b, c, a, b, c, a, b)))
@@ -0,0 +1,4 @@
+pass
+x:int = 1
+def f():
+    pass